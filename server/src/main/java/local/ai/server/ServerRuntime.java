@@ -5,8 +5,9 @@ import local.ai.server.config.AppConfig;
 import local.ai.server.config.YamlConfigLoader;
 import local.ai.server.db.SqliteStore;
 import local.ai.server.etl.EtlService;
-import local.ai.server.index.ElasticsearchSink;
-import local.ai.server.index.MilvusVectorSink;
+import local.ai.server.index.KeywordSink;
+import local.ai.server.index.SinkRegistry;
+import local.ai.server.index.VectorSink;
 import local.ai.server.mcp.McpRuntime;
 import local.ai.server.watch.MultiDirectoryWatcher;
 import local.ai.server.web.HttpApi;
@@ -38,12 +39,14 @@ public final class ServerRuntime {
     YamlConfigLoader yaml = new YamlConfigLoader(config.configDir);
     yaml.reload();
 
-    MilvusVectorSink milvus = new MilvusVectorSink(config.milvus);
-    ElasticsearchSink es = new ElasticsearchSink(config.es);
-    EtlService etl = new EtlService(config, store, milvus, es, yaml);
+    VectorSink vectors = SinkRegistry.vectorSink(config, store);
+    KeywordSink keywords = SinkRegistry.keywordSink(config, store);
+    EtlService etl = new EtlService(config, store, vectors, keywords, yaml);
 
-    MultiDirectoryWatcher watcher = new MultiDirectoryWatcher(etl);
-    store.listDirectories().forEach(watcher::addRoot);
+    MultiDirectoryWatcher watcher = new MultiDirectoryWatcher(config.watch, etl);
+    for (SqliteStore.DirectoryRow d : store.listDirectoryRows()) {
+      watcher.addRoot(d.path, d.include, d.exclude);
+    }
 
     McpRuntime mcp = new McpRuntime(store);
     HttpApi http = new HttpApi(port, config, store, yaml, mcp, watcher, etl);
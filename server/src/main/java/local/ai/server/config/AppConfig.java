@@ -13,18 +13,26 @@ public final class AppConfig {
   public final Path dataDir;
   public final Path configDir;
   public final MilvusConfig milvus;
+  public final HnswConfig hnsw;
   public final EsConfig es;
   public final LlmConfig llm;
   public final EtlConfig etl;
+  public final RagConfig rag;
+  public final IndexConfig index;
+  public final WatchConfig watch;
 
-  private AppConfig(Path homeDir, Path dataDir, Path configDir, MilvusConfig milvus, EsConfig es, LlmConfig llm, EtlConfig etl) {
+  private AppConfig(Path homeDir, Path dataDir, Path configDir, MilvusConfig milvus, HnswConfig hnsw, EsConfig es, LlmConfig llm, EtlConfig etl, RagConfig rag, IndexConfig index, WatchConfig watch) {
     this.homeDir = homeDir;
     this.dataDir = dataDir;
     this.configDir = configDir;
     this.milvus = milvus;
+    this.hnsw = hnsw;
     this.es = es;
     this.llm = llm;
     this.etl = etl;
+    this.rag = rag;
+    this.index = index;
+    this.watch = watch;
   }
 
   @SuppressWarnings("unchecked")
@@ -53,6 +61,9 @@ public final class AppConfig {
     Map<String, Object> milvusRaw = (Map<String, Object>) root.getOrDefault("milvus", new HashMap<String, Object>());
     MilvusConfig milvus = MilvusConfig.from(milvusRaw);
 
+    Map<String, Object> hnswRaw = (Map<String, Object>) root.getOrDefault("hnsw", new HashMap<String, Object>());
+    HnswConfig hnsw = HnswConfig.from(hnswRaw);
+
     Map<String, Object> esRaw = (Map<String, Object>) root.getOrDefault("es", new HashMap<String, Object>());
     EsConfig es = EsConfig.from(esRaw);
 
@@ -62,7 +73,16 @@ public final class AppConfig {
     Map<String, Object> etlRaw = (Map<String, Object>) root.getOrDefault("etl", new HashMap<String, Object>());
     EtlConfig etl = EtlConfig.from(etlRaw);
 
-    return new AppConfig(configDir, dataDir.toAbsolutePath().normalize(), configDir, milvus, es, llm, etl);
+    Map<String, Object> ragRaw = (Map<String, Object>) root.getOrDefault("rag", new HashMap<String, Object>());
+    RagConfig rag = RagConfig.from(ragRaw);
+
+    Map<String, Object> indexRaw = (Map<String, Object>) root.getOrDefault("index", new HashMap<String, Object>());
+    IndexConfig index = IndexConfig.from(indexRaw);
+
+    Map<String, Object> watchRaw = (Map<String, Object>) root.getOrDefault("watch", new HashMap<String, Object>());
+    WatchConfig watch = WatchConfig.from(watchRaw);
+
+    return new AppConfig(configDir, dataDir.toAbsolutePath().normalize(), configDir, milvus, hnsw, es, llm, etl, rag, index, watch);
   }
 
   @SuppressWarnings("unchecked")
@@ -7,28 +7,58 @@ import java.util.Map;
 
 public final class EtlConfig {
   public final long maxTextBytes;
+  public final long mmapThresholdBytes;
   public final int chunkMaxChars;
+  public final String chunker;
+  public final int chunkMaxTokens;
+  public final int chunkOverlapTokens;
   public final List<String> textExt;
+  public final List<String> markdownExt;
+  public final List<String> codeExt;
   public final List<String> imageExt;
   public final List<String> videoExt;
+  public final Lane textLane;
+  public final Lane imageLane;
+  public final Lane videoLane;
 
-  private EtlConfig(long maxTextBytes, int chunkMaxChars, List<String> textExt, List<String> imageExt, List<String> videoExt) {
+  private EtlConfig(long maxTextBytes, long mmapThresholdBytes, int chunkMaxChars, String chunker, int chunkMaxTokens, int chunkOverlapTokens, List<String> textExt, List<String> markdownExt, List<String> codeExt, List<String> imageExt, List<String> videoExt, Lane textLane, Lane imageLane, Lane videoLane) {
     this.maxTextBytes = maxTextBytes;
+    this.mmapThresholdBytes = mmapThresholdBytes;
     this.chunkMaxChars = chunkMaxChars;
+    this.chunker = chunker;
+    this.chunkMaxTokens = chunkMaxTokens;
+    this.chunkOverlapTokens = chunkOverlapTokens;
     this.textExt = textExt;
+    this.markdownExt = markdownExt;
+    this.codeExt = codeExt;
     this.imageExt = imageExt;
     this.videoExt = videoExt;
+    this.textLane = textLane;
+    this.imageLane = imageLane;
+    this.videoLane = videoLane;
   }
 
   @SuppressWarnings("unchecked")
   public static EtlConfig from(Map<String, Object> raw) {
     long maxTextBytes = asLong(raw.getOrDefault("maxTextBytes", 2_000_000L), 2_000_000L);
+    long mmapThresholdBytes = asLong(raw.getOrDefault("mmapThresholdBytes", 8L << 20), 8L << 20);
     int chunkMaxChars = asInt(raw.getOrDefault("chunkMaxChars", 1200), 1200);
+    String chunker = String.valueOf(raw.getOrDefault("chunker", "paragraph")).trim().toLowerCase();
+    int chunkMaxTokens = Math.max(1, asInt(raw.getOrDefault("chunkMaxTokens", 512), 512));
+    int chunkOverlapTokens = Math.max(0, asInt(raw.getOrDefault("chunkOverlapTokens", 64), 64));
 
     List<String> textExt = (List<String>) raw.get("textExt");
     if (textExt == null || textExt.isEmpty()) {
       textExt = Arrays.asList("txt", "md", "java", "py", "js", "ts", "json", "yaml", "yml", "html", "css", "csv");
     }
+    List<String> markdownExt = (List<String>) raw.get("markdownExt");
+    if (markdownExt == null) {
+      markdownExt = Arrays.asList("md", "markdown");
+    }
+    List<String> codeExt = (List<String>) raw.get("codeExt");
+    if (codeExt == null) {
+      codeExt = Arrays.asList("java", "py", "js", "ts", "json", "yaml", "yml", "css");
+    }
     List<String> imageExt = (List<String>) raw.get("imageExt");
     if (imageExt == null || imageExt.isEmpty()) {
       imageExt = Arrays.asList("png", "jpg", "jpeg", "webp", "gif");
@@ -38,10 +68,38 @@ public final class EtlConfig {
       videoExt = Arrays.asList("mp4", "mov", "mkv", "avi");
     }
 
+    Map<String, Object> lanes = raw.get("lanes") instanceof Map ? (Map<String, Object>) raw.get("lanes") : Collections.<String, Object>emptyMap();
+    Lane textLane = Lane.from("text", lanes.get("text"), 2);
+    Lane imageLane = Lane.from("image", lanes.get("image"), 1);
+    Lane videoLane = Lane.from("video", lanes.get("video"), 1);
+
     textExt = Collections.unmodifiableList(textExt);
+    markdownExt = Collections.unmodifiableList(markdownExt);
+    codeExt = Collections.unmodifiableList(codeExt);
     imageExt = Collections.unmodifiableList(imageExt);
     videoExt = Collections.unmodifiableList(videoExt);
-    return new EtlConfig(maxTextBytes, chunkMaxChars, textExt, imageExt, videoExt);
+    return new EtlConfig(maxTextBytes, mmapThresholdBytes, chunkMaxChars, chunker, chunkMaxTokens, chunkOverlapTokens, textExt, markdownExt, codeExt, imageExt, videoExt, textLane, imageLane, videoLane);
+  }
+
+  /**
+   * Worker lane for one kind of file. Each lane has its own threads and claims only its own
+   * jobs, one per worker at a time, so at most {@code workers} jobs of a kind are in flight.
+   */
+  public static final class Lane {
+    public final String name;
+    public final int workers;
+
+    private Lane(String name, int workers) {
+      this.name = name;
+      this.workers = workers;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Lane from(String name, Object value, int defaultWorkers) {
+      Map<String, Object> raw = value instanceof Map ? (Map<String, Object>) value : Collections.<String, Object>emptyMap();
+      int workers = Math.max(1, asInt(raw.getOrDefault("workers", defaultWorkers), defaultWorkers));
+      return new Lane(name, workers);
+    }
   }
 
   private static long asLong(Object value, long fallback) {
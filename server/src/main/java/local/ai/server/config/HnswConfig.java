@@ -0,0 +1,50 @@
+package local.ai.server.config;
+
+import java.util.Map;
+
+public final class HnswConfig {
+  public final boolean enabled;
+  public final int m;
+  public final int efConstruction;
+  public final int efSearch;
+  public final double compactRatio;
+
+  private HnswConfig(boolean enabled, int m, int efConstruction, int efSearch, double compactRatio) {
+    this.enabled = enabled;
+    this.m = m;
+    this.efConstruction = efConstruction;
+    this.efSearch = efSearch;
+    this.compactRatio = compactRatio;
+  }
+
+  public static HnswConfig from(Map<String, Object> raw) {
+    boolean enabled = Boolean.TRUE.equals(raw.get("enabled"));
+    int m = Math.max(4, asInt(raw.getOrDefault("m", 16), 16));
+    int efConstruction = Math.max(m, asInt(raw.getOrDefault("efConstruction", 200), 200));
+    int efSearch = Math.max(1, asInt(raw.getOrDefault("efSearch", 64), 64));
+    double compactRatio = Math.max(0.0, Math.min(1.0, asDouble(raw.getOrDefault("compactRatio", 0.3), 0.3)));
+    return new HnswConfig(enabled, m, efConstruction, efSearch, compactRatio);
+  }
+
+  private static int asInt(Object value, int fallback) {
+    if (value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    try {
+      return Integer.parseInt(String.valueOf(value));
+    } catch (Exception e) {
+      return fallback;
+    }
+  }
+
+  private static double asDouble(Object value, double fallback) {
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    try {
+      return Double.parseDouble(String.valueOf(value));
+    } catch (Exception e) {
+      return fallback;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package local.ai.server.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public final class IndexConfig {
+  public final List<String> vectorSinks;
+  public final List<String> keywordSinks;
+  public final int writeQueueCapacity;
+
+  private IndexConfig(List<String> vectorSinks, List<String> keywordSinks, int writeQueueCapacity) {
+    this.vectorSinks = vectorSinks;
+    this.keywordSinks = keywordSinks;
+    this.writeQueueCapacity = writeQueueCapacity;
+  }
+
+  // Empty sink lists mean "derive from the enabled flags of milvus/hnsw/es"; see SinkRegistry.
+  public static IndexConfig from(Map<String, Object> raw) {
+    List<String> vectorSinks = asNames(raw.get("vectorSinks"));
+    List<String> keywordSinks = asNames(raw.get("keywordSinks"));
+    int writeQueueCapacity = Math.max(1, asInt(raw.getOrDefault("writeQueueCapacity", 256), 256));
+    return new IndexConfig(vectorSinks, keywordSinks, writeQueueCapacity);
+  }
+
+  private static List<String> asNames(Object value) {
+    List<String> out = new ArrayList<>();
+    if (value instanceof List) {
+      for (Object o : (List<?>) value) {
+        if (o != null && !String.valueOf(o).trim().isEmpty()) {
+          out.add(String.valueOf(o).trim().toLowerCase());
+        }
+      }
+    } else if (value instanceof String) {
+      for (String s : ((String) value).split(",")) {
+        if (!s.trim().isEmpty()) {
+          out.add(s.trim().toLowerCase());
+        }
+      }
+    }
+    return Collections.unmodifiableList(out);
+  }
+
+  private static int asInt(Object value, int fallback) {
+    if (value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    try {
+      return Integer.parseInt(String.valueOf(value));
+    } catch (Exception e) {
+      return fallback;
+    }
+  }
+}
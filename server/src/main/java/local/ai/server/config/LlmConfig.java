@@ -7,12 +7,28 @@ public final class LlmConfig {
   public final String apiKey;
   public final String chatModel;
   public final String embeddingModel;
+  public final int embeddingBatchSize;
+  public final int embeddingBatchTokens;
+  public final int maxRequestsPerHost;
+  public final int maxIdleConnections;
+  public final long keepAliveSeconds;
+  public final int toolParallelism;
+  public final long toolTimeoutMs;
+  public final String agentMode;
 
-  private LlmConfig(String baseUrl, String apiKey, String chatModel, String embeddingModel) {
+  private LlmConfig(String baseUrl, String apiKey, String chatModel, String embeddingModel, int embeddingBatchSize, int embeddingBatchTokens, int maxRequestsPerHost, int maxIdleConnections, long keepAliveSeconds, int toolParallelism, long toolTimeoutMs, String agentMode) {
     this.baseUrl = baseUrl;
     this.apiKey = apiKey;
     this.chatModel = chatModel;
     this.embeddingModel = embeddingModel;
+    this.embeddingBatchSize = embeddingBatchSize;
+    this.embeddingBatchTokens = embeddingBatchTokens;
+    this.maxRequestsPerHost = maxRequestsPerHost;
+    this.maxIdleConnections = maxIdleConnections;
+    this.keepAliveSeconds = keepAliveSeconds;
+    this.toolParallelism = toolParallelism;
+    this.toolTimeoutMs = toolTimeoutMs;
+    this.agentMode = agentMode;
   }
 
   public static LlmConfig from(Map<String, Object> raw) {
@@ -20,15 +36,38 @@ public final class LlmConfig {
     String apiKey = String.valueOf(raw.getOrDefault("apiKey", ""));
     String chatModel = String.valueOf(raw.getOrDefault("chatModel", ""));
     String embeddingModel = String.valueOf(raw.getOrDefault("embeddingModel", ""));
-    return new LlmConfig(baseUrl, apiKey, chatModel, embeddingModel);
+    int embeddingBatchSize = Math.max(1, asInt(raw.getOrDefault("embeddingBatchSize", 32), 32));
+    int embeddingBatchTokens = Math.max(1, asInt(raw.getOrDefault("embeddingBatchTokens", 8000), 8000));
+    int maxRequestsPerHost = Math.max(1, asInt(raw.getOrDefault("maxRequestsPerHost", 16), 16));
+    int maxIdleConnections = Math.max(1, asInt(raw.getOrDefault("maxIdleConnections", 8), 8));
+    long keepAliveSeconds = Math.max(1, asInt(raw.getOrDefault("keepAliveSeconds", 300), 300));
+    int toolParallelism = Math.max(1, asInt(raw.getOrDefault("toolParallelism", 4), 4));
+    long toolTimeoutMs = Math.max(1, asInt(raw.getOrDefault("toolTimeoutMs", 30000), 30000));
+    String agentMode = String.valueOf(raw.getOrDefault("agentMode", "react")).trim().toLowerCase();
+    return new LlmConfig(baseUrl, apiKey, chatModel, embeddingModel, embeddingBatchSize, embeddingBatchTokens, maxRequestsPerHost, maxIdleConnections, keepAliveSeconds, toolParallelism, toolTimeoutMs, agentMode);
   }
 
   public boolean hasRemoteEmbedding() {
     return baseUrl != null && !baseUrl.isEmpty() && apiKey != null && !apiKey.isEmpty() && embeddingModel != null && !embeddingModel.isEmpty();
   }
 
+  /** Agents use the tools / tool_calls API instead of the text ReAct format. */
+  public boolean nativeToolCalls() {
+    return "tools".equals(agentMode);
+  }
+
   public boolean hasRemoteChat() {
     return baseUrl != null && !baseUrl.isEmpty() && apiKey != null && !apiKey.isEmpty() && chatModel != null && !chatModel.isEmpty();
   }
-}
 
+  private static int asInt(Object value, int fallback) {
+    if (value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    try {
+      return Integer.parseInt(String.valueOf(value));
+    } catch (Exception e) {
+      return fallback;
+    }
+  }
+}
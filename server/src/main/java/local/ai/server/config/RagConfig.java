@@ -0,0 +1,64 @@
+package local.ai.server.config;
+
+import java.util.Map;
+
+public final class RagConfig {
+  public final double vectorWeight;
+  public final double keywordWeight;
+  public final int rrfK;
+  public final long vectorTimeoutMs;
+  public final long keywordTimeoutMs;
+  public final int queryCacheSize;
+  public final long queryCacheTtlSeconds;
+  public final int resultCacheSize;
+  public final long resultCacheTtlSeconds;
+
+  private RagConfig(double vectorWeight, double keywordWeight, int rrfK, long vectorTimeoutMs, long keywordTimeoutMs,
+      int queryCacheSize, long queryCacheTtlSeconds, int resultCacheSize, long resultCacheTtlSeconds) {
+    this.vectorWeight = vectorWeight;
+    this.keywordWeight = keywordWeight;
+    this.rrfK = rrfK;
+    this.vectorTimeoutMs = vectorTimeoutMs;
+    this.keywordTimeoutMs = keywordTimeoutMs;
+    this.queryCacheSize = queryCacheSize;
+    this.queryCacheTtlSeconds = queryCacheTtlSeconds;
+    this.resultCacheSize = resultCacheSize;
+    this.resultCacheTtlSeconds = resultCacheTtlSeconds;
+  }
+
+  public static RagConfig from(Map<String, Object> raw) {
+    double vectorWeight = asDouble(raw.getOrDefault("vectorWeight", 1.0), 1.0);
+    double keywordWeight = asDouble(raw.getOrDefault("keywordWeight", 1.0), 1.0);
+    int rrfK = Math.max(1, (int) asLong(raw.getOrDefault("rrfK", 60), 60));
+    long vectorTimeoutMs = Math.max(1L, asLong(raw.getOrDefault("vectorTimeoutMs", 3000), 3000));
+    long keywordTimeoutMs = Math.max(1L, asLong(raw.getOrDefault("keywordTimeoutMs", 1500), 1500));
+    int queryCacheSize = Math.max(0, (int) asLong(raw.getOrDefault("queryCacheSize", 1000), 1000));
+    long queryCacheTtlSeconds = Math.max(1L, asLong(raw.getOrDefault("queryCacheTtlSeconds", 3600), 3600));
+    int resultCacheSize = Math.max(0, (int) asLong(raw.getOrDefault("resultCacheSize", 256), 256));
+    long resultCacheTtlSeconds = Math.max(1L, asLong(raw.getOrDefault("resultCacheTtlSeconds", 600), 600));
+    return new RagConfig(vectorWeight, keywordWeight, rrfK, vectorTimeoutMs, keywordTimeoutMs,
+        queryCacheSize, queryCacheTtlSeconds, resultCacheSize, resultCacheTtlSeconds);
+  }
+
+  private static double asDouble(Object value, double fallback) {
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    try {
+      return Double.parseDouble(String.valueOf(value));
+    } catch (Exception e) {
+      return fallback;
+    }
+  }
+
+  private static long asLong(Object value, long fallback) {
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    try {
+      return Long.parseLong(String.valueOf(value));
+    } catch (Exception e) {
+      return fallback;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package local.ai.server.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public final class WatchConfig {
+  public final int reconcileIntervalMinutes;
+  public final int reconcileFilesPerSecond;
+  public final int scanParallelism;
+  public final long debounceMs;
+  public final int maxPendingEvents;
+  public final List<String> include;
+  public final List<String> exclude;
+  public final List<String> ignoreFiles;
+
+  private WatchConfig(int reconcileIntervalMinutes, int reconcileFilesPerSecond, int scanParallelism, long debounceMs, int maxPendingEvents, List<String> include, List<String> exclude, List<String> ignoreFiles) {
+    this.reconcileIntervalMinutes = reconcileIntervalMinutes;
+    this.reconcileFilesPerSecond = reconcileFilesPerSecond;
+    this.scanParallelism = scanParallelism;
+    this.debounceMs = debounceMs;
+    this.maxPendingEvents = maxPendingEvents;
+    this.include = include;
+    this.exclude = exclude;
+    this.ignoreFiles = ignoreFiles;
+  }
+
+  // reconcileIntervalMinutes <= 0 turns the periodic scan off; overflow rescans still run.
+  public static WatchConfig from(Map<String, Object> raw) {
+    int reconcileIntervalMinutes = asInt(raw.getOrDefault("reconcileIntervalMinutes", 60), 60);
+    int reconcileFilesPerSecond = Math.max(1, asInt(raw.getOrDefault("reconcileFilesPerSecond", 500), 500));
+    int cpus = Runtime.getRuntime().availableProcessors();
+    int scanParallelism = Math.max(1, asInt(raw.getOrDefault("scanParallelism", cpus), cpus));
+    long debounceMs = Math.max(0, asInt(raw.getOrDefault("debounceMs", 500), 500));
+    int maxPendingEvents = Math.max(1, asInt(raw.getOrDefault("maxPendingEvents", 10000), 10000));
+    List<String> include = asList(raw.get("include"), Collections.<String>emptyList());
+    List<String> exclude = asList(raw.get("exclude"), Arrays.asList(".git/", "node_modules/", "build/", "target/", "dist/", ".gradle/", ".idea/", "__pycache__/", ".venv/"));
+    List<String> ignoreFiles = asList(raw.get("ignoreFiles"), Arrays.asList(".gitignore", ".ragignore"));
+    return new WatchConfig(reconcileIntervalMinutes, reconcileFilesPerSecond, scanParallelism, debounceMs, maxPendingEvents, include, exclude, ignoreFiles);
+  }
+
+  // Globs are kept verbatim (case matters); a missing key means the default, [] means none.
+  private static List<String> asList(Object value, List<String> fallback) {
+    if (!(value instanceof List)) {
+      return Collections.unmodifiableList(fallback);
+    }
+    List<String> out = new ArrayList<>();
+    for (Object o : (List<?>) value) {
+      if (o != null && !String.valueOf(o).trim().isEmpty()) {
+        out.add(String.valueOf(o).trim());
+      }
+    }
+    return Collections.unmodifiableList(out);
+  }
+
+  private static int asInt(Object value, int fallback) {
+    if (value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    try {
+      return Integer.parseInt(String.valueOf(value));
+    } catch (Exception e) {
+      return fallback;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package local.ai.server.db;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content-addressed store of remote embeddings, keyed by (model, dim, sha256 of chunk text).
+ * Lives in its own SQLite file so it survives index rebuilds and can be deleted freely.
+ */
+public final class EmbeddingCache implements AutoCloseable {
+  private static final int MAX_PARAMS = 500;
+
+  private final Path dbFile;
+  private Connection conn;
+
+  public EmbeddingCache(Path dbFile) {
+    this.dbFile = dbFile;
+  }
+
+  public void init() {
+    try {
+      Path parent = dbFile.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    try {
+      conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.toAbsolutePath());
+      try (Statement st = conn.createStatement()) {
+        st.execute("PRAGMA journal_mode=WAL");
+        st.execute("CREATE TABLE IF NOT EXISTS embeddings (model TEXT NOT NULL, dim INTEGER NOT NULL, hash TEXT NOT NULL, vec BLOB NOT NULL, created_at INTEGER NOT NULL, PRIMARY KEY(model, dim, hash))");
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public synchronized Map<String, float[]> getAll(String model, int dim, Collection<String> hashes) {
+    Map<String, float[]> out = new HashMap<>();
+    if (hashes == null || hashes.isEmpty()) {
+      return out;
+    }
+    String[] all = hashes.toArray(new String[0]);
+    for (int from = 0; from < all.length; from += MAX_PARAMS) {
+      int to = Math.min(all.length, from + MAX_PARAMS);
+      StringBuilder sb = new StringBuilder();
+      sb.append("SELECT hash, vec FROM embeddings WHERE model = ? AND dim = ? AND hash IN (");
+      for (int i = from; i < to; i++) {
+        if (i > from) sb.append(",");
+        sb.append("?");
+      }
+      sb.append(")");
+      try (PreparedStatement ps = conn.prepareStatement(sb.toString())) {
+        ps.setString(1, model);
+        ps.setInt(2, dim);
+        for (int i = from; i < to; i++) {
+          ps.setString(i - from + 3, all[i]);
+        }
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            float[] vec = decode(rs.getBytes(2));
+            if (vec.length == dim) {
+              out.put(rs.getString(1), vec);
+            }
+          }
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return out;
+  }
+
+  public synchronized void putAll(String model, int dim, Map<String, float[]> vectors) {
+    if (vectors == null || vectors.isEmpty()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    try {
+      conn.setAutoCommit(false);
+      try (PreparedStatement ins = conn.prepareStatement("INSERT OR REPLACE INTO embeddings(model, dim, hash, vec, created_at) VALUES (?,?,?,?,?)")) {
+        for (Map.Entry<String, float[]> e : vectors.entrySet()) {
+          ins.setString(1, model);
+          ins.setInt(2, dim);
+          ins.setString(3, e.getKey());
+          ins.setBytes(4, encode(e.getValue()));
+          ins.setLong(5, now);
+          ins.addBatch();
+        }
+        ins.executeBatch();
+      }
+      conn.commit();
+      conn.setAutoCommit(true);
+    } catch (Exception e) {
+      try {
+        conn.rollback();
+      } catch (Exception ignored) {
+      }
+      try {
+        conn.setAutoCommit(true);
+      } catch (Exception ignored) {
+      }
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static byte[] encode(float[] vec) {
+    ByteBuffer buf = ByteBuffer.allocate(vec.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+    for (float x : vec) {
+      buf.putFloat(x);
+    }
+    return buf.array();
+  }
+
+  private static float[] decode(byte[] bytes) {
+    ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    float[] vec = new float[bytes.length / 4];
+    for (int i = 0; i < vec.length; i++) {
+      vec[i] = buf.getFloat();
+    }
+    return vec;
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      if (conn != null) {
+        conn.close();
+      }
+    } catch (Exception ignored) {
+    }
+  }
+}
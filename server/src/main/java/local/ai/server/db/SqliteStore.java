@@ -9,18 +9,62 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import local.ai.server.util.Hashing;
+import local.ai.server.util.TextChunk;
 import local.ai.shared.Json;
+import org.sqlite.SQLiteConfig;
 
+/**
+ * SQLite access for the server. All writes go through one connection guarded by this object's
+ * monitor; reads borrow from a pool of read-only connections so that, under WAL, chat history,
+ * job listing and RAG recall do not queue behind ETL writes.
+ */
 public final class SqliteStore implements AutoCloseable {
+  /** A failed job is retried until it has run this many times, then left 'failed'. */
+  public static final int MAX_JOB_ATTEMPTS = 5;
+  private static final long RETRY_BACKOFF_MS = 5000L;
+  // A running job is not put back to 'pending', which would let a second worker run it
+  // concurrently; it is flagged for a rerun that finishJob turns into 'pending'. created_at is
+  // reset to the enqueue time either way: job_key reuses one row per type and path, and claims
+  // go by created_at, so a re-pended upsert must not sort ahead of a delete enqueued before it.
+  private static final String UPDATE_JOB_SQL =
+      "UPDATE jobs SET rerun = CASE WHEN status = 'running' THEN 1 ELSE 0 END, "
+          + "status = CASE WHEN status = 'running' THEN 'running' ELSE 'pending' END, "
+          + "attempts = CASE WHEN status = 'running' THEN attempts ELSE 0 END, "
+          + "lane = ?, target = ?, created_at = ?, updated_at = ?, last_error = '', run_after = 0 WHERE job_key = ?";
+  private static final String INSERT_JOB_SQL =
+      "INSERT INTO jobs(job_id, job_key, type, path, status, attempts, last_error, created_at, updated_at, lane, target) VALUES (?,?,?,?,?,?,?,?,?,?,?)";
+
   private final Path dbFile;
+  private final int readPoolSize;
+  private final List<Connection> readers = new ArrayList<>();
+  private final BlockingQueue<Connection> idleReaders;
   private Connection conn;
+  private volatile boolean ftsEnabled;
+  private final Object jobSignalLock = new Object();
+  private long jobSignal;
+  private final AtomicLong indexGeneration = new AtomicLong();
+  private final AtomicLong lastRunStamp = new AtomicLong();
 
   public SqliteStore(Path dbFile) {
+    this(dbFile, Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())));
+  }
+
+  public SqliteStore(Path dbFile, int readPoolSize) {
     this.dbFile = dbFile;
+    this.readPoolSize = Math.max(1, readPoolSize);
+    this.idleReaders = new ArrayBlockingQueue<>(this.readPoolSize);
   }
 
   public void init() {
@@ -36,11 +80,13 @@ public final class SqliteStore implements AutoCloseable {
       conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.toAbsolutePath());
       try (Statement st = conn.createStatement()) {
         st.execute("PRAGMA journal_mode=WAL");
-        st.execute("CREATE TABLE IF NOT EXISTS directories (id INTEGER PRIMARY KEY AUTOINCREMENT, path TEXT UNIQUE NOT NULL)");
+        st.execute("PRAGMA busy_timeout=5000");
+        st.execute("PRAGMA recursive_triggers=ON");
+        st.execute("CREATE TABLE IF NOT EXISTS directories (id INTEGER PRIMARY KEY AUTOINCREMENT, path TEXT UNIQUE NOT NULL, include_globs TEXT NOT NULL DEFAULT '', exclude_globs TEXT NOT NULL DEFAULT '')");
         st.execute("CREATE TABLE IF NOT EXISTS app_state (k TEXT PRIMARY KEY, v TEXT NOT NULL, updated_at INTEGER NOT NULL)");
         st.execute("CREATE TABLE IF NOT EXISTS jobs (job_id TEXT PRIMARY KEY, job_key TEXT UNIQUE NOT NULL, type TEXT NOT NULL, path TEXT NOT NULL, status TEXT NOT NULL, attempts INTEGER NOT NULL, last_error TEXT, created_at INTEGER NOT NULL, updated_at INTEGER NOT NULL)");
         st.execute("CREATE TABLE IF NOT EXISTS files (file_id TEXT PRIMARY KEY, path TEXT NOT NULL, size INTEGER NOT NULL DEFAULT 0, mtime INTEGER NOT NULL DEFAULT 0, updated_at INTEGER NOT NULL)");
-        st.execute("CREATE TABLE IF NOT EXISTS chunks (chunk_id TEXT PRIMARY KEY, file_id TEXT NOT NULL, path TEXT NOT NULL, chunk_index INTEGER NOT NULL, content TEXT NOT NULL, updated_at INTEGER NOT NULL)");
+        st.execute("CREATE TABLE IF NOT EXISTS chunks (chunk_id TEXT PRIMARY KEY, file_id TEXT NOT NULL, path TEXT NOT NULL, chunk_index INTEGER NOT NULL, content TEXT NOT NULL, heading TEXT NOT NULL DEFAULT '', start_offset INTEGER NOT NULL DEFAULT -1, end_offset INTEGER NOT NULL DEFAULT -1, updated_at INTEGER NOT NULL)");
         st.execute("CREATE TABLE IF NOT EXISTS chat_session (session_id TEXT PRIMARY KEY, title TEXT, created_at INTEGER NOT NULL, updated_at INTEGER NOT NULL)");
         st.execute("CREATE TABLE IF NOT EXISTS chat_message (message_id TEXT PRIMARY KEY, session_id TEXT NOT NULL, role TEXT NOT NULL, content TEXT NOT NULL, created_at INTEGER NOT NULL)");
         st.execute("CREATE TABLE IF NOT EXISTS agents (agent_id TEXT PRIMARY KEY, name TEXT NOT NULL, description TEXT, tags_json TEXT NOT NULL, created_at INTEGER NOT NULL, updated_at INTEGER NOT NULL)");
@@ -48,12 +94,38 @@ public final class SqliteStore implements AutoCloseable {
         st.execute("CREATE TABLE IF NOT EXISTS agent_rule (agent_id TEXT NOT NULL, kind TEXT NOT NULL, rule_file TEXT NOT NULL, PRIMARY KEY(agent_id, kind, rule_file))");
       }
       migrate();
+      initFts();
       resetRunningJobs();
+      openReaders();
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
 
+  private void openReaders() throws Exception {
+    SQLiteConfig cfg = new SQLiteConfig();
+    cfg.setReadOnly(true);
+    cfg.setBusyTimeout(5000);
+    for (int i = 0; i < readPoolSize; i++) {
+      Connection c = DriverManager.getConnection("jdbc:sqlite:" + dbFile.toAbsolutePath(), cfg.toProperties());
+      readers.add(c);
+      idleReaders.add(c);
+    }
+  }
+
+  private Connection acquireReader() {
+    try {
+      return idleReaders.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void releaseReader(Connection c) {
+    idleReaders.offer(c);
+  }
+
   private void migrate() {
     Map<String, Boolean> sessionCols = tableColumns("chat_session");
     if (!sessionCols.containsKey("agent_id")) {
@@ -66,6 +138,72 @@ public final class SqliteStore implements AutoCloseable {
     if (!fileCols.containsKey("mtime")) {
       exec("ALTER TABLE files ADD COLUMN mtime INTEGER NOT NULL DEFAULT 0");
     }
+    Map<String, Boolean> jobCols = tableColumns("jobs");
+    if (!jobCols.containsKey("lane")) {
+      exec("ALTER TABLE jobs ADD COLUMN lane TEXT NOT NULL DEFAULT 'text'");
+    }
+    Map<String, Boolean> chunkCols = tableColumns("chunks");
+    if (!chunkCols.containsKey("heading")) {
+      exec("ALTER TABLE chunks ADD COLUMN heading TEXT NOT NULL DEFAULT ''");
+    }
+    if (!chunkCols.containsKey("start_offset")) {
+      exec("ALTER TABLE chunks ADD COLUMN start_offset INTEGER NOT NULL DEFAULT -1");
+    }
+    if (!chunkCols.containsKey("end_offset")) {
+      exec("ALTER TABLE chunks ADD COLUMN end_offset INTEGER NOT NULL DEFAULT -1");
+    }
+    if (!jobCols.containsKey("target")) {
+      exec("ALTER TABLE jobs ADD COLUMN target TEXT NOT NULL DEFAULT ''");
+    }
+    if (!jobCols.containsKey("run_after")) {
+      exec("ALTER TABLE jobs ADD COLUMN run_after INTEGER NOT NULL DEFAULT 0");
+    }
+    if (!jobCols.containsKey("rerun")) {
+      exec("ALTER TABLE jobs ADD COLUMN rerun INTEGER NOT NULL DEFAULT 0");
+    }
+    if (!chunkCols.containsKey("run_stamp")) {
+      exec("ALTER TABLE chunks ADD COLUMN run_stamp INTEGER NOT NULL DEFAULT 0");
+    }
+    if (!fileCols.containsKey("fingerprint")) {
+      exec("ALTER TABLE files ADD COLUMN fingerprint TEXT NOT NULL DEFAULT ''");
+    }
+    if (!fileCols.containsKey("synced")) {
+      exec("ALTER TABLE files ADD COLUMN synced TEXT NOT NULL DEFAULT ''");
+    }
+    Map<String, Boolean> dirCols = tableColumns("directories");
+    if (!dirCols.containsKey("include_globs")) {
+      exec("ALTER TABLE directories ADD COLUMN include_globs TEXT NOT NULL DEFAULT ''");
+    }
+    if (!dirCols.containsKey("exclude_globs")) {
+      exec("ALTER TABLE directories ADD COLUMN exclude_globs TEXT NOT NULL DEFAULT ''");
+    }
+    exec("CREATE INDEX IF NOT EXISTS idx_files_path ON files(path)");
+    exec("CREATE INDEX IF NOT EXISTS idx_jobs_lane_pending ON jobs(status, lane, created_at)");
+    exec("CREATE INDEX IF NOT EXISTS idx_chunks_file ON chunks(file_id)");
+  }
+
+  // chunks_fts is an external-content FTS5 index over chunks.content, kept in sync by triggers.
+  // The trigram tokenizer indexes every 3-character window, which works for CJK text that has
+  // no word separators. recursive_triggers makes INSERT OR REPLACE fire the delete trigger.
+  private void initFts() {
+    boolean existed = !tableColumns("chunks_fts").isEmpty();
+    try (Statement st = conn.createStatement()) {
+      st.execute("CREATE VIRTUAL TABLE IF NOT EXISTS chunks_fts USING fts5(content, content='chunks', content_rowid='rowid', tokenize='trigram')");
+      st.execute("CREATE TRIGGER IF NOT EXISTS chunks_fts_ai AFTER INSERT ON chunks BEGIN " +
+          "INSERT INTO chunks_fts(rowid, content) VALUES (new.rowid, new.content); END");
+      st.execute("CREATE TRIGGER IF NOT EXISTS chunks_fts_ad AFTER DELETE ON chunks BEGIN " +
+          "INSERT INTO chunks_fts(chunks_fts, rowid, content) VALUES ('delete', old.rowid, old.content); END");
+      st.execute("CREATE TRIGGER IF NOT EXISTS chunks_fts_au AFTER UPDATE OF content ON chunks BEGIN " +
+          "INSERT INTO chunks_fts(chunks_fts, rowid, content) VALUES ('delete', old.rowid, old.content); " +
+          "INSERT INTO chunks_fts(rowid, content) VALUES (new.rowid, new.content); END");
+      if (!existed) {
+        st.execute("INSERT INTO chunks_fts(chunks_fts) VALUES ('rebuild')");
+      }
+      ftsEnabled = true;
+    } catch (Exception e) {
+      System.err.println("SQLite FTS5 unavailable, keyword search falls back to LIKE: " + e.getMessage());
+      ftsEnabled = false;
+    }
   }
 
   private Map<String, Boolean> tableColumns(String table) {
@@ -90,68 +228,130 @@ public final class SqliteStore implements AutoCloseable {
 
   public synchronized void resetRunningJobs() {
     long now = System.currentTimeMillis();
-    try (PreparedStatement ps = conn.prepareStatement("UPDATE jobs SET status = 'pending', updated_at = ? WHERE status = 'running'")) {
+    try (PreparedStatement ps = conn.prepareStatement("UPDATE jobs SET status = 'pending', rerun = 0, updated_at = ? WHERE status = 'running'")) {
       ps.setLong(1, now);
       ps.executeUpdate();
     } catch (Exception ignored) {
     }
   }
 
-  public synchronized void enqueueJob(String type, Path path) {
-    String p = path.toAbsolutePath().normalize().toString();
-    String jobKey = type + ":" + p;
+  public void enqueueJob(String type, Path path) {
+    enqueueJob(type, path, "text");
+  }
+
+  public void enqueueJob(String type, Path path, String lane) {
+    enqueueJob(type, path, "", lane);
+  }
+
+  /** {@code target} is a second path for jobs that need one, e.g. the new path of a rename. */
+  public synchronized void enqueueJob(String type, Path path, String target, String lane) {
+    try (PreparedStatement upd = conn.prepareStatement(UPDATE_JOB_SQL);
+        PreparedStatement ins = conn.prepareStatement(INSERT_JOB_SQL)) {
+      enqueue(upd, ins, type, path, target, lane, System.currentTimeMillis());
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    signalJobs();
+  }
+
+  /**
+   * Enqueues one job of {@code type} per path in a single transaction, with the same
+   * re-pending semantics as {@link #enqueueJob}. Workers are woken once, after the commit.
+   */
+  public synchronized void enqueueJobs(String type, List<Path> paths, Function<Path, String> laneOf) {
+    if (paths.isEmpty()) {
+      return;
+    }
     long now = System.currentTimeMillis();
-    try (PreparedStatement upd = conn.prepareStatement("UPDATE jobs SET status = 'pending', updated_at = ?, last_error = '' WHERE job_key = ?")) {
-      upd.setLong(1, now);
-      upd.setString(2, jobKey);
-      int n = upd.executeUpdate();
-      if (n > 0) {
-        return;
-      }
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
-    String jobId = UUID.randomUUID().toString();
-    try (PreparedStatement ins = conn.prepareStatement(
-        "INSERT INTO jobs(job_id, job_key, type, path, status, attempts, last_error, created_at, updated_at) VALUES (?,?,?,?,?,?,?,?,?)")) {
-      ins.setString(1, jobId);
-      ins.setString(2, jobKey);
-      ins.setString(3, type);
-      ins.setString(4, p);
-      ins.setString(5, "pending");
-      ins.setInt(6, 0);
-      ins.setString(7, "");
-      ins.setLong(8, now);
-      ins.setLong(9, now);
-      ins.executeUpdate();
+    try {
+      conn.setAutoCommit(false);
+      try (PreparedStatement upd = conn.prepareStatement(UPDATE_JOB_SQL);
+          PreparedStatement ins = conn.prepareStatement(INSERT_JOB_SQL)) {
+        for (Path path : paths) {
+          enqueue(upd, ins, type, path, "", laneOf.apply(path), now);
+        }
+      }
+      conn.commit();
+      conn.setAutoCommit(true);
     } catch (Exception e) {
+      try {
+        conn.rollback();
+      } catch (Exception ignored) {
+      }
+      try {
+        conn.setAutoCommit(true);
+      } catch (Exception ignored) {
+      }
       throw new RuntimeException(e);
     }
+    signalJobs();
   }
 
-  public synchronized JobRow claimNextJob() {
+  private static void enqueue(PreparedStatement upd, PreparedStatement ins, String type, Path path, String target, String lane, long now) throws Exception {
+    String p = path.toAbsolutePath().normalize().toString();
+    String jobKey = type + ":" + p;
+    upd.setString(1, lane);
+    upd.setString(2, target);
+    upd.setLong(3, now);
+    upd.setLong(4, now);
+    upd.setString(5, jobKey);
+    if (upd.executeUpdate() > 0) {
+      return;
+    }
+    ins.setString(1, UUID.randomUUID().toString());
+    ins.setString(2, jobKey);
+    ins.setString(3, type);
+    ins.setString(4, p);
+    ins.setString(5, "pending");
+    ins.setInt(6, 0);
+    ins.setString(7, "");
+    ins.setLong(8, now);
+    ins.setLong(9, now);
+    ins.setString(10, lane);
+    ins.setString(11, target);
+    ins.executeUpdate();
+  }
+
+  public JobRow claimNextJob() {
+    return claimJob(null);
+  }
+
+  /**
+   * Marks the oldest pending job in {@code lane} (any lane if null) as running and returns it, or
+   * null if there is none. One job at a time, so a worker never holds jobs it has not started
+   * while other workers sit idle. Jobs touching a path that a running job also touches, as its
+   * path or rename target, are passed over until that job finishes, so one file is never
+   * processed by two workers at once. Claimed jobs that never finish (crash, shutdown) are put
+   * back by {@link #resetRunningJobs()}.
+   */
+  public synchronized JobRow claimJob(String lane) {
     long now = System.currentTimeMillis();
     try {
       conn.setAutoCommit(false);
       JobRow row = null;
       try (PreparedStatement ps = conn.prepareStatement(
-          "SELECT job_id, type, path, attempts FROM jobs WHERE status = 'pending' ORDER BY created_at ASC LIMIT 1")) {
+          "SELECT job_id, type, path, attempts, target FROM jobs WHERE status = 'pending' AND run_after <= ?" + (lane == null ? "" : " AND lane = ?")
+              + " AND NOT EXISTS (SELECT 1 FROM jobs r WHERE r.status = 'running' AND (r.path = jobs.path OR r.path = jobs.target"
+              + " OR (r.target != '' AND (r.target = jobs.path OR r.target = jobs.target))))"
+              + " ORDER BY created_at ASC LIMIT 1")) {
+        ps.setLong(1, now);
+        if (lane != null) {
+          ps.setString(2, lane);
+        }
         try (ResultSet rs = ps.executeQuery()) {
           if (rs.next()) {
-            String jobId = rs.getString(1);
-            String type = rs.getString(2);
-            String path = rs.getString(3);
-            int attempts = rs.getInt(4);
-            try (PreparedStatement upd = conn.prepareStatement(
-                "UPDATE jobs SET status = 'running', attempts = ?, updated_at = ? WHERE job_id = ? AND status = 'pending'")) {
-              upd.setInt(1, attempts + 1);
-              upd.setLong(2, now);
-              upd.setString(3, jobId);
-              int n = upd.executeUpdate();
-              if (n > 0) {
-                row = new JobRow(jobId, type, path, attempts + 1);
-              }
-            }
+            row = new JobRow(rs.getString(1), rs.getString(2), rs.getString(3), rs.getInt(4) + 1, rs.getString(5));
+          }
+        }
+      }
+      if (row != null) {
+        try (PreparedStatement upd = conn.prepareStatement(
+            "UPDATE jobs SET status = 'running', attempts = ?, updated_at = ? WHERE job_id = ? AND status = 'pending'")) {
+          upd.setInt(1, row.attempts);
+          upd.setLong(2, now);
+          upd.setString(3, row.jobId);
+          if (upd.executeUpdate() == 0) {
+            row = null;
           }
         }
       }
@@ -171,45 +371,108 @@ public final class SqliteStore implements AutoCloseable {
     }
   }
 
+  /** Counter bumped by every {@link #enqueueJob}; read it before claiming and pass it to {@link #awaitJobs}. */
+  public long jobSignal() {
+    synchronized (jobSignalLock) {
+      return jobSignal;
+    }
+  }
+
+  /**
+   * Blocks until a job is enqueued after {@code seen} was read, or the timeout passes. The
+   * timeout is only a safety net; workers are normally woken by the enqueue itself.
+   */
+  public void awaitJobs(long seen, long timeoutMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    synchronized (jobSignalLock) {
+      while (jobSignal == seen) {
+        long left = deadline - System.currentTimeMillis();
+        if (left <= 0) {
+          return;
+        }
+        jobSignalLock.wait(left);
+      }
+    }
+  }
+
+  private void signalJobs() {
+    synchronized (jobSignalLock) {
+      jobSignal++;
+      jobSignalLock.notifyAll();
+    }
+  }
+
+  /**
+   * Counter bumped after every committed write to files or chunks. A result computed from the
+   * index stays valid while this is unchanged.
+   */
+  public long indexGeneration() {
+    return indexGeneration.get();
+  }
+
+  /** Bumps {@link #indexGeneration}, for index changes made outside SQLite (the sinks). */
+  public void bumpIndexGeneration() {
+    indexGeneration.incrementAndGet();
+  }
+
+  /**
+   * Records the outcome of a claimed job. A failed job goes back to 'pending' with an
+   * exponential backoff (5s, 10s, 20s, ...) until it has run {@link #MAX_JOB_ATTEMPTS} times.
+   * A job that was re-enqueued while running goes back to 'pending' with fresh attempts,
+   * whatever this run's outcome, since the file may have changed after the run read it.
+   */
   public synchronized void finishJob(String jobId, boolean ok, String error) {
     long now = System.currentTimeMillis();
-    String status = ok ? "done" : "failed";
     String err = error == null ? "" : error;
     try (PreparedStatement ps = conn.prepareStatement(
-        "UPDATE jobs SET status = ?, last_error = ?, updated_at = ? WHERE job_id = ?")) {
-      ps.setString(1, status);
-      ps.setString(2, err);
-      ps.setLong(3, now);
-      ps.setString(4, jobId);
+        "UPDATE jobs SET status = CASE WHEN rerun = 1 THEN 'pending' WHEN ? THEN 'done' WHEN attempts < ? THEN 'pending' ELSE 'failed' END, "
+            + "run_after = CASE WHEN rerun = 1 OR ? THEN 0 ELSE ? + ? * (1 << MIN(attempts - 1, 10)) END, "
+            + "attempts = CASE WHEN rerun = 1 THEN 0 ELSE attempts END, rerun = 0, "
+            + "last_error = ?, updated_at = ? WHERE job_id = ? AND status = 'running'")) {
+      ps.setBoolean(1, ok);
+      ps.setInt(2, MAX_JOB_ATTEMPTS);
+      ps.setBoolean(3, ok);
+      ps.setLong(4, now);
+      ps.setLong(5, RETRY_BACKOFF_MS);
+      ps.setString(6, err);
+      ps.setLong(7, now);
+      ps.setString(8, jobId);
       ps.executeUpdate();
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
+    // Jobs passed over while this one held their path, or its own rerun, can be claimed now.
+    signalJobs();
   }
 
-  public synchronized List<JobStatusRow> listJobs(int limit) {
-    List<JobStatusRow> out = new ArrayList<>();
-    try (PreparedStatement ps = conn.prepareStatement(
-        "SELECT job_id, type, path, status, attempts, last_error, created_at, updated_at FROM jobs ORDER BY updated_at DESC LIMIT ?")) {
-      ps.setInt(1, limit);
-      try (ResultSet rs = ps.executeQuery()) {
-        while (rs.next()) {
-          out.add(new JobStatusRow(
-              rs.getString(1),
-              rs.getString(2),
-              rs.getString(3),
-              rs.getString(4),
-              rs.getInt(5),
-              rs.getString(6),
-              rs.getLong(7),
-              rs.getLong(8)
-          ));
+  public List<JobStatusRow> listJobs(int limit) {
+    Connection c = acquireReader();
+    try {
+      List<JobStatusRow> out = new ArrayList<>();
+      try (PreparedStatement ps = c.prepareStatement(
+          "SELECT job_id, type, path, status, attempts, last_error, created_at, updated_at FROM jobs ORDER BY updated_at DESC LIMIT ?")) {
+        ps.setInt(1, limit);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            out.add(new JobStatusRow(
+                rs.getString(1),
+                rs.getString(2),
+                rs.getString(3),
+                rs.getString(4),
+                rs.getInt(5),
+                rs.getString(6),
+                rs.getLong(7),
+                rs.getLong(8)
+            ));
+          }
         }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
       }
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+      return out;
+    } finally {
+      releaseReader(c);
     }
-    return out;
   }
 
   public synchronized AgentSummaryRow createAgent(String name, String description, List<String> tags, List<String> skillFiles, List<String> systemRuleFiles, List<String> triggerRuleFiles) {
@@ -337,96 +600,111 @@ public final class SqliteStore implements AutoCloseable {
     }
   }
 
-  public synchronized List<AgentSummaryRow> listAgents(int limit) {
-    List<AgentSummaryRow> out = new ArrayList<>();
-    try (PreparedStatement ps = conn.prepareStatement(
-        "SELECT agent_id, name, description, tags_json, created_at, updated_at FROM agents ORDER BY updated_at DESC LIMIT ?")) {
-      ps.setInt(1, limit);
-      try (ResultSet rs = ps.executeQuery()) {
-        while (rs.next()) {
-          String agentId = rs.getString(1);
-          int skillCount = count("SELECT COUNT(*) FROM agent_skill WHERE agent_id = ?", agentId);
-          int ruleCount = count("SELECT COUNT(*) FROM agent_rule WHERE agent_id = ?", agentId);
-          out.add(new AgentSummaryRow(
-              agentId,
+  public List<AgentSummaryRow> listAgents(int limit) {
+    Connection c = acquireReader();
+    try {
+      List<AgentSummaryRow> out = new ArrayList<>();
+      try (PreparedStatement ps = c.prepareStatement(
+          "SELECT agent_id, name, description, tags_json, created_at, updated_at FROM agents ORDER BY updated_at DESC LIMIT ?")) {
+        ps.setInt(1, limit);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            String agentId = rs.getString(1);
+            int skillCount = count(c, "SELECT COUNT(*) FROM agent_skill WHERE agent_id = ?", agentId);
+            int ruleCount = count(c, "SELECT COUNT(*) FROM agent_rule WHERE agent_id = ?", agentId);
+            out.add(new AgentSummaryRow(
+                agentId,
+                rs.getString(2),
+                rs.getString(3),
+                parseJsonArray(rs.getString(4)),
+                skillCount,
+                ruleCount,
+                rs.getLong(5),
+                rs.getLong(6)
+            ));
+          }
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return out;
+    } finally {
+      releaseReader(c);
+    }
+  }
+
+  public AgentDetailRow getAgent(String agentId) {
+    Connection c = acquireReader();
+    try {
+      try (PreparedStatement ps = c.prepareStatement(
+          "SELECT agent_id, name, description, tags_json, created_at, updated_at FROM agents WHERE agent_id = ?")) {
+        ps.setString(1, agentId);
+        try (ResultSet rs = ps.executeQuery()) {
+          if (!rs.next()) {
+            throw new IllegalArgumentException("agent not found");
+          }
+          List<String> skillFiles = listStrings(c, "SELECT skill_file FROM agent_skill WHERE agent_id = ? ORDER BY skill_file ASC", agentId);
+          List<String> systemRuleFiles = listStrings(c,
+              "SELECT rule_file FROM agent_rule WHERE agent_id = ? AND kind = 'system' ORDER BY rule_file ASC", agentId);
+          List<String> triggerRuleFiles = listStrings(c,
+              "SELECT rule_file FROM agent_rule WHERE agent_id = ? AND kind = 'trigger' ORDER BY rule_file ASC", agentId);
+          return new AgentDetailRow(
+              rs.getString(1),
               rs.getString(2),
               rs.getString(3),
               parseJsonArray(rs.getString(4)),
-              skillCount,
-              ruleCount,
+              skillFiles,
+              systemRuleFiles,
+              triggerRuleFiles,
               rs.getLong(5),
               rs.getLong(6)
-          ));
+          );
         }
+      } catch (IllegalArgumentException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException(e);
       }
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
-    return out;
-  }
-
-  public synchronized AgentDetailRow getAgent(String agentId) {
-    try (PreparedStatement ps = conn.prepareStatement(
-        "SELECT agent_id, name, description, tags_json, created_at, updated_at FROM agents WHERE agent_id = ?")) {
-      ps.setString(1, agentId);
-      try (ResultSet rs = ps.executeQuery()) {
-        if (!rs.next()) {
-          throw new IllegalArgumentException("agent not found");
-        }
-        List<String> skillFiles = listStrings("SELECT skill_file FROM agent_skill WHERE agent_id = ? ORDER BY skill_file ASC", agentId);
-        List<String> systemRuleFiles = listStrings(
-            "SELECT rule_file FROM agent_rule WHERE agent_id = ? AND kind = 'system' ORDER BY rule_file ASC", agentId);
-        List<String> triggerRuleFiles = listStrings(
-            "SELECT rule_file FROM agent_rule WHERE agent_id = ? AND kind = 'trigger' ORDER BY rule_file ASC", agentId);
-        return new AgentDetailRow(
-            rs.getString(1),
-            rs.getString(2),
-            rs.getString(3),
-            parseJsonArray(rs.getString(4)),
-            skillFiles,
-            systemRuleFiles,
-            triggerRuleFiles,
-            rs.getLong(5),
-            rs.getLong(6)
-        );
-      }
-    } catch (IllegalArgumentException e) {
-      throw e;
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+    } finally {
+      releaseReader(c);
     }
   }
 
-  public synchronized AgentSummaryRow getAgentSummary(String agentId) {
-    try (PreparedStatement ps = conn.prepareStatement(
-        "SELECT agent_id, name, description, tags_json, created_at, updated_at FROM agents WHERE agent_id = ?")) {
-      ps.setString(1, agentId);
-      try (ResultSet rs = ps.executeQuery()) {
-        if (!rs.next()) {
-          throw new IllegalArgumentException("agent not found");
-        }
-        int skillCount = count("SELECT COUNT(*) FROM agent_skill WHERE agent_id = ?", agentId);
-        int ruleCount = count("SELECT COUNT(*) FROM agent_rule WHERE agent_id = ?", agentId);
-        return new AgentSummaryRow(
-            rs.getString(1),
-            rs.getString(2),
-            rs.getString(3),
-            parseJsonArray(rs.getString(4)),
-            skillCount,
-            ruleCount,
-            rs.getLong(5),
-            rs.getLong(6)
-        );
+  public AgentSummaryRow getAgentSummary(String agentId) {
+    Connection c = acquireReader();
+    try {
+      try (PreparedStatement ps = c.prepareStatement(
+          "SELECT agent_id, name, description, tags_json, created_at, updated_at FROM agents WHERE agent_id = ?")) {
+        ps.setString(1, agentId);
+        try (ResultSet rs = ps.executeQuery()) {
+          if (!rs.next()) {
+            throw new IllegalArgumentException("agent not found");
+          }
+          int skillCount = count(c, "SELECT COUNT(*) FROM agent_skill WHERE agent_id = ?", agentId);
+          int ruleCount = count(c, "SELECT COUNT(*) FROM agent_rule WHERE agent_id = ?", agentId);
+          return new AgentSummaryRow(
+              rs.getString(1),
+              rs.getString(2),
+              rs.getString(3),
+              parseJsonArray(rs.getString(4)),
+              skillCount,
+              ruleCount,
+              rs.getLong(5),
+              rs.getLong(6)
+          );
+        }
+      } catch (IllegalArgumentException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException(e);
       }
-    } catch (IllegalArgumentException e) {
-      throw e;
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+    } finally {
+      releaseReader(c);
     }
   }
 
-  private int count(String sql, String agentId) {
-    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+  private static int count(Connection c, String sql, String agentId) {
+    try (PreparedStatement ps = c.prepareStatement(sql)) {
       ps.setString(1, agentId);
       try (ResultSet rs = ps.executeQuery()) {
         if (rs.next()) {
@@ -439,9 +717,9 @@ public final class SqliteStore implements AutoCloseable {
     return 0;
   }
 
-  private List<String> listStrings(String sql, String agentId) {
+  private static List<String> listStrings(Connection c, String sql, String agentId) {
     List<String> out = new ArrayList<>();
-    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+    try (PreparedStatement ps = c.prepareStatement(sql)) {
       ps.setString(1, agentId);
       try (ResultSet rs = ps.executeQuery()) {
         while (rs.next()) {
@@ -490,78 +768,450 @@ public final class SqliteStore implements AutoCloseable {
     return new ArrayList<>();
   }
 
-  public synchronized FileMeta getFileMeta(String fileId) {
-    try (PreparedStatement ps = conn.prepareStatement("SELECT size, mtime FROM files WHERE file_id = ?")) {
-      ps.setString(1, fileId);
-      try (ResultSet rs = ps.executeQuery()) {
-        if (rs.next()) {
-          return new FileMeta(rs.getLong(1), rs.getLong(2));
-        }
+  public FileMeta getFileMeta(String fileId) {
+    List<FileMeta> rows = queryFiles("SELECT file_id, path, size, mtime, fingerprint, synced FROM files WHERE file_id = ?", fileId);
+    return rows.isEmpty() ? null : rows.get(0);
+  }
+
+  public FileMeta getFileMetaByPath(Path path) {
+    String p = path.toAbsolutePath().normalize().toString();
+    List<FileMeta> rows = queryFiles("SELECT file_id, path, size, mtime, fingerprint, synced FROM files WHERE path = ?", p);
+    return rows.isEmpty() ? null : rows.get(0);
+  }
+
+  /** Indexed files strictly below {@code dir}. */
+  public List<FileMeta> listFilesUnder(Path dir) {
+    String prefix = dir.toAbsolutePath().normalize().toString();
+    if (!prefix.endsWith(java.io.File.separator)) {
+      prefix = prefix + java.io.File.separator;
+    }
+    // Range scan on idx_files_path: every string starting with prefix sorts in [prefix, prefix + U+FFFF).
+    return queryFiles("SELECT file_id, path, size, mtime, fingerprint, synced FROM files WHERE path >= ? AND path < ?", prefix, prefix + '\uffff');
+  }
+
+  /**
+   * Id for a file seen at {@code path} for the first time. Normally the hash of the path, but a
+   * file renamed away keeps its id, so a new file at its old path must not reuse it.
+   */
+  public String newFileId(Path path) {
+    String p = path.toAbsolutePath().normalize().toString();
+    String id = Hashing.sha256Hex(p);
+    FileMeta taken = getFileMeta(id);
+    if (taken == null || taken.path.equals(p)) {
+      return id;
+    }
+    return Hashing.sha256Hex(p + "#" + UUID.randomUUID());
+  }
+
+  /** Moves a file's row and chunks to {@code to}, keeping its id and chunk ids. */
+  public synchronized void renameFile(String fileId, Path to) {
+    String p = to.toAbsolutePath().normalize().toString();
+    long now = System.currentTimeMillis();
+    try {
+      conn.setAutoCommit(false);
+      try (PreparedStatement up = conn.prepareStatement("UPDATE files SET path = ?, updated_at = ? WHERE file_id = ?")) {
+        up.setString(1, p);
+        up.setLong(2, now);
+        up.setString(3, fileId);
+        up.executeUpdate();
+      }
+      try (PreparedStatement up = conn.prepareStatement("UPDATE chunks SET path = ? WHERE file_id = ?")) {
+        up.setString(1, p);
+        up.setString(2, fileId);
+        up.executeUpdate();
       }
+      conn.commit();
+      conn.setAutoCommit(true);
+      indexGeneration.incrementAndGet();
     } catch (Exception e) {
+      try {
+        conn.rollback();
+      } catch (Exception ignored) {
+      }
+      try {
+        conn.setAutoCommit(true);
+      } catch (Exception ignored) {
+      }
       throw new RuntimeException(e);
     }
-    return null;
+  }
+
+  private List<FileMeta> queryFiles(String sql, String... args) {
+    Connection c = acquireReader();
+    try {
+      List<FileMeta> out = new ArrayList<>();
+      try (PreparedStatement ps = c.prepareStatement(sql)) {
+        for (int i = 0; i < args.length; i++) {
+          ps.setString(i + 1, args[i]);
+        }
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            out.add(new FileMeta(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4), rs.getString(5), rs.getString(6)));
+          }
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return out;
+    } finally {
+      releaseReader(c);
+    }
   }
 
   public synchronized void addDirectory(Path path) {
-    try (PreparedStatement ps = conn.prepareStatement("INSERT OR IGNORE INTO directories(path) VALUES (?)")) {
-      ps.setString(1, path.toAbsolutePath().normalize().toString());
-      ps.executeUpdate();
+    addDirectory(path, new ArrayList<String>(), new ArrayList<String>());
+  }
+
+  /** Adds a watch root, or replaces the globs of an existing one; it keeps its position. */
+  public synchronized void addDirectory(Path path, List<String> include, List<String> exclude) {
+    String p = path.toAbsolutePath().normalize().toString();
+    try (PreparedStatement ins = conn.prepareStatement("INSERT OR IGNORE INTO directories(path) VALUES (?)");
+        PreparedStatement upd = conn.prepareStatement("UPDATE directories SET include_globs = ?, exclude_globs = ? WHERE path = ?")) {
+      ins.setString(1, p);
+      ins.executeUpdate();
+      upd.setString(1, String.join("\n", include));
+      upd.setString(2, String.join("\n", exclude));
+      upd.setString(3, p);
+      upd.executeUpdate();
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
 
-  public synchronized List<Path> listDirectories() {
-    List<Path> out = new ArrayList<>();
-    try (Statement st = conn.createStatement()) {
-      try (ResultSet rs = st.executeQuery("SELECT path FROM directories ORDER BY id ASC")) {
-        while (rs.next()) {
-          out.add(Paths.get(rs.getString(1)));
+  public List<DirectoryRow> listDirectoryRows() {
+    Connection c = acquireReader();
+    try {
+      List<DirectoryRow> out = new ArrayList<>();
+      try (Statement st = c.createStatement()) {
+        try (ResultSet rs = st.executeQuery("SELECT path, include_globs, exclude_globs FROM directories ORDER BY id ASC")) {
+          while (rs.next()) {
+            out.add(new DirectoryRow(Paths.get(rs.getString(1)), splitLines(rs.getString(2)), splitLines(rs.getString(3))));
+          }
         }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
       }
+      return out;
+    } finally {
+      releaseReader(c);
+    }
+  }
+
+  private static List<String> splitLines(String s) {
+    List<String> out = new ArrayList<>();
+    if (s != null) {
+      for (String line : s.split("\n")) {
+        if (!line.trim().isEmpty()) {
+          out.add(line.trim());
+        }
+      }
+    }
+    return out;
+  }
+
+  public List<Path> listDirectories() {
+    Connection c = acquireReader();
+    try {
+      List<Path> out = new ArrayList<>();
+      try (Statement st = c.createStatement()) {
+        try (ResultSet rs = st.executeQuery("SELECT path FROM directories ORDER BY id ASC")) {
+          while (rs.next()) {
+            out.add(Paths.get(rs.getString(1)));
+          }
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return out;
+    } finally {
+      releaseReader(c);
+    }
+  }
+
+  /**
+   * Records the file row and reconciles its chunks against {@code chunkIds}: chunks whose id is
+   * no longer present are deleted, new ids are inserted and kept ones only get their index
+   * refreshed. Chunk ids are content-derived, so unchanged text keeps its id across edits.
+   * The row is left unsynced until {@link #markSynced} records that the sinks have the chunks.
+   */
+  public synchronized ChunkDelta upsertFileAndChunks(String fileId, Path path, long size, long mtime, String fingerprint, List<String> chunkIds, List<String> chunks) {
+    long now = System.currentTimeMillis();
+    String p = path.toAbsolutePath().normalize().toString();
+    try {
+      conn.setAutoCommit(false);
+      Set<String> existing = new HashSet<>();
+      try (PreparedStatement ps = conn.prepareStatement("SELECT chunk_id FROM chunks WHERE file_id = ?")) {
+        ps.setString(1, fileId);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            existing.add(rs.getString(1));
+          }
+        }
+      }
+
+      Set<String> wanted = new HashSet<>(chunkIds);
+      List<String> removed = new ArrayList<>();
+      for (String id : existing) {
+        if (!wanted.contains(id)) {
+          removed.add(id);
+        }
+      }
+      List<String> added = new ArrayList<>();
+
+      try (PreparedStatement up = conn.prepareStatement("INSERT OR REPLACE INTO files(file_id, path, size, mtime, fingerprint, updated_at) VALUES (?,?,?,?,?,?)")) {
+        up.setString(1, fileId);
+        up.setString(2, p);
+        up.setLong(3, size);
+        up.setLong(4, mtime);
+        up.setString(5, fingerprint);
+        up.setLong(6, now);
+        up.executeUpdate();
+      }
+      try (PreparedStatement del = conn.prepareStatement("DELETE FROM chunks WHERE chunk_id = ?")) {
+        for (String id : removed) {
+          del.setString(1, id);
+          del.addBatch();
+        }
+        del.executeBatch();
+      }
+      try (PreparedStatement ins = conn.prepareStatement("INSERT OR REPLACE INTO chunks(chunk_id, file_id, path, chunk_index, content, updated_at) VALUES (?,?,?,?,?,?)");
+           PreparedStatement idx = conn.prepareStatement("UPDATE chunks SET chunk_index = ? WHERE chunk_id = ? AND chunk_index != ?")) {
+        for (int i = 0; i < chunks.size(); i++) {
+          String chunkId = chunkIds.get(i);
+          if (existing.contains(chunkId)) {
+            idx.setInt(1, i);
+            idx.setString(2, chunkId);
+            idx.setInt(3, i);
+            idx.addBatch();
+            continue;
+          }
+          ins.setString(1, chunkId);
+          ins.setString(2, fileId);
+          ins.setString(3, p);
+          ins.setInt(4, i);
+          ins.setString(5, chunks.get(i));
+          ins.setLong(6, now);
+          ins.addBatch();
+          added.add(chunkId);
+        }
+        ins.executeBatch();
+        idx.executeBatch();
+      }
+      conn.commit();
+      conn.setAutoCommit(true);
+      indexGeneration.incrementAndGet();
+      return new ChunkDelta(added, removed);
     } catch (Exception e) {
+      try {
+        conn.rollback();
+      } catch (Exception ignored) {
+      }
+      try {
+        conn.setAutoCommit(true);
+      } catch (Exception ignored) {
+      }
       throw new RuntimeException(e);
     }
-    return out;
   }
 
-  public synchronized void upsertFileAndChunks(String fileId, Path path, long size, long mtime, List<String> chunks) {
+  /**
+   * A stamp for one streamed upsert run, from {@link #upsertChunkWindow} to
+   * {@link #finishFileChunks}. Strictly increasing, so two runs never share one.
+   */
+  public long newRunStamp() {
     long now = System.currentTimeMillis();
-    try (PreparedStatement del = conn.prepareStatement("DELETE FROM chunks WHERE file_id = ?")) {
-      del.setString(1, fileId);
-      del.executeUpdate();
+    return lastRunStamp.updateAndGet(last -> Math.max(last + 1, now));
+  }
+
+  /**
+   * Writes one window of a streamed file's chunks in its own transaction and returns the ids that
+   * were not stored before. Every chunk written or kept is stamped with {@code runStamp}, and kept
+   * chunks get their new index and offsets; call {@link #finishFileChunks} once the whole file has
+   * been written to drop the rest.
+   */
+  public synchronized List<String> upsertChunkWindow(String fileId, Path path, int startIndex, List<String> chunkIds, List<TextChunk> chunks, long runStamp) {
+    long now = System.currentTimeMillis();
+    String p = path.toAbsolutePath().normalize().toString();
+    try {
+      conn.setAutoCommit(false);
+      Set<String> existing = new HashSet<>();
+      for (int from = 0; from < chunkIds.size(); from += 500) {
+        List<String> part = chunkIds.subList(from, Math.min(chunkIds.size(), from + 500));
+        StringBuilder sql = new StringBuilder("SELECT chunk_id FROM chunks WHERE chunk_id IN (");
+        for (int i = 0; i < part.size(); i++) {
+          sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")");
+        try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+          for (int i = 0; i < part.size(); i++) {
+            ps.setString(i + 1, part.get(i));
+          }
+          try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+              existing.add(rs.getString(1));
+            }
+          }
+        }
+      }
+
+      List<String> added = new ArrayList<>();
+      try (PreparedStatement ins = conn.prepareStatement("INSERT OR REPLACE INTO chunks(chunk_id, file_id, path, chunk_index, content, heading, start_offset, end_offset, run_stamp, updated_at) VALUES (?,?,?,?,?,?,?,?,?,?)");
+           PreparedStatement keep = conn.prepareStatement("UPDATE chunks SET chunk_index = ?, start_offset = ?, end_offset = ?, run_stamp = ?, updated_at = ? WHERE chunk_id = ?")) {
+        for (int i = 0; i < chunks.size(); i++) {
+          String chunkId = chunkIds.get(i);
+          TextChunk chunk = chunks.get(i);
+          if (existing.contains(chunkId)) {
+            keep.setInt(1, startIndex + i);
+            keep.setLong(2, chunk.start);
+            keep.setLong(3, chunk.end);
+            keep.setLong(4, runStamp);
+            keep.setLong(5, now);
+            keep.setString(6, chunkId);
+            keep.addBatch();
+            continue;
+          }
+          ins.setString(1, chunkId);
+          ins.setString(2, fileId);
+          ins.setString(3, p);
+          ins.setInt(4, startIndex + i);
+          ins.setString(5, chunk.text);
+          ins.setString(6, chunk.heading);
+          ins.setLong(7, chunk.start);
+          ins.setLong(8, chunk.end);
+          ins.setLong(9, runStamp);
+          ins.setLong(10, now);
+          ins.addBatch();
+          added.add(chunkId);
+        }
+        ins.executeBatch();
+        keep.executeBatch();
+      }
+      conn.commit();
+      conn.setAutoCommit(true);
+      indexGeneration.incrementAndGet();
+      return added;
     } catch (Exception e) {
+      try {
+        conn.rollback();
+      } catch (Exception ignored) {
+      }
+      try {
+        conn.setAutoCommit(true);
+      } catch (Exception ignored) {
+      }
       throw new RuntimeException(e);
     }
-    try (PreparedStatement up = conn.prepareStatement("INSERT OR REPLACE INTO files(file_id, path, size, mtime, updated_at) VALUES (?,?,?,?,?)")) {
-      up.setString(1, fileId);
-      up.setString(2, path.toAbsolutePath().normalize().toString());
+  }
+
+  /**
+   * Completes a streamed upsert: deletes the file's chunks not stamped with {@code runStamp} and
+   * records size/mtime, unsynced until {@link #markSynced}. Returns the deleted ids.
+   */
+  public synchronized List<String> finishFileChunks(String fileId, Path path, long size, long mtime, String fingerprint, long runStamp) {
+    long now = System.currentTimeMillis();
+    String p = path.toAbsolutePath().normalize().toString();
+    try {
+      conn.setAutoCommit(false);
+      List<String> removed = new ArrayList<>();
+      try (PreparedStatement ps = conn.prepareStatement("SELECT chunk_id FROM chunks WHERE file_id = ? AND run_stamp != ?")) {
+        ps.setString(1, fileId);
+        ps.setLong(2, runStamp);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            removed.add(rs.getString(1));
+          }
+        }
+      }
+      try (PreparedStatement del = conn.prepareStatement("DELETE FROM chunks WHERE file_id = ? AND run_stamp != ?")) {
+        del.setString(1, fileId);
+        del.setLong(2, runStamp);
+        del.executeUpdate();
+      }
+      try (PreparedStatement up = conn.prepareStatement("INSERT OR REPLACE INTO files(file_id, path, size, mtime, fingerprint, updated_at) VALUES (?,?,?,?,?,?)")) {
+        up.setString(1, fileId);
+        up.setString(2, p);
+        up.setLong(3, size);
+        up.setLong(4, mtime);
+        up.setString(5, fingerprint);
+        up.setLong(6, now);
+        up.executeUpdate();
+      }
+      conn.commit();
+      conn.setAutoCommit(true);
+      indexGeneration.incrementAndGet();
+      return removed;
+    } catch (Exception e) {
+      try {
+        conn.rollback();
+      } catch (Exception ignored) {
+      }
+      try {
+        conn.setAutoCommit(true);
+      } catch (Exception ignored) {
+      }
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Records that every sink named in {@code signature} holds the file's current chunks, so an
+   * upsert with the same size and mtime is skipped. Ignored if the row has moved on since.
+   */
+  public synchronized void markSynced(String fileId, long size, long mtime, String signature) {
+    try (PreparedStatement up = conn.prepareStatement("UPDATE files SET synced = ? WHERE file_id = ? AND size = ? AND mtime = ?")) {
+      up.setString(1, signature);
+      up.setString(2, fileId);
       up.setLong(3, size);
       up.setLong(4, mtime);
-      up.setLong(5, now);
       up.executeUpdate();
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
-    try (PreparedStatement ins = conn.prepareStatement("INSERT OR REPLACE INTO chunks(chunk_id, file_id, path, chunk_index, content, updated_at) VALUES (?,?,?,?,?,?)")) {
-      for (int i = 0; i < chunks.size(); i++) {
-        String chunkId = fileId + ":" + i;
-        ins.setString(1, chunkId);
-        ins.setString(2, fileId);
-        ins.setString(3, path.toAbsolutePath().normalize().toString());
-        ins.setInt(4, i);
-        ins.setString(5, chunks.get(i));
-        ins.setLong(6, now);
-        ins.addBatch();
-      }
-      ins.executeBatch();
+  }
+
+  /**
+   * Clears the synced marker before chunks are written, so a run that fails half way leaves the
+   * file to be resent in full: chunks already committed would otherwise not count as new.
+   */
+  public synchronized void markUnsynced(String fileId) {
+    try (PreparedStatement up = conn.prepareStatement("UPDATE files SET synced = '' WHERE file_id = ?")) {
+      up.setString(1, fileId);
+      up.executeUpdate();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Clears every file's synced marker, so the next backfill resends all of them. */
+  public synchronized void markAllUnsynced() {
+    try (Statement st = conn.createStatement()) {
+      st.executeUpdate("UPDATE files SET synced = ''");
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
 
+  /** Paths of the files whose chunks have not been acknowledged by every sink in {@code signature}. */
+  public List<Path> listUnsyncedFiles(String signature) {
+    Connection c = acquireReader();
+    try {
+      List<Path> out = new ArrayList<>();
+      try (PreparedStatement ps = c.prepareStatement("SELECT path FROM files WHERE synced != ?")) {
+        ps.setString(1, signature);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            out.add(Paths.get(rs.getString(1)));
+          }
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return out;
+    } finally {
+      releaseReader(c);
+    }
+  }
+
   public synchronized void deleteByPath(Path path) {
     String p = path.toAbsolutePath().normalize().toString();
     try (PreparedStatement delChunks = conn.prepareStatement("DELETE FROM chunks WHERE path = ?")) {
@@ -575,50 +1225,173 @@ public final class SqliteStore implements AutoCloseable {
       delFile.executeUpdate();
     } catch (Exception e) {
       throw new RuntimeException(e);
+    } finally {
+      indexGeneration.incrementAndGet();
     }
   }
 
-  public synchronized List<ChunkRow> searchChunksLike(String query, int limit) {
-    List<ChunkRow> out = new ArrayList<>();
-    try (PreparedStatement ps = conn.prepareStatement("SELECT chunk_id, path, content FROM chunks WHERE content LIKE ? ORDER BY updated_at DESC LIMIT ?")) {
-      ps.setString(1, "%" + query + "%");
-      ps.setInt(2, limit);
-      try (ResultSet rs = ps.executeQuery()) {
-        while (rs.next()) {
-          out.add(new ChunkRow(rs.getString(1), rs.getString(2), rs.getString(3)));
+  /**
+   * BM25-ranked keyword search over chunk content. Falls back to a per-term {@code LIKE} search
+   * when FTS5 is unavailable or the query has no term long enough for the trigram index, so a
+   * query of short words such as "数据 分析" still matches chunks containing either word.
+   */
+  public List<ChunkRow> searchChunks(String query, int limit) {
+    String match = ftsEnabled ? ftsQuery(query) : "";
+    if (match.isEmpty()) {
+      List<String> terms = likeTerms(query);
+      return terms.isEmpty() ? searchChunksLike(query, limit) : searchChunksLike(terms, limit);
+    }
+    Connection c = acquireReader();
+    try {
+      List<ChunkRow> out = new ArrayList<>();
+      try (PreparedStatement ps = c.prepareStatement(
+          "SELECT c.chunk_id, c.path, c.content, c.heading, c.start_offset, c.end_offset FROM chunks_fts f JOIN chunks c ON c.rowid = f.rowid " +
+              "WHERE chunks_fts MATCH ? ORDER BY bm25(chunks_fts) LIMIT ?")) {
+        ps.setString(1, match);
+        ps.setInt(2, limit);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            out.add(new ChunkRow(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getLong(5), rs.getLong(6)));
+          }
         }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
       }
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+      return out;
+    } finally {
+      releaseReader(c);
     }
-    return out;
   }
 
-  public synchronized List<ChunkRow> listChunksByIds(List<String> chunkIds) {
-    List<ChunkRow> out = new ArrayList<>();
-    if (chunkIds == null || chunkIds.isEmpty()) {
-      return out;
+  // Builds an OR query of quoted phrases. Runs of CJK text are split into overlapping
+  // trigrams so that partial matches still score; other terms shorter than 3 chars are dropped
+  // because the trigram index cannot match them.
+  static String ftsQuery(String query) {
+    if (query == null) {
+      return "";
+    }
+    Set<String> terms = new java.util.LinkedHashSet<>();
+    StringBuilder run = new StringBuilder();
+    for (int i = 0; i <= query.length() && terms.size() < 64; i++) {
+      char ch = i < query.length() ? query.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(ch)) {
+        run.append(Character.toLowerCase(ch));
+        continue;
+      }
+      addFtsTerms(run.toString(), terms);
+      run.setLength(0);
     }
     StringBuilder sb = new StringBuilder();
-    sb.append("SELECT chunk_id, path, content FROM chunks WHERE chunk_id IN (");
-    for (int i = 0; i < chunkIds.size(); i++) {
-      if (i > 0) sb.append(",");
-      sb.append("?");
+    for (String t : terms) {
+      if (sb.length() > 0) sb.append(" OR ");
+      sb.append('"').append(t).append('"');
+    }
+    return sb.toString();
+  }
+
+  private static void addFtsTerms(String run, Set<String> terms) {
+    if (run.length() < 3) {
+      return;
     }
-    sb.append(")");
-    try (PreparedStatement ps = conn.prepareStatement(sb.toString())) {
+    boolean cjk = false;
+    for (int i = 0; i < run.length() && !cjk; i++) {
+      cjk = Character.UnicodeScript.of(run.charAt(i)) == Character.UnicodeScript.HAN;
+    }
+    if (!cjk) {
+      terms.add(run);
+      return;
+    }
+    for (int i = 0; i + 3 <= run.length(); i++) {
+      terms.add(run.substring(i, i + 3));
+    }
+  }
+
+  // Splits a query into its letter/digit runs for the LIKE fallback, at most 16 of them.
+  private static List<String> likeTerms(String query) {
+    Set<String> terms = new java.util.LinkedHashSet<>();
+    if (query == null) {
+      return new ArrayList<>(terms);
+    }
+    StringBuilder run = new StringBuilder();
+    for (int i = 0; i <= query.length() && terms.size() < 16; i++) {
+      char ch = i < query.length() ? query.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(ch)) {
+        run.append(ch);
+      } else if (run.length() > 0) {
+        terms.add(run.toString());
+        run.setLength(0);
+      }
+    }
+    return new ArrayList<>(terms);
+  }
+
+  public List<ChunkRow> searchChunksLike(String query, int limit) {
+    return searchChunksLike(Collections.singletonList(query), limit);
+  }
+
+  // Chunks containing any of the terms, those matching more terms first, then the newest.
+  private List<ChunkRow> searchChunksLike(List<String> terms, int limit) {
+    StringBuilder where = new StringBuilder();
+    StringBuilder rank = new StringBuilder();
+    for (int i = 0; i < terms.size(); i++) {
+      where.append(i > 0 ? " OR " : "").append("content LIKE ?");
+      rank.append(i > 0 ? " + " : "").append("(content LIKE ?)");
+    }
+    Connection c = acquireReader();
+    try {
+      List<ChunkRow> out = new ArrayList<>();
+      try (PreparedStatement ps = c.prepareStatement("SELECT chunk_id, path, content, heading, start_offset, end_offset FROM chunks WHERE " + where
+          + " ORDER BY " + rank + " DESC, updated_at DESC LIMIT ?")) {
+        int n = terms.size();
+        for (int i = 0; i < n; i++) {
+          ps.setString(i + 1, "%" + terms.get(i) + "%");
+          ps.setString(n + i + 1, "%" + terms.get(i) + "%");
+        }
+        ps.setInt(2 * n + 1, limit);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            out.add(new ChunkRow(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getLong(5), rs.getLong(6)));
+          }
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return out;
+    } finally {
+      releaseReader(c);
+    }
+  }
+
+  public List<ChunkRow> listChunksByIds(List<String> chunkIds) {
+    Connection c = acquireReader();
+    try {
+      List<ChunkRow> out = new ArrayList<>();
+      if (chunkIds == null || chunkIds.isEmpty()) {
+        return out;
+      }
+      StringBuilder sb = new StringBuilder();
+      sb.append("SELECT chunk_id, path, content, heading, start_offset, end_offset FROM chunks WHERE chunk_id IN (");
       for (int i = 0; i < chunkIds.size(); i++) {
-        ps.setString(i + 1, chunkIds.get(i));
+        if (i > 0) sb.append(",");
+        sb.append("?");
       }
-      try (ResultSet rs = ps.executeQuery()) {
-        while (rs.next()) {
-          out.add(new ChunkRow(rs.getString(1), rs.getString(2), rs.getString(3)));
+      sb.append(")");
+      try (PreparedStatement ps = c.prepareStatement(sb.toString())) {
+        for (int i = 0; i < chunkIds.size(); i++) {
+          ps.setString(i + 1, chunkIds.get(i));
         }
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            out.add(new ChunkRow(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getLong(5), rs.getLong(6)));
+          }
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
       }
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+      return out;
+    } finally {
+      releaseReader(c);
     }
-    return out;
   }
 
   public synchronized void upsertSession(String sessionId, String title) {
@@ -685,56 +1458,88 @@ public final class SqliteStore implements AutoCloseable {
     }
   }
 
-  public synchronized List<SessionRow> listSessions(int limit) {
+  public List<SessionRow> listSessions(int limit) {
     return listSessionsByAgent("", limit);
   }
 
-  public synchronized List<SessionRow> listSessionsByAgent(String agentId, int limit) {
-    String aid = agentId == null ? "" : agentId;
-    List<SessionRow> out = new ArrayList<SessionRow>();
-    try (PreparedStatement ps = conn.prepareStatement(
-        "SELECT session_id, title, created_at, updated_at FROM chat_session WHERE agent_id = ? ORDER BY updated_at DESC LIMIT ?"
-    )) {
-      ps.setString(1, aid);
-      ps.setInt(2, limit);
-      try (ResultSet rs = ps.executeQuery()) {
-        while (rs.next()) {
-          out.add(new SessionRow(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4)));
+  public List<SessionRow> listSessionsByAgent(String agentId, int limit) {
+    Connection c = acquireReader();
+    try {
+      String aid = agentId == null ? "" : agentId;
+      List<SessionRow> out = new ArrayList<SessionRow>();
+      try (PreparedStatement ps = c.prepareStatement(
+          "SELECT session_id, title, created_at, updated_at FROM chat_session WHERE agent_id = ? ORDER BY updated_at DESC LIMIT ?"
+      )) {
+        ps.setString(1, aid);
+        ps.setInt(2, limit);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            out.add(new SessionRow(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4)));
+          }
         }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
       }
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+      return out;
+    } finally {
+      releaseReader(c);
     }
-    return out;
   }
 
-  public synchronized List<MessageRow> listMessages(String sessionId, int limit) {
-    List<MessageRow> out = new ArrayList<MessageRow>();
-    try (PreparedStatement ps = conn.prepareStatement(
-        "SELECT role, content, created_at FROM chat_message WHERE session_id = ? ORDER BY created_at ASC LIMIT ?"
-    )) {
-      ps.setString(1, sessionId);
-      ps.setInt(2, limit);
-      try (ResultSet rs = ps.executeQuery()) {
-        while (rs.next()) {
-          out.add(new MessageRow(rs.getString(1), rs.getString(2), rs.getLong(3)));
+  public List<MessageRow> listMessages(String sessionId, int limit) {
+    Connection c = acquireReader();
+    try {
+      List<MessageRow> out = new ArrayList<MessageRow>();
+      try (PreparedStatement ps = c.prepareStatement(
+          "SELECT role, content, created_at FROM chat_message WHERE session_id = ? ORDER BY created_at ASC LIMIT ?"
+      )) {
+        ps.setString(1, sessionId);
+        ps.setInt(2, limit);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+            out.add(new MessageRow(rs.getString(1), rs.getString(2), rs.getLong(3)));
+          }
         }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
       }
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+      return out;
+    } finally {
+      releaseReader(c);
     }
-    return out;
   }
 
   public static final class ChunkRow {
     public final String chunkId;
     public final String path;
     public final String content;
+    public final String heading;
+    public final long startOffset;
+    public final long endOffset;
 
     public ChunkRow(String chunkId, String path, String content) {
+      this(chunkId, path, content, "", -1, -1);
+    }
+
+    public ChunkRow(String chunkId, String path, String content, String heading, long startOffset, long endOffset) {
       this.chunkId = chunkId;
       this.path = path;
       this.content = content;
+      this.heading = heading == null ? "" : heading;
+      this.startOffset = startOffset;
+      this.endOffset = endOffset;
+    }
+  }
+
+  public static final class DirectoryRow {
+    public final Path path;
+    public final List<String> include;
+    public final List<String> exclude;
+
+    public DirectoryRow(Path path, List<String> include, List<String> exclude) {
+      this.path = path;
+      this.include = include;
+      this.exclude = exclude;
     }
   }
 
@@ -743,12 +1548,14 @@ public final class SqliteStore implements AutoCloseable {
     public final String type;
     public final String path;
     public final int attempts;
+    public final String target;
 
-    public JobRow(String jobId, String type, String path, int attempts) {
+    public JobRow(String jobId, String type, String path, int attempts, String target) {
       this.jobId = jobId;
       this.type = type;
       this.path = path;
       this.attempts = attempts;
+      this.target = target == null ? "" : target;
     }
   }
 
@@ -820,13 +1627,36 @@ public final class SqliteStore implements AutoCloseable {
     }
   }
 
+  public static final class ChunkDelta {
+    public final List<String> addedChunkIds;
+    public final List<String> removedChunkIds;
+
+    public ChunkDelta(List<String> addedChunkIds, List<String> removedChunkIds) {
+      this.addedChunkIds = addedChunkIds;
+      this.removedChunkIds = removedChunkIds;
+    }
+
+    public boolean isEmpty() {
+      return addedChunkIds.isEmpty() && removedChunkIds.isEmpty();
+    }
+  }
+
   public static final class FileMeta {
+    public final String fileId;
+    public final String path;
     public final long size;
     public final long mtime;
+    public final String fingerprint;
+    /** Signature of the sinks that acknowledged the current chunks; empty while unsynced. */
+    public final String synced;
 
-    public FileMeta(long size, long mtime) {
+    public FileMeta(String fileId, String path, long size, long mtime, String fingerprint, String synced) {
+      this.fileId = fileId;
+      this.path = path;
       this.size = size;
       this.mtime = mtime;
+      this.fingerprint = fingerprint == null ? "" : fingerprint;
+      this.synced = synced == null ? "" : synced;
     }
   }
 
@@ -858,6 +1688,12 @@ public final class SqliteStore implements AutoCloseable {
 
   @Override
   public synchronized void close() {
+    for (Connection c : readers) {
+      try {
+        c.close();
+      } catch (Exception ignored) {
+      }
+    }
     try {
       if (conn != null) {
         conn.close();
@@ -1,44 +1,188 @@
 package local.ai.server.etl;
 
 import java.nio.file.Path;
+import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import local.ai.server.config.LlmConfig;
-import local.ai.server.index.MilvusVectorSink;
+import local.ai.server.config.RagConfig;
+import local.ai.server.db.EmbeddingCache;
+import local.ai.server.index.ChunkVector;
+import local.ai.server.util.Hashing;
 import local.ai.server.util.LocalEmbedding;
+import local.ai.server.util.LruCache;
 import local.ai.server.util.OpenAiCompatibleClient;
+import local.ai.server.util.TokenWindowChunker;
 
 public final class EmbeddingService {
   private final LlmConfig llm;
   private final int dim;
   private final OpenAiCompatibleClient client;
+  private final EmbeddingCache cache;
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong cacheMisses = new AtomicLong();
+  private final LruCache<String, float[]> queryCache;
 
-  public EmbeddingService(LlmConfig llm, int dim) {
+  public EmbeddingService(LlmConfig llm, RagConfig rag, int dim, EmbeddingCache cache, OpenAiCompatibleClient client) {
     this.llm = llm;
     this.dim = dim;
-    this.client = new OpenAiCompatibleClient(llm.baseUrl, llm.apiKey);
+    this.client = client;
+    this.cache = cache;
+    this.queryCache = new LruCache<>(rag.queryCacheSize, rag.queryCacheTtlSeconds, TimeUnit.SECONDS);
   }
 
-  public List<MilvusVectorSink.ChunkVector> embedAll(String fileId, Path path, List<String> chunks) {
-    List<MilvusVectorSink.ChunkVector> out = new ArrayList<>();
-    for (int i = 0; i < chunks.size(); i++) {
-      String chunkId = fileId + ":" + i;
-      float[] vec;
-      if (llm.hasRemoteEmbedding()) {
-        vec = client.embed(llm.embeddingModel, chunks.get(i), dim);
-      } else {
-        vec = LocalEmbedding.embed(chunks.get(i), dim);
+  public List<ChunkVector> embedAll(String fileId, Path path, List<String> chunkIds, List<String> chunks) {
+    float[][] vecs = new float[chunks.size()][];
+    if (llm.hasRemoteEmbedding()) {
+      embedRemote(chunks, vecs);
+    } else {
+      for (int i = 0; i < chunks.size(); i++) {
+        vecs[i] = LocalEmbedding.embed(chunks.get(i), dim);
       }
-      out.add(new MilvusVectorSink.ChunkVector(chunkId, fileId, path.toAbsolutePath().normalize().toString(), vec));
+    }
+
+    String p = path.toAbsolutePath().normalize().toString();
+    List<ChunkVector> out = new ArrayList<>();
+    for (int i = 0; i < chunks.size(); i++) {
+      out.add(new ChunkVector(chunkIds.get(i), fileId, p, vecs[i]));
     }
     return out;
   }
 
+  // Remote query vectors are memoized by normalized text, so a follow-up turn or a ReAct
+  // rag_search that repeats a query skips the round trip. A failed remote call falls back to
+  // LocalEmbedding uncached, so the next attempt goes remote again.
   public float[] embedQuery(String text) {
     String t = text == null ? "" : text;
-    if (llm.hasRemoteEmbedding()) {
-      return client.embed(llm.embeddingModel, t, dim);
+    if (!llm.hasRemoteEmbedding()) {
+      return LocalEmbedding.embed(t, dim);
+    }
+    String key = queryKey(t);
+    float[] v = queryCache.get(key);
+    if (v != null) {
+      return v.clone();
+    }
+    v = client.embedBatch(llm.embeddingModel, Collections.singletonList(t), dim).get(0);
+    if (v == null) {
+      return LocalEmbedding.embed(t, dim);
+    }
+    queryCache.put(key, v.clone());
+    return v;
+  }
+
+  public Map<String, Object> stats() {
+    Map<String, Object> out = new LinkedHashMap<>();
+    out.put("cacheEnabled", cache != null);
+    out.put("cacheHits", cacheHits.get());
+    out.put("cacheMisses", cacheMisses.get());
+    out.put("queryCache", queryCache.stats());
+    return out;
+  }
+
+  public void close() {
+    if (cache != null) {
+      cache.close();
     }
-    return LocalEmbedding.embed(t, dim);
+  }
+
+  // Looks chunks up in the content-addressed cache first, then embeds only the
+  // distinct missing texts remotely. Vectors that had to fall back to
+  // LocalEmbedding are not cached.
+  private void embedRemote(List<String> chunks, float[][] out) {
+    String[] hashes = new String[chunks.size()];
+    for (int i = 0; i < chunks.size(); i++) {
+      hashes[i] = Hashing.sha256Hex(chunks.get(i));
+    }
+    Map<String, float[]> known = new HashMap<>();
+    if (cache != null) {
+      try {
+        known.putAll(cache.getAll(llm.embeddingModel, dim, Arrays.asList(hashes)));
+      } catch (Exception e) {
+        System.err.println("Embedding cache lookup failed: " + e.getMessage());
+      }
+    }
+
+    Map<String, String> missing = new LinkedHashMap<>();
+    for (int i = 0; i < chunks.size(); i++) {
+      if (known.containsKey(hashes[i])) {
+        cacheHits.incrementAndGet();
+      } else {
+        cacheMisses.incrementAndGet();
+        missing.put(hashes[i], chunks.get(i));
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      List<String> keys = new ArrayList<>(missing.keySet());
+      List<String> texts = new ArrayList<>(missing.values());
+      float[][] fresh = new float[texts.size()][];
+      embedBatches(texts, fresh);
+      Map<String, float[]> toCache = new HashMap<>();
+      for (int i = 0; i < keys.size(); i++) {
+        if (fresh[i] != null) {
+          known.put(keys.get(i), fresh[i]);
+          toCache.put(keys.get(i), fresh[i]);
+        }
+      }
+      if (cache != null) {
+        try {
+          cache.putAll(llm.embeddingModel, dim, toCache);
+        } catch (Exception e) {
+          System.err.println("Embedding cache write failed: " + e.getMessage());
+        }
+      }
+    }
+
+    for (int i = 0; i < chunks.size(); i++) {
+      float[] v = known.get(hashes[i]);
+      out[i] = v != null ? v : LocalEmbedding.embed(chunks.get(i), dim);
+    }
+  }
+
+  // Groups texts into requests bounded by embeddingBatchSize and embeddingBatchTokens.
+  // Items missing from a batch response are retried one by one; slots that still
+  // fail are left null.
+  private void embedBatches(List<String> texts, float[][] out) {
+    int start = 0;
+    while (start < texts.size()) {
+      int end = start;
+      int tokens = 0;
+      while (end < texts.size() && end - start < llm.embeddingBatchSize) {
+        int t = estimateTokens(texts.get(end));
+        if (end > start && tokens + t > llm.embeddingBatchTokens) {
+          break;
+        }
+        tokens += t;
+        end++;
+      }
+
+      List<String> batch = texts.subList(start, end);
+      List<float[]> vecs = client.embedBatch(llm.embeddingModel, batch, dim);
+      for (int i = 0; i < batch.size(); i++) {
+        float[] v = vecs.get(i);
+        if (v == null && batch.size() > 1) {
+          v = client.embedBatch(llm.embeddingModel, Collections.singletonList(batch.get(i)), dim).get(0);
+        }
+        out[start + i] = v;
+      }
+      start = end;
+    }
+  }
+
+  // Case is kept: some embedding models are case-sensitive.
+  static String queryKey(String text) {
+    String s = Normalizer.normalize(text, Normalizer.Form.NFKC).trim();
+    return s.replaceAll("\\s+", " ");
+  }
+
+  static int estimateTokens(String text) {
+    return TokenWindowChunker.estimateTokens(text);
   }
 }
@@ -1,98 +1,335 @@
 package local.ai.server.etl;
 
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import com.fasterxml.jackson.databind.JsonNode;
 import local.ai.server.config.AppConfig;
+import local.ai.server.config.EtlConfig;
 import local.ai.server.config.YamlConfigLoader;
+import local.ai.server.db.EmbeddingCache;
 import local.ai.server.db.SqliteStore;
-import local.ai.server.index.ElasticsearchSink;
-import local.ai.server.index.MilvusVectorSink;
+import local.ai.server.index.ChunkVector;
+import local.ai.server.index.KeywordSink;
+import local.ai.server.index.SearchHit;
+import local.ai.server.index.VectorSink;
+import local.ai.server.util.CharsetSniffer;
 import local.ai.server.util.Hashing;
-import local.ai.server.util.TextChunker;
+import local.ai.server.util.HttpClientRegistry;
+import local.ai.server.util.LruCache;
+import local.ai.server.util.Chunker;
+import local.ai.server.util.CodeChunker;
+import local.ai.server.util.MarkdownChunker;
+import local.ai.server.util.ParagraphChunker;
+import local.ai.server.util.TextChunk;
+import local.ai.server.util.TokenWindowChunker;
 import local.ai.server.util.OpenAiCompatibleClient;
 import local.ai.server.util.OpenAiCompatibleClient.Message;
 import local.ai.shared.Json;
 import local.ai.shared.model.ChatResponse;
-import okhttp3.OkHttpClient;
+import okhttp3.Call;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.MediaType;
 
 public final class EtlService {
+  private static final long IDLE_RECHECK_MS = 5000L;
+  private static final long SINK_PROBE_SECONDS = 30L;
+  // One Action line and its Action Input, which runs up to the next Thought/Action or the end.
+  private static final Pattern ACTION = Pattern.compile(
+      "Action:[ \\t]*([^\\n]*)\\n\\s*Action Input:\\s*(.*?)(?=\\n\\s*(?:Thought:|Action:)|\\z)", Pattern.DOTALL);
+
   private final AppConfig config;
   private final SqliteStore store;
-  private final MilvusVectorSink milvus;
-  private final ElasticsearchSink es;
-  private final ExecutorService workers;
+  private final VectorSink vectors;
+  private final KeywordSink keywords;
+  private final List<ExecutorService> lanes = new ArrayList<>();
+  private final Map<String, AtomicInteger> busy = new LinkedHashMap<>();
+  private final Map<String, AtomicLong> charsets = new ConcurrentHashMap<>();
+  private final AtomicLong garbledChunks = new AtomicLong();
+  private final ExecutorService recallPool = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "rag-recall");
+    t.setDaemon(true);
+    return t;
+  });
+  private final ExecutorService toolPool;
+  private final ScheduledExecutorService sinkMonitor = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "sink-monitor");
+    t.setDaemon(true);
+    return t;
+  });
+  private final String sinkSignature;
   private final EmbeddingService embedding;
+  private final LruCache<String, List<RecallHit>> recallCache;
   private final AtomicBoolean stopped = new AtomicBoolean(false);
   private final YamlConfigLoader yaml;
-  private final OkHttpClient httpClient = new OkHttpClient();
+  private final HttpClientRegistry http;
+  private final OpenAiCompatibleClient llmClient;
 
-  public EtlService(AppConfig config, SqliteStore store, MilvusVectorSink milvus, ElasticsearchSink es, YamlConfigLoader yaml) {
+  public EtlService(AppConfig config, SqliteStore store, VectorSink vectors, KeywordSink keywords, YamlConfigLoader yaml) {
     this.config = config;
     this.store = store;
-    this.milvus = milvus;
-    this.es = es;
+    this.vectors = vectors;
+    this.keywords = keywords;
     this.yaml = yaml;
-    this.workers = Executors.newFixedThreadPool(2);
-    this.embedding = new EmbeddingService(config.llm, config.milvus.dim);
+    EmbeddingCache embeddingCache = new EmbeddingCache(config.dataDir.resolve("embeddings.db"));
+    embeddingCache.init();
+    this.http = new HttpClientRegistry(config.llm.maxRequestsPerHost, config.llm.maxIdleConnections, config.llm.keepAliveSeconds);
+    this.llmClient = new OpenAiCompatibleClient(config.llm.baseUrl, config.llm.apiKey, http.client());
+    this.embedding = new EmbeddingService(config.llm, config.rag, config.milvus.dim, embeddingCache, llmClient);
+    AtomicInteger toolThreads = new AtomicInteger();
+    this.toolPool = Executors.newFixedThreadPool(config.llm.toolParallelism, r -> {
+      Thread t = new Thread(r, "agent-tool-" + toolThreads.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    this.recallCache = new LruCache<>(config.rag.resultCacheSize, config.rag.resultCacheTtlSeconds, TimeUnit.SECONDS);
+    this.sinkSignature = "vector=" + String.join(",", vectors.backends()) + ";keyword=" + String.join(",", keywords.backends());
+    // SQLite bumps the generation when it commits, before the sinks are written; bumping again
+    // as each sink write lands keeps a recall cached in between from being served.
+    vectors.addWriteListener(store::bumpIndexGeneration);
+    keywords.addWriteListener(store::bumpIndexGeneration);
+    // A sink that starts empty has none of the files SQLite remembers as synced; the startup
+    // backfill resends them all.
+    if (!vectors.durable()) {
+      store.markAllUnsynced();
+    }
+
+    for (EtlConfig.Lane lane : Arrays.asList(config.etl.textLane, config.etl.imageLane, config.etl.videoLane)) {
+      startLane(lane);
+    }
+    sinkMonitor.execute(this::backfill);
+    sinkMonitor.scheduleWithFixedDelay(this::probeSinks, SINK_PROBE_SECONDS, SINK_PROBE_SECONDS, TimeUnit.SECONDS);
+  }
+
+  // A backend that was unreachable and is back gets every file it missed resent.
+  private void probeSinks() {
+    try {
+      boolean vectorBack = vectors.reconnect();
+      boolean keywordBack = keywords.reconnect();
+      if (vectorBack || keywordBack) {
+        backfill();
+      }
+    } catch (Exception e) {
+      System.err.println("Sink probe failed: " + e.getMessage());
+    }
+  }
+
+  // Requeues the files whose chunks not every configured backend has acknowledged: left behind
+  // by a job that failed for good, or indexed before a backend was added. Files that are gone
+  // are deleted instead, so they do not come back on every pass.
+  private void backfill() {
+    try {
+      List<Path> upserts = new ArrayList<>();
+      List<Path> deletes = new ArrayList<>();
+      for (Path p : store.listUnsyncedFiles(sinkSignature)) {
+        if (Files.isRegularFile(p) && isIndexable(p)) {
+          upserts.add(p);
+        } else {
+          deletes.add(p);
+        }
+      }
+      if (!upserts.isEmpty()) {
+        submitUpserts(upserts);
+      }
+      if (!deletes.isEmpty()) {
+        submitDeletes(deletes);
+      }
+      if (!upserts.isEmpty() || !deletes.isEmpty()) {
+        System.err.println("Sink backfill: " + upserts.size() + " upserts, " + deletes.size() + " deletes queued");
+      }
+    } catch (Exception e) {
+      System.err.println("Sink backfill failed: " + e.getMessage());
+    }
+  }
 
-    for (int i = 0; i < 2; i++) {
-      workers.submit(this::runWorker);
+  // One fixed pool per lane: a slow video job only ever occupies video workers, so text edits
+  // are never queued behind it.
+  private void startLane(EtlConfig.Lane lane) {
+    AtomicInteger n = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(lane.workers, r -> {
+      Thread t = new Thread(r, "etl-" + lane.name + "-" + n.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    busy.put(lane.name, new AtomicInteger());
+    for (int i = 0; i < lane.workers; i++) {
+      pool.submit(() -> runWorker(lane));
     }
+    lanes.add(pool);
   }
 
   public void submitUpsert(Path path) {
-    store.enqueueJob("upsert", path);
+    store.enqueueJob("upsert", path, laneOf(path));
+  }
+
+  /** Enqueues upserts for many files in one transaction, e.g. the changes found by a scan. */
+  public void submitUpserts(List<Path> paths) {
+    store.enqueueJobs("upsert", paths, this::laneOf);
+  }
+
+  // Deletes go to the file's own lane like its upserts. Jobs are claimed in the order they were
+  // last enqueued, across types, so when a file is deleted and recreated the upsert runs after
+  // the delete; the two never run at once, since a claim skips paths held by a running job.
+  public void submitDeletes(List<Path> paths) {
+    store.enqueueJobs("delete", paths, this::laneOf);
   }
 
   public void submitDelete(Path path) {
-    store.enqueueJob("delete", path);
+    store.enqueueJob("delete", path, laneOf(path));
   }
 
-  private void runWorker() {
+  // A rename only rewrites paths, so it is cheap and goes to the text lane whatever the file type.
+  public void submitRename(Path from, Path to) {
+    store.enqueueJob("rename", from, to.toAbsolutePath().normalize().toString(), config.etl.textLane.name);
+  }
+
+  /**
+   * True when {@code newPath} holds the same content as the indexed file recorded at
+   * {@code oldPath}, judged by size, mtime and {@link Hashing#fileFingerprint}, and
+   * {@code oldPath} itself is gone. Used by the watcher to pair a delete with a create.
+   */
+  public boolean isMovedFile(Path oldPath, Path newPath) {
+    SqliteStore.FileMeta prev = store.getFileMetaByPath(oldPath);
+    if (prev == null || prev.fingerprint.isEmpty() || Files.exists(oldPath)) {
+      return false;
+    }
+    try {
+      return Files.size(newPath) == prev.size
+          && Files.getLastModifiedTime(newPath).toMillis() == prev.mtime
+          && Hashing.fileFingerprint(newPath).equals(prev.fingerprint);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /** Paths of the indexed files below {@code dir}, for expanding a directory delete. */
+  public List<Path> indexedFilesUnder(Path dir) {
+    List<Path> out = new ArrayList<>();
+    for (SqliteStore.FileMeta m : store.listFilesUnder(dir)) {
+      out.add(Paths.get(m.path));
+    }
+    return out;
+  }
+
+  /**
+   * Indexed files below {@code dir} by path, loaded in one query so a directory scan can compare
+   * size and mtime without a lookup per file.
+   */
+  public Map<Path, SqliteStore.FileMeta> indexedMetaUnder(Path dir) {
+    Map<Path, SqliteStore.FileMeta> out = new HashMap<>();
+    for (SqliteStore.FileMeta m : store.listFilesUnder(dir)) {
+      out.put(Paths.get(m.path), m);
+    }
+    return out;
+  }
+
+  /**
+   * True when {@code meta} records this size and mtime and every configured backend has
+   * acknowledged its chunks, so there is nothing to upsert.
+   */
+  public boolean isCurrent(SqliteStore.FileMeta meta, long size, long mtime) {
+    return meta != null && meta.size == size && meta.mtime == mtime && sinkSignature.equals(meta.synced);
+  }
+
+  /** Whether upsert would index this file at all, judged by extension only. */
+  public boolean isIndexable(Path path) {
+    String ext = extLower(path);
+    return config.etl.textExt.contains(ext) || config.etl.imageExt.contains(ext) || config.etl.videoExt.contains(ext);
+  }
+
+  private String laneOf(Path path) {
+    String ext = extLower(path);
+    if (config.etl.videoExt.contains(ext)) {
+      return config.etl.videoLane.name;
+    }
+    if (config.etl.imageExt.contains(ext)) {
+      return config.etl.imageLane.name;
+    }
+    return config.etl.textLane.name;
+  }
+
+  // Workers claim one job at a time and block on the store's job signal when the queue is
+  // empty, so an enqueue wakes them immediately. The timed wait is only a safety net.
+  private void runWorker(EtlConfig.Lane lane) {
     while (!stopped.get()) {
-      SqliteStore.JobRow job = store.claimNextJob();
+      long seen = store.jobSignal();
+      SqliteStore.JobRow job;
+      try {
+        job = store.claimJob(lane.name);
+      } catch (Exception e) {
+        System.err.println("Job claim failed: " + e.getMessage());
+        job = null;
+      }
       if (job == null) {
         try {
-          Thread.sleep(200);
+          store.awaitJobs(seen, IDLE_RECHECK_MS);
         } catch (InterruptedException e) {
           return;
         }
         continue;
       }
-      boolean ok = false;
-      String err = "";
+      AtomicInteger b = busy.get(lane.name);
+      b.incrementAndGet();
       try {
-        Path p = Paths.get(job.path);
-        if ("delete".equals(job.type)) {
-          delete(p);
-        } else {
-          upsert(p);
-        }
-        ok = true;
-      } catch (Exception e) {
-        err = String.valueOf(e.getMessage());
+        runJob(job);
+      } catch (Throwable e) {
+        // runJob records failures itself; nothing that escapes it may end this worker.
+        System.err.println("ETL worker " + lane.name + " error: " + e);
+      } finally {
+        b.decrementAndGet();
       }
-      try {
-        store.finishJob(job.jobId, ok, err);
-      } catch (Exception ignored) {
+    }
+  }
+
+  private void runJob(SqliteStore.JobRow job) {
+    boolean ok = false;
+    String err = "";
+    try {
+      Path p = Paths.get(job.path);
+      if ("delete".equals(job.type)) {
+        delete(p);
+      } else if ("rename".equals(job.type)) {
+        rename(p, Paths.get(job.target));
+      } else {
+        upsert(p);
       }
+      ok = true;
+    } catch (Exception | Error e) {
+      // Errors too (e.g. a mapped file that faulted): the job must still be marked failed.
+      err = String.valueOf(e.getMessage());
+    }
+    try {
+      store.finishJob(job.jobId, ok, err);
+    } catch (Exception ignored) {
     }
   }
 
@@ -108,45 +345,197 @@ public final class EtlService {
       return;
     }
 
-    String fileId = Hashing.sha256Hex(path.toAbsolutePath().normalize().toString());
     long size;
     long mtime;
+    String fingerprint;
+    SqliteStore.FileMeta prev = store.getFileMetaByPath(path);
     try {
       size = Files.size(path);
       mtime = Files.getLastModifiedTime(path).toMillis();
+      if (isCurrent(prev, size, mtime)) {
+        return;
+      }
+      fingerprint = Hashing.fileFingerprint(path);
     } catch (Exception e) {
       return;
     }
-    SqliteStore.FileMeta prev = store.getFileMeta(fileId);
-    if (prev != null && prev.size == size && prev.mtime == mtime) {
+    // The id sticks to the file across renames, so it is looked up rather than derived from the path.
+    String fileId = prev != null ? prev.fileId : store.newFileId(path);
+    // A file the sinks never fully acknowledged is resent in full: they are cleared first, so
+    // whatever a failed run left there does not linger. A new file is sent in full as well, since
+    // a failed first run may already have committed some of its chunks to SQLite.
+    boolean resend = prev != null && !sinkSignature.equals(prev.synced);
+    boolean sendAll = prev == null || resend;
+    if (prev != null) {
+      store.markUnsynced(fileId);
+    }
+    if (resend) {
+      vectors.deleteByFileId(fileId);
+      keywords.deleteByFileId(fileId);
+    }
+    if (isText) {
+      upsertText(fileId, path, size, mtime, fingerprint, sendAll);
+      store.markSynced(fileId, size, mtime, sinkSignature);
       return;
     }
     List<String> chunks;
-    if (isText) {
-      String content = TextExtractors.readText(path, config.etl.maxTextBytes);
-      chunks = TextChunker.chunkByParagraph(content, config.etl.chunkMaxChars);
-    } else if (isImage) {
+    if (isImage) {
       chunks = Collections.singletonList("[IMAGE] " + path.getFileName() + "\npath=" + path.toAbsolutePath().normalize());
     } else {
-      String meta = TextExtractors.extractVideoFrames(path, config);
+      String meta = TextExtractors.extractVideoFrames(path, config, llmClient);
       chunks = Collections.singletonList(meta);
     }
 
-    store.upsertFileAndChunks(fileId, path, size, mtime, chunks);
+    List<String> chunkIds = contentChunkIds(fileId, chunks);
+    SqliteStore.ChunkDelta delta = store.upsertFileAndChunks(fileId, path, size, mtime, fingerprint, chunkIds, chunks);
+    if (delta.isEmpty() && !sendAll) {
+      store.markSynced(fileId, size, mtime, sinkSignature);
+      return;
+    }
 
-    List<MilvusVectorSink.ChunkVector> vectors = embedding.embedAll(fileId, path, chunks);
-    milvus.upsertFile(fileId, vectors);
+    Set<String> addedIds = sendAll ? new HashSet<>(chunkIds) : new HashSet<>(delta.addedChunkIds);
+    List<String> addedChunks = new ArrayList<>();
+    List<String> addedChunkIds = new ArrayList<>();
+    for (int i = 0; i < chunks.size(); i++) {
+      if (addedIds.contains(chunkIds.get(i))) {
+        addedChunkIds.add(chunkIds.get(i));
+        addedChunks.add(chunks.get(i));
+      }
+    }
 
-    List<String> chunkIds = vectors.stream().map(v -> v.chunkId).collect(Collectors.toList());
-    es.upsertFile(fileId, path.toAbsolutePath().normalize().toString(), chunks, chunkIds);
+    List<ChunkVector> embedded = embedding.embedAll(fileId, path, addedChunkIds, addedChunks);
+    vectors.upsertChunks(fileId, embedded, delta.removedChunkIds);
+    keywords.upsertChunks(fileId, path.toAbsolutePath().normalize().toString(), addedChunkIds, addedChunks, delta.removedChunkIds);
+    store.markSynced(fileId, size, mtime, sinkSignature);
   }
 
+  // Text is streamed: chunks are written, embedded and sent to the sinks one window at a time,
+  // so only a window of chunk text is held in memory however large the file is. Chunks left
+  // over from the previous version are dropped once the whole file has been seen.
+  private void upsertText(String fileId, Path path, long size, long mtime, String fingerprint, boolean sendAll) {
+    long runStamp = store.newRunStamp();
+    int windowSize = Math.max(1, config.llm.embeddingBatchSize);
+    Map<String, Integer> seen = new HashMap<>();
+    List<TextChunk> window = new ArrayList<>(windowSize);
+    int[] written = {0};
+    Chunker chunker = newChunker(path, chunk -> {
+      // Mostly U+FFFD means a misdetected charset or binary data; not worth storing or embedding.
+      if (CharsetSniffer.isMostlyReplacement(chunk.text)) {
+        garbledChunks.incrementAndGet();
+        return;
+      }
+      window.add(chunk);
+      if (window.size() >= windowSize) {
+        writeWindow(fileId, path, written[0], window, seen, runStamp, sendAll);
+        written[0] += window.size();
+        window.clear();
+      }
+    });
+    Charset charset = TextExtractors.chunkText(path, config.etl.maxTextBytes, config.etl.mmapThresholdBytes, chunker);
+    charsets.computeIfAbsent(charset.name(), k -> new AtomicLong()).incrementAndGet();
+    chunker.finish();
+    if (!window.isEmpty()) {
+      writeWindow(fileId, path, written[0], window, seen, runStamp, sendAll);
+    }
+
+    List<String> removed = store.finishFileChunks(fileId, path, size, mtime, fingerprint, runStamp);
+    if (!removed.isEmpty()) {
+      vectors.upsertChunks(fileId, Collections.emptyList(), removed);
+      keywords.upsertChunks(fileId, path.toAbsolutePath().normalize().toString(), Collections.emptyList(), Collections.emptyList(), removed);
+    }
+  }
+
+  // Markdown and code get structure-aware chunkers; other text uses the etl.chunker strategy,
+  // where "tokens" packs sentences into a token budget with overlap.
+  private Chunker newChunker(Path path, Consumer<TextChunk> out) {
+    String ext = extLower(path);
+    if (config.etl.markdownExt.contains(ext)) {
+      return new MarkdownChunker(config.etl.chunkMaxChars, out);
+    }
+    if (config.etl.codeExt.contains(ext)) {
+      return new CodeChunker(CodeChunker.styleOf(ext), config.etl.chunkMaxChars, out);
+    }
+    if ("tokens".equals(config.etl.chunker)) {
+      return new TokenWindowChunker(config.etl.chunkMaxTokens, config.etl.chunkOverlapTokens, text -> out.accept(TextChunk.of(text)));
+    }
+    return new ParagraphChunker(config.etl.chunkMaxChars, text -> out.accept(TextChunk.of(text)));
+  }
+
+  // Ids and embeddings cover the heading too, so a chunk moved under another heading is re-embedded.
+  private void writeWindow(String fileId, Path path, int startIndex, List<TextChunk> chunks, Map<String, Integer> seen, long runStamp, boolean sendAll) {
+    List<String> chunkIds = new ArrayList<>(chunks.size());
+    for (TextChunk chunk : chunks) {
+      chunkIds.add(contentChunkId(fileId, chunk.embeddingText(), seen));
+    }
+    Set<String> addedIds = new HashSet<>(store.upsertChunkWindow(fileId, path, startIndex, chunkIds, chunks, runStamp));
+    if (sendAll) {
+      addedIds.addAll(chunkIds);
+    }
+    if (addedIds.isEmpty()) {
+      return;
+    }
+    List<String> addedTexts = new ArrayList<>();
+    List<String> addedEmbeddingTexts = new ArrayList<>();
+    List<String> addedChunkIds = new ArrayList<>();
+    for (int i = 0; i < chunks.size(); i++) {
+      if (addedIds.contains(chunkIds.get(i))) {
+        addedChunkIds.add(chunkIds.get(i));
+        addedTexts.add(chunks.get(i).text);
+        addedEmbeddingTexts.add(chunks.get(i).embeddingText());
+      }
+    }
+    List<ChunkVector> embedded = embedding.embedAll(fileId, path, addedChunkIds, addedEmbeddingTexts);
+    vectors.upsertChunks(fileId, embedded, Collections.emptyList());
+    keywords.upsertChunks(fileId, path.toAbsolutePath().normalize().toString(), addedChunkIds, addedTexts, Collections.emptyList());
+  }
+
+  private static List<String> contentChunkIds(String fileId, List<String> chunks) {
+    Map<String, Integer> seen = new HashMap<>();
+    List<String> out = new ArrayList<>(chunks.size());
+    for (String chunk : chunks) {
+      out.add(contentChunkId(fileId, chunk, seen));
+    }
+    return out;
+  }
+
+  // Chunk ids derive from the file id and the chunk text, so an edit only changes the ids of
+  // the chunks it touched. Repeated text within one file is told apart by its occurrence number,
+  // counted in seen.
+  private static String contentChunkId(String fileId, String chunk, Map<String, Integer> seen) {
+    String contentHash = Hashing.sha256Hex(chunk);
+    int n = seen.merge(contentHash, 1, Integer::sum);
+    return Hashing.sha256Hex(fileId + ":" + contentHash + ":" + n);
+  }
+
+  // The sinks go first: if one fails, the job is retried and the files row still names the id.
   private void delete(Path path) {
-    String p = path.toAbsolutePath().normalize().toString();
-    String fileId = Hashing.sha256Hex(p);
+    SqliteStore.FileMeta meta = store.getFileMetaByPath(path);
+    String fileId = meta != null ? meta.fileId : Hashing.sha256Hex(path.toAbsolutePath().normalize().toString());
+    // Without a files row the path-derived id may still belong to a file that was renamed away.
+    if (meta != null || store.getFileMeta(fileId) == null) {
+      vectors.deleteByFileId(fileId);
+      keywords.deleteByFileId(fileId);
+    }
     store.deleteByPath(path);
-    milvus.deleteByFileId(fileId);
-    es.deleteByFileId(fileId);
+  }
+
+  // Moves the file's rows to the new path in SQLite and every sink; chunk ids and vectors are
+  // kept. A file already indexed at the target is replaced. The closing upsert is a no-op unless
+  // the file changed after the move, and then only re-embeds what changed.
+  private void rename(Path from, Path to) {
+    SqliteStore.FileMeta meta = store.getFileMetaByPath(from);
+    if (meta != null) {
+      SqliteStore.FileMeta existing = store.getFileMetaByPath(to);
+      if (existing != null && !existing.fileId.equals(meta.fileId)) {
+        delete(to);
+      }
+      String p = to.toAbsolutePath().normalize().toString();
+      // Sinks first, so a failed sink write is retried while SQLite still has the old path.
+      vectors.updatePath(meta.fileId, p);
+      keywords.updatePath(meta.fileId, p);
+      store.renameFile(meta.fileId, to);
+    }
+    upsert(to);
   }
 
   public ChatAnswer chat(String message, int recallTopK) {
@@ -162,8 +551,7 @@ public final class EtlService {
     
     String answer = "";
     if (config.llm.hasRemoteChat()) {
-      local.ai.server.util.OpenAiCompatibleClient client = new local.ai.server.util.OpenAiCompatibleClient(config.llm.baseUrl, config.llm.apiKey);
-      answer = client.chat(config.llm.chatModel, prompt.toString());
+      answer = llmClient.chat(config.llm.chatModel, prompt.toString());
     } else {
       answer = "LLM not configured. Please configure llm.baseUrl, apiKey and chatModel in app.yml.";
     }
@@ -185,7 +573,7 @@ public final class EtlService {
       StringBuilder toolsDesc = new StringBuilder();
       toolsDesc.append("rag_search: Search internal knowledge base. Input: {\"query\": \"string\"}\n");
       
-      Map<String, Map<String, Object>> enabledSkills = new HashMap<>();
+      Map<String, Map<String, Object>> enabledSkills = new LinkedHashMap<>();
       for (String f : agent.skillFiles) {
         Map<String, Object> skill = yaml.getSkill(f);
         if (!skill.isEmpty()) {
@@ -206,6 +594,12 @@ public final class EtlService {
          }
       }
 
+      if (config.llm.nativeToolCalls()) {
+        String answer = functionCallingLoop(message, enabledSkills, rulesDesc.toString(), recallTopK, allCitations, onToken);
+        onComplete.accept(ChatAnswer.from(message, citationRows(allCitations), answer));
+        return;
+      }
+
       String systemPrompt = "You are an AI assistant using the ReAct pattern.\n" +
           "You have access to the following tools:\n" +
           toolsDesc.toString() + "\n" +
@@ -217,6 +611,7 @@ public final class EtlService {
           "Thought: you should always think about what to do\n" +
           "Action: the action to take, should be one of [rag_search" + (enabledSkills.isEmpty() ? "" : ", " + String.join(", ", enabledSkills.keySet())) + "]\n" +
           "Action Input: the input to the action\n" +
+          "(to call several independent tools at once, write one Action / Action Input pair per tool before stopping; they run in parallel)\n" +
           "Observation: the result of the action\n" +
           "... (this Thought/Action/Action Input/Observation can repeat N times)\n" +
           "Thought: I now know the final answer\n" +
@@ -226,7 +621,6 @@ public final class EtlService {
       history.add(new Message("system", systemPrompt));
       history.add(new Message("user", "Question: " + message));
 
-      OpenAiCompatibleClient client = new OpenAiCompatibleClient(config.llm.baseUrl, config.llm.apiKey);
       List<String> stop = Collections.singletonList("Observation:");
       
       StringBuilder finalAnswer = new StringBuilder();
@@ -234,7 +628,7 @@ public final class EtlService {
       
       for (int i = 0; i < maxSteps; i++) {
          StringBuilder stepOutput = new StringBuilder();
-         client.chatStream(config.llm.chatModel, history, stop, token -> {
+         llmClient.chatStream(config.llm.chatModel, history, stop, token -> {
             stepOutput.append(token);
             onToken.accept(token);
          });
@@ -248,14 +642,15 @@ public final class EtlService {
             break;
          }
          
-         String action = extractAction(out);
-         String actionInput = extractActionInput(out);
+         List<ToolCall> calls = extractActions(out);
          
-         if (action != null && actionInput != null) {
-            String observation = executeTool(action, actionInput, enabledSkills, recallTopK, allCitations);
-            String obsMsg = "\nObservation: " + observation + "\n";
-            onToken.accept(obsMsg);
-            history.add(new Message("user", obsMsg));
+         if (!calls.isEmpty()) {
+            String[] observations = runTools(calls, enabledSkills, recallTopK, allCitations, onToken);
+            StringBuilder obsMsg = new StringBuilder();
+            for (int j = 0; j < calls.size(); j++) {
+              obsMsg.append(observationText(calls, j, observations[j]));
+            }
+            history.add(new Message("user", obsMsg.toString()));
          } else {
             // No explicit action found, assume end of turn or malformed.
             // If it didn't say Final Answer, we might be stuck. 
@@ -264,16 +659,7 @@ public final class EtlService {
          }
       }
       
-      // Convert citations to ChunkRow logic if needed, but here we just pass list
-      // We need to map ChatResponse.Citation back to SqliteStore.ChunkRow logic or update ChatAnswer
-      // ChatAnswer expects List<SqliteStore.ChunkRow>.
-      // We can reconstruct empty ChunkRows with paths.
-      List<SqliteStore.ChunkRow> dummyRows = new ArrayList<>();
-      for (ChatResponse.Citation c : allCitations) {
-         dummyRows.add(new SqliteStore.ChunkRow(c.chunkId, c.path, ""));
-      }
-      
-      onComplete.accept(ChatAnswer.from(message, dummyRows, finalAnswer.toString()));
+      onComplete.accept(ChatAnswer.from(message, citationRows(allCitations), finalAnswer.toString()));
       
     } catch (Exception e) {
       e.printStackTrace();
@@ -282,23 +668,208 @@ public final class EtlService {
     }
   }
 
-  private String extractAction(String text) {
-    Matcher m = Pattern.compile("Action:\\s*(.*)", Pattern.MULTILINE).matcher(text);
-    if (m.find()) {
-      return m.group(1).trim();
+  // ChatAnswer expects List<SqliteStore.ChunkRow>; tools only know chunk ids and paths, so the
+  // rows are rebuilt with empty content.
+  private static List<SqliteStore.ChunkRow> citationRows(List<ChatResponse.Citation> citations) {
+    List<SqliteStore.ChunkRow> rows = new ArrayList<>();
+    for (ChatResponse.Citation c : citations) {
+      rows.add(new SqliteStore.ChunkRow(c.chunkId, c.path, ""));
     }
-    return null;
+    return rows;
   }
 
-  private String extractActionInput(String text) {
-    Matcher m = Pattern.compile("Action Input:\\s*(.*)", Pattern.DOTALL).matcher(text);
-    if (m.find()) {
-      return m.group(1).trim();
+  /**
+   * Agent loop on the OpenAI-compatible function-calling API (llm.agentMode = tools). Tools are
+   * declared as JSON schemas instead of a text format, the model's tool_calls come back already
+   * structured, and each result goes back as a tool message tied to its call id, so nothing is
+   * parsed out of free text and the system prompt carries only the rules. Calls of one turn run
+   * in parallel like ReAct actions. Returns the final answer.
+   */
+  private String functionCallingLoop(String message, Map<String, Map<String, Object>> skills, String rules, int topK,
+      List<ChatResponse.Citation> citations, java.util.function.Consumer<String> onToken) throws InterruptedException {
+    List<Map<String, Object>> tools = new ArrayList<>();
+    Map<String, Object> queryProp = new LinkedHashMap<>();
+    queryProp.put("type", "string");
+    queryProp.put("description", "what to search for");
+    Map<String, Object> ragParams = new LinkedHashMap<>();
+    ragParams.put("type", "object");
+    ragParams.put("properties", Collections.singletonMap("query", queryProp));
+    ragParams.put("required", Collections.singletonList("query"));
+    tools.add(toolSpec("rag_search", "Search the internal knowledge base.", ragParams));
+    for (Map.Entry<String, Map<String, Object>> e : skills.entrySet()) {
+      Object schema = e.getValue().get("input_schema");
+      Map<String, Object> params = new LinkedHashMap<>();
+      if (schema instanceof Map) {
+        for (Map.Entry<?, ?> p : ((Map<?, ?>) schema).entrySet()) {
+          params.put(String.valueOf(p.getKey()), p.getValue());
+        }
+      } else {
+        params.put("type", "object");
+      }
+      tools.add(toolSpec(e.getKey(), String.valueOf(e.getValue().getOrDefault("description", "")), params));
     }
-    return null;
+
+    List<Message> history = new ArrayList<>();
+    String systemPrompt = "You are an AI assistant. Call the provided tools whenever the question needs external knowledge "
+        + "(like weather, current events, or specific data) instead of answering from memory; independent calls may be made together.\n"
+        + (rules.isEmpty() ? "" : "You must follow these rules:\n" + rules);
+    history.add(new Message("system", systemPrompt));
+    history.add(new Message("user", message));
+
+    int maxSteps = 8;
+    for (int i = 0; i < maxSteps; i++) {
+      OpenAiCompatibleClient.ChatTurn turn = llmClient.chatStreamTools(config.llm.chatModel, history, tools, onToken);
+      if (turn.error != null) {
+        return turn.content.isEmpty() ? turn.error : turn.content + "\n" + turn.error;
+      }
+      if (turn.toolCalls.isEmpty()) {
+        return turn.content;
+      }
+      history.add(Message.assistantToolCalls(turn.content, turn.toolCalls));
+      List<ToolCall> calls = new ArrayList<>();
+      for (OpenAiCompatibleClient.ToolCall tc : turn.toolCalls) {
+        calls.add(new ToolCall(tc.function.name, tc.function.arguments));
+      }
+      String[] observations = runTools(calls, skills, topK, citations, onToken);
+      for (int j = 0; j < calls.size(); j++) {
+        history.add(Message.toolResult(turn.toolCalls.get(j).id, observations[j]));
+      }
+    }
+    String stopped = "Stopped after " + maxSteps + " tool steps without a final answer.";
+    onToken.accept(stopped);
+    return stopped;
   }
 
-  private String executeTool(String name, String input, Map<String, Map<String, Object>> skills, int topK, List<ChatResponse.Citation> citations) {
+  private static Map<String, Object> toolSpec(String name, String description, Map<String, Object> parameters) {
+    Map<String, Object> fn = new LinkedHashMap<>();
+    fn.put("name", name);
+    fn.put("description", description);
+    fn.put("parameters", parameters);
+    Map<String, Object> tool = new LinkedHashMap<>();
+    tool.put("type", "function");
+    tool.put("function", fn);
+    return tool;
+  }
+
+  private static List<ToolCall> extractActions(String text) {
+    List<ToolCall> out = new ArrayList<>();
+    Matcher m = ACTION.matcher(text);
+    while (m.find()) {
+      out.add(new ToolCall(m.group(1).trim(), m.group(2).trim()));
+    }
+    return out;
+  }
+
+  /**
+   * Runs one step's tool calls concurrently on the bounded tool pool and streams each
+   * observation as soon as its tool finishes. Each call gets its tool's timeout, counted from
+   * when it starts running; one that overruns is cancelled and observed as timed out. Returns
+   * the observations in call order and adds citations in call order too.
+   */
+  private String[] runTools(List<ToolCall> calls, Map<String, Map<String, Object>> skills, int topK,
+      List<ChatResponse.Citation> citations, java.util.function.Consumer<String> onToken) throws InterruptedException {
+    int n = calls.size();
+    String[] observations = new String[n];
+    ToolResult[] results = new ToolResult[n];
+    long[] timeouts = new long[n];
+    AtomicLongArray started = new AtomicLongArray(n);
+    List<Future<ToolResult>> futures = new ArrayList<>();
+    CompletionService<ToolResult> done = new ExecutorCompletionService<>(toolPool);
+    // Each task hands back its own observation and citations instead of writing shared state,
+    // so a timed-out task that keeps running cannot touch what this thread reads.
+    for (int i = 0; i < n; i++) {
+      ToolCall call = calls.get(i);
+      timeouts[i] = toolTimeoutMs(call.name, skills);
+      int idx = i;
+      futures.add(done.submit(() -> {
+        started.set(idx, System.currentTimeMillis());
+        List<ChatResponse.Citation> cited = new ArrayList<>();
+        String obs;
+        try {
+          obs = executeTool(call.name, call.input, skills, topK, cited, timeouts[idx]);
+        } catch (Exception e) {
+          obs = "Error executing " + call.name + ": " + e.getMessage();
+        }
+        return new ToolResult(idx, obs, cited);
+      }));
+    }
+
+    Set<Integer> pending = new HashSet<>();
+    for (int i = 0; i < n; i++) {
+      pending.add(i);
+    }
+    try {
+      while (!pending.isEmpty()) {
+        long now = System.currentTimeMillis();
+        long wait = 200;
+        for (Integer i : new ArrayList<>(pending)) {
+          long start = started.get(i);
+          if (start == 0) {
+            continue;
+          }
+          long left = start + timeouts[i] - now;
+          if (left <= 0 && futures.get(i).cancel(true)) {
+            pending.remove(i);
+            observations[i] = "Tool " + calls.get(i).name + " timed out after " + timeouts[i] + "ms";
+            onToken.accept(observationText(calls, i, observations[i]));
+          } else if (left > 0) {
+            wait = Math.min(wait, left);
+          }
+        }
+        if (pending.isEmpty()) {
+          break;
+        }
+        Future<ToolResult> f = done.poll(wait, TimeUnit.MILLISECONDS);
+        if (f == null || f.isCancelled()) {
+          continue;
+        }
+        ToolResult r = f.get();
+        // Only results taken here count; a tool already reported as timed out is left out.
+        if (pending.remove(r.index)) {
+          observations[r.index] = r.observation;
+          results[r.index] = r;
+          onToken.accept(observationText(calls, r.index, r.observation));
+        }
+      }
+    } catch (ExecutionException e) {
+      // Tasks catch their own failures; nothing reaches here.
+      throw new IllegalStateException(e);
+    } finally {
+      for (Future<ToolResult> f : futures) {
+        f.cancel(true);
+      }
+    }
+
+    for (ToolResult r : results) {
+      if (r != null) {
+        citations.addAll(r.citations);
+      }
+    }
+    return observations;
+  }
+
+  // A lone call keeps the plain ReAct form; several are numbered in call order.
+  private static String observationText(List<ToolCall> calls, int i, String observation) {
+    if (calls.size() == 1) {
+      return "\nObservation: " + observation + "\n";
+    }
+    return "\nObservation " + (i + 1) + " (" + calls.get(i).name + "): " + observation + "\n";
+  }
+
+  // A skill may set executor.timeoutMs; everything else uses llm.toolTimeoutMs.
+  private long toolTimeoutMs(String name, Map<String, Map<String, Object>> skills) {
+    Map<String, Object> skill = skills.get(name);
+    Object executor = skill == null ? null : skill.get("executor");
+    if (executor instanceof Map) {
+      Object t = ((Map<?, ?>) executor).get("timeoutMs");
+      if (t instanceof Number && ((Number) t).longValue() > 0) {
+        return ((Number) t).longValue();
+      }
+    }
+    return config.llm.toolTimeoutMs;
+  }
+
+  private String executeTool(String name, String input, Map<String, Map<String, Object>> skills, int topK, List<ChatResponse.Citation> citations, long timeoutMs) {
     if ("rag_search".equals(name)) {
       try {
         JsonNode node = Json.mapper().readTree(input);
@@ -317,13 +888,13 @@ public final class EtlService {
     }
     
     if (skills.containsKey(name)) {
-       return executeSkill(skills.get(name), input);
+       return executeSkill(skills.get(name), input, timeoutMs);
     }
     
     return "Unknown tool: " + name;
   }
 
-  private String executeSkill(Map<String, Object> skill, String input) {
+  private String executeSkill(Map<String, Object> skill, String input, long timeoutMs) {
     try {
       Map<String, Object> executor = (Map<String, Object>) skill.get("executor");
       if (executor == null) return "No executor defined for skill";
@@ -354,7 +925,9 @@ public final class EtlService {
             rb.get();
          }
          
-         try (Response res = httpClient.newCall(rb.build()).execute()) {
+         Call call = http.client().newCall(rb.build());
+         call.timeout().timeout(timeoutMs, TimeUnit.MILLISECONDS);
+         try (Response res = call.execute()) {
             return res.body() != null ? res.body().string() : "Empty response";
          }
       }
@@ -390,9 +963,8 @@ public final class EtlService {
     onToken.accept(citationText.toString());
     
     if (config.llm.hasRemoteChat()) {
-       local.ai.server.util.OpenAiCompatibleClient client = new local.ai.server.util.OpenAiCompatibleClient(config.llm.baseUrl, config.llm.apiKey);
        java.util.List<Message> msgs = java.util.Collections.singletonList(new Message("user", prompt.toString()));
-       client.chatStream(config.llm.chatModel, msgs, null, token -> {
+       llmClient.chatStream(config.llm.chatModel, msgs, null, token -> {
          fullAnswer.append(token);
          onToken.accept(token);
        });
@@ -406,36 +978,213 @@ public final class EtlService {
   }
 
   public List<SqliteStore.ChunkRow> ragRecall(String query, int topK) {
+    List<SqliteStore.ChunkRow> out = new ArrayList<>();
+    for (RecallHit h : ragSearch(query, topK)) {
+      out.add(h.chunk);
+    }
+    return out;
+  }
+
+  /**
+   * Runs vector and keyword retrieval concurrently and merges them with weighted reciprocal
+   * rank fusion. Each side queries the first ready backend of its sink (see SinkRegistry) under
+   * its own timeout; a source that is disabled, fails or times out contributes nothing to the
+   * fused list.
+   *
+   * <p>Results are cached by normalized query, topK and the sources in use, under the current
+   * index generation, so repeating a query against an unchanged index skips both retrievals.
+   * Only complete results are cached: one where a ready source failed or timed out is not.
+   */
+  public List<RecallHit> ragSearch(String query, int topK) {
     int k = Math.max(1, topK);
-    System.out.println("DEBUG: RAG search query: " + query + ", topK: " + k);
-    if (config.milvus.enabled) {
-      try {
-        float[] qv = embedding.embedQuery(query);
-        List<MilvusVectorSink.SearchHit> hits = milvus.search(qv, k);
-        System.out.println("DEBUG: Milvus hits: " + hits.size());
-        List<String> ids = new ArrayList<>();
-        for (MilvusVectorSink.SearchHit h : hits) {
-          ids.add(h.chunkId);
-          System.out.println("DEBUG: Hit chunkId=" + h.chunkId + ", score=" + h.score + ", path=" + h.path);
-        }
-        List<SqliteStore.ChunkRow> rows = store.listChunksByIds(ids);
-        if (!rows.isEmpty()) {
-          return rows;
+    int fetch = k * 2;
+    boolean vectorReady = vectors.isReady();
+    boolean keywordReady = keywords.isReady();
+    long generation = store.indexGeneration();
+    String cacheKey = generation + "|" + (vectorReady ? vectors.name() : "-") + "+" + (keywordReady ? keywords.name() : "-")
+        + "|" + k + "|" + EmbeddingService.queryKey(query == null ? "" : query);
+    List<RecallHit> cached = recallCache.get(cacheKey);
+    if (cached != null) {
+      return new ArrayList<>(cached);
+    }
+    long started = System.nanoTime();
+    Future<SourceResult> vector = vectorReady ? recallPool.submit(() -> vectorSource(query, fetch)) : null;
+    Future<SourceResult> keyword = keywordReady ? recallPool.submit(() -> keywordSource(query, fetch)) : null;
+
+    // Both timeouts run from submission, so waiting on one source does not extend the other's.
+    List<SourceResult> results = new ArrayList<>();
+    SourceResult v = await(vector, "vector", started, config.rag.vectorTimeoutMs);
+    if (v != null) {
+      results.add(v);
+    }
+    SourceResult kw = await(keyword, "keyword", started, config.rag.keywordTimeoutMs);
+    if (kw != null) {
+      results.add(kw);
+    }
+    System.out.println("DEBUG: RAG search query: " + query + ", topK: " + k + ", vector=" + (v == null ? "-" : v.ids.size()) + ", keyword=" + (kw == null ? "-" : kw.source + ":" + kw.ids.size()));
+
+    List<RecallHit> hits = fuse(results, k);
+    if (hits.isEmpty() && (kw == null || !"fts".equals(kw.source))) {
+      for (SqliteStore.ChunkRow row : store.searchChunks(query, k)) {
+        hits.add(new RecallHit(row, 0.0, Collections.singletonList("fts")));
+      }
+    }
+    if ((v != null || !vectorReady) && (kw != null || !keywordReady) && store.indexGeneration() == generation) {
+      recallCache.put(cacheKey, new ArrayList<>(hits));
+    }
+    return hits;
+  }
+
+  private SourceResult vectorSource(String query, int limit) {
+    float[] qv = embedding.embedQuery(query);
+    SourceResult r = new SourceResult(vectors.name(), config.rag.vectorWeight);
+    for (SearchHit h : vectors.search(qv, limit)) {
+      r.ids.add(h.chunkId);
+    }
+    return r;
+  }
+
+  private SourceResult keywordSource(String query, int limit) {
+    SourceResult r = new SourceResult(keywords.name(), config.rag.keywordWeight);
+    for (SearchHit h : keywords.search(query, limit, config.rag.keywordTimeoutMs)) {
+      r.ids.add(h.chunkId);
+    }
+    return r;
+  }
+
+  private static SourceResult await(Future<SourceResult> f, String name, long startedNanos, long timeoutMs) {
+    if (f == null) {
+      return null;
+    }
+    try {
+      long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs) - (System.nanoTime() - startedNanos);
+      return f.get(Math.max(0L, remaining), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      f.cancel(true);
+      System.err.println("RAG " + name + " search timed out after " + timeoutMs + "ms");
+    } catch (InterruptedException e) {
+      f.cancel(true);
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      System.err.println("RAG " + name + " search failed: " + e.getMessage());
+    }
+    return null;
+  }
+
+  // Weighted RRF: score(d) = sum over sources of weight / (rrfK + rank). Ids that no longer
+  // exist in SQLite (stale index entries) are dropped.
+  private List<RecallHit> fuse(List<SourceResult> results, int k) {
+    Map<String, Double> scores = new HashMap<>();
+    Map<String, List<String>> sources = new HashMap<>();
+    Map<String, SqliteStore.ChunkRow> rows = new HashMap<>();
+    for (SourceResult r : results) {
+      for (int rank = 0; rank < r.ids.size(); rank++) {
+        String id = r.ids.get(rank);
+        scores.merge(id, r.weight / (config.rag.rrfK + rank + 1), Double::sum);
+        List<String> src = sources.computeIfAbsent(id, x -> new ArrayList<>());
+        if (!src.contains(r.source)) {
+          src.add(r.source);
         }
-      } catch (Exception e) {
-        System.err.println("DEBUG: Milvus search failed: " + e.getMessage());
-        e.printStackTrace();
       }
     }
-    System.out.println("DEBUG: Fallback to SQLite LIKE search");
-    return store.searchChunksLike(query, k);
+
+    List<String> ranked = new ArrayList<>(scores.keySet());
+    ranked.sort((x, y) -> Double.compare(scores.get(y), scores.get(x)));
+    if (ranked.size() > k) {
+      ranked = new ArrayList<>(ranked.subList(0, k));
+    }
+
+    List<String> missing = new ArrayList<>();
+    for (String id : ranked) {
+      if (!rows.containsKey(id)) {
+        missing.add(id);
+      }
+    }
+    for (SqliteStore.ChunkRow row : store.listChunksByIds(missing)) {
+      rows.put(row.chunkId, row);
+    }
+
+    List<RecallHit> out = new ArrayList<>();
+    for (String id : ranked) {
+      SqliteStore.ChunkRow row = rows.get(id);
+      if (row != null) {
+        out.add(new RecallHit(row, scores.get(id), sources.get(id)));
+      }
+    }
+    return out;
+  }
+
+  private static final class SourceResult {
+    final String source;
+    final double weight;
+    final List<String> ids = new ArrayList<>();
+
+    SourceResult(String source, double weight) {
+      this.source = source;
+      this.weight = weight;
+    }
+  }
+
+  private static final class ToolCall {
+    final String name;
+    final String input;
+
+    ToolCall(String name, String input) {
+      this.name = name;
+      this.input = input;
+    }
+  }
+
+  private static final class ToolResult {
+    final int index;
+    final String observation;
+    final List<ChatResponse.Citation> citations;
+
+    ToolResult(int index, String observation, List<ChatResponse.Citation> citations) {
+      this.index = index;
+      this.observation = observation;
+      this.citations = citations;
+    }
   }
 
   public void stop() {
     stopped.set(true);
-    workers.shutdownNow();
-    milvus.close();
-    es.close();
+    for (ExecutorService pool : lanes) {
+      pool.shutdownNow();
+    }
+    sinkMonitor.shutdownNow();
+    recallPool.shutdownNow();
+    toolPool.shutdownNow();
+    vectors.close();
+    keywords.close();
+    embedding.close();
+    http.close();
+  }
+
+  public Map<String, Object> metrics() {
+    Map<String, Object> out = new LinkedHashMap<>();
+    out.put("embedding", embedding.stats());
+    out.put("recallCache", recallCache.stats());
+    out.put("http", http.stats());
+    Map<String, Object> laneStats = new LinkedHashMap<>();
+    for (EtlConfig.Lane lane : Arrays.asList(config.etl.textLane, config.etl.imageLane, config.etl.videoLane)) {
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put("workers", lane.workers);
+      m.put("busy", busy.get(lane.name).get());
+      laneStats.put(lane.name, m);
+    }
+    out.put("lanes", laneStats);
+    Map<String, Object> extraction = new LinkedHashMap<>();
+    Map<String, Object> charsetCounts = new LinkedHashMap<>();
+    for (Map.Entry<String, AtomicLong> e : charsets.entrySet()) {
+      charsetCounts.put(e.getKey(), e.getValue().get());
+    }
+    extraction.put("charsets", charsetCounts);
+    extraction.put("garbledChunksSkipped", garbledChunks.get());
+    out.put("extraction", extraction);
+    out.put("vectorSinks", vectors.stats());
+    out.put("keywordSinks", keywords.stats());
+    return out;
   }
 
   private static String extLower(Path path) {
@@ -0,0 +1,179 @@
+package local.ai.server.etl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import local.ai.server.util.Chunker;
+
+/**
+ * Memory-mapped reader for large text files. Paragraph boundaries (a whitespace run holding two
+ * or more newlines) are found by scanning the mapped bytes, and only each paragraph's byte range
+ * is decoded, straight from the mapping into a reusable char buffer. No heap copy of the file
+ * bytes is made.
+ *
+ * <p>Requires an ASCII-compatible charset (UTF-8, GBK, GB18030...), where whitespace and control
+ * bytes never occur inside a multi-byte character. Paragraphs longer than
+ * {@code maxParagraphBytes} are decoded incrementally into {@link Chunker#accept}
+ * instead. The file is mapped one region at a time, and a paragraph that crosses a region
+ * boundary is rescanned from its start in the next region. Output is identical to feeding the
+ * decoded text through {@link Chunker#accept}.
+ *
+ * <p>A file truncated while mapped makes reads past its new end fault; the JVM reports that as
+ * an {@link InternalError}, which {@link #scan} turns into a RuntimeException so the ETL job
+ * fails and is retried. Falling back to a stream read is not possible at that point, since the
+ * chunker has already been fed part of the file.
+ */
+final class MappedTextScanner {
+  static final int REGION_BYTES = 256 << 20;
+  static final int MAX_PARAGRAPH_BYTES = 64 * 1024;
+
+  private final FileChannel ch;
+  private final Chunker chunker;
+  private final CharsetDecoder decoder;
+  private final CharBuffer chars;
+  private final int regionBytes;
+  private final int maxParagraphBytes;
+
+  private MappedByteBuffer region;
+  private long regionStart;
+
+  private long paraStart = -1;
+  private long contentEnd;
+  private int newlines;
+  private boolean longParagraph;
+  private long decodedUpTo;
+
+  private MappedTextScanner(FileChannel ch, Charset charset, Chunker chunker, int regionBytes, int maxParagraphBytes) {
+    this.ch = ch;
+    this.chunker = chunker;
+    this.decoder = charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.chars = CharBuffer.allocate(maxParagraphBytes);
+    this.regionBytes = regionBytes;
+    this.maxParagraphBytes = maxParagraphBytes;
+  }
+
+  /**
+   * Feeds the bytes of {@code path} from {@code start} (e.g. past a BOM) up to {@code maxBytes}
+   * ({@code <= 0}: all) into {@code chunker}; returns the file offset reached.
+   */
+  static long scan(Path path, long start, long maxBytes, Charset charset, Chunker chunker) {
+    return scan(path, start, maxBytes, charset, chunker, REGION_BYTES, MAX_PARAGRAPH_BYTES);
+  }
+
+  static long scan(Path path, long start, long maxBytes, Charset charset, Chunker chunker, int regionBytes, int maxParagraphBytes) {
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = ch.size();
+      long limit = maxBytes > 0 ? Math.min(size, maxBytes) : size;
+      new MappedTextScanner(ch, charset, chunker, Math.max(regionBytes, maxParagraphBytes * 2), maxParagraphBytes).run(Math.min(start, limit), limit);
+      return limit;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } catch (InternalError e) {
+      throw new RuntimeException("File changed while mapped: " + path + " (" + e.getMessage() + ")", e);
+    }
+  }
+
+  private void run(long start, long limit) throws IOException {
+    long pos = start;
+    while (pos < limit) {
+      regionStart = pos;
+      long regionEnd = Math.min(limit, pos + regionBytes);
+      region = ch.map(FileChannel.MapMode.READ_ONLY, regionStart, regionEnd - regionStart);
+      for (; pos < regionEnd; pos++) {
+        if (paraStart >= 0) {
+          if (!longParagraph && pos - paraStart >= maxParagraphBytes) {
+            longParagraph = true;
+            decoder.reset();
+            decodedUpTo = paraStart;
+          }
+          if (longParagraph && pos - decodedUpTo >= maxParagraphBytes) {
+            decodedUpTo = decodeInto(decodedUpTo, pos, false);
+          }
+        }
+        int b = region.get((int) (pos - regionStart)) & 0xff;
+        if (b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r') {
+          if (b == '\n' && ++newlines >= 2 && paraStart >= 0) {
+            closeParagraph();
+          }
+          continue;
+        }
+        newlines = 0;
+        if (b > ' ') {
+          if (paraStart < 0) {
+            paraStart = pos;
+          }
+          contentEnd = pos + 1;
+        }
+      }
+      if (regionEnd < limit && paraStart >= 0) {
+        // Resume the open paragraph in the next region: a short one is rescanned from its start,
+        // a long one from the first byte the decoder has not consumed.
+        if (longParagraph) {
+          decodedUpTo = decodeInto(decodedUpTo, regionEnd, false);
+          pos = decodedUpTo;
+        } else {
+          pos = paraStart;
+          paraStart = -1;
+        }
+      }
+    }
+    if (paraStart >= 0) {
+      closeParagraph();
+    }
+  }
+
+  private void closeParagraph() {
+    if (longParagraph) {
+      if (contentEnd > decodedUpTo) {
+        decodeInto(decodedUpTo, contentEnd, true);
+      }
+      chunker.breakParagraph();
+      longParagraph = false;
+    } else {
+      decoder.reset();
+      chars.clear();
+      decoder.decode(slice(paraStart, contentEnd), chars, true);
+      decoder.flush(chars);
+      chars.flip();
+      chunker.paragraph(chars);
+    }
+    paraStart = -1;
+  }
+
+  // Decodes [from, to) of the current region into chunker.accept and returns the absolute
+  // position up to which input was consumed (short of a trailing partial character).
+  private long decodeInto(long from, long to, boolean endOfInput) {
+    ByteBuffer in = slice(from, to);
+    while (true) {
+      chars.clear();
+      boolean overflow = decoder.decode(in, chars, endOfInput).isOverflow();
+      if (!overflow && endOfInput) {
+        decoder.flush(chars);
+      }
+      chars.flip();
+      if (chars.hasRemaining()) {
+        chunker.accept(chars);
+      }
+      if (!overflow) {
+        break;
+      }
+    }
+    return regionStart + in.position();
+  }
+
+  private ByteBuffer slice(long from, long to) {
+    ByteBuffer b = region.duplicate();
+    b.position((int) (from - regionStart));
+    b.limit((int) (to - regionStart));
+    return b;
+  }
+}
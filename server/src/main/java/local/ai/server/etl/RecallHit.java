@@ -0,0 +1,16 @@
+package local.ai.server.etl;
+
+import java.util.List;
+import local.ai.server.db.SqliteStore;
+
+public final class RecallHit {
+  public final SqliteStore.ChunkRow chunk;
+  public final double score;
+  public final List<String> sources;
+
+  public RecallHit(SqliteStore.ChunkRow chunk, double score, List<String> sources) {
+    this.chunk = chunk;
+    this.score = score;
+    this.sources = sources;
+  }
+}
@@ -1,20 +1,28 @@
 package local.ai.server.etl;
 
-import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.Base64;
+import local.ai.server.util.CharsetSniffer;
 import local.ai.server.util.OpenAiCompatibleClient;
+import local.ai.server.util.Chunker;
 import local.ai.server.util.OpenAiCompatibleClient.Message;
 import local.ai.server.config.AppConfig;
 import net.bramp.ffmpeg.FFprobe;
@@ -26,39 +34,111 @@ import net.bramp.ffmpeg.probe.FFmpegStream;
 public final class TextExtractors {
   private TextExtractors() {}
 
-  public static String readText(Path path, long maxBytes) {
+  private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+  /**
+   * Streams a text file through a fixed-size NIO buffer and an incremental decoder into
+   * {@code out}. The charset is sniffed from the head of the file ({@link CharsetSniffer}) and a
+   * BOM is skipped. Malformed input is replaced rather than rejected. At most {@code maxBytes} are
+   * read ({@code <= 0} means no limit); a truncated file ends with a {@code [TRUNCATED]} note.
+   * The sequences passed to {@code out} reuse one buffer and are only valid during the call.
+   * Returns the charset used.
+   */
+  public static Charset streamText(Path path, long maxBytes, Consumer<CharSequence> out) {
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      CharsetSniffer.Result cs = sniff(ch);
+      streamText(ch, cs, maxBytes, out);
+      return cs.charset;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Feeds a text file into {@code chunker} and returns the sniffed charset. Files of at least
+   * {@code mmapThresholdBytes} ({@code <= 0} disables mapping) in an ASCII-compatible charset go
+   * through {@link MappedTextScanner}, unless the chunker {@link Chunker#needsExactText needs
+   * exact text}; the rest through {@link #streamText}. Both produce the same chunks.
+   */
+  public static Charset chunkText(Path path, long maxBytes, long mmapThresholdBytes, Chunker chunker) {
+    CharsetSniffer.Result cs;
     long size;
-    try {
-      size = Files.size(path);
-    } catch (Exception e) {
-      return "";
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      size = ch.size();
+      cs = sniff(ch);
+      if (mmapThresholdBytes <= 0 || size < mmapThresholdBytes || !cs.asciiCompatible() || chunker.needsExactText()) {
+        streamText(ch, cs, maxBytes, chunker::accept);
+        return cs.charset;
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    long read = MappedTextScanner.scan(path, cs.bomLength, maxBytes, cs.charset, chunker);
+    if (read < size) {
+      chunker.accept(truncatedNote(size, maxBytes));
     }
+    return cs.charset;
+  }
 
-    long toRead = Math.min(size, Math.max(0L, maxBytes));
-    if (toRead == 0L) {
-      return "";
+  private static CharsetSniffer.Result sniff(FileChannel ch) throws IOException {
+    ByteBuffer head = ByteBuffer.allocate(CharsetSniffer.SAMPLE_BYTES);
+    while (head.hasRemaining() && ch.read(head, head.position()) > 0) {
+      // positional reads leave the channel position at 0
     }
-    
-    // Try to detect charset or just assume UTF-8 for now
-    // In a real impl, we would use juniversalchardet or Tika
-    try (BufferedInputStream in = new BufferedInputStream(Files.newInputStream(path))) {
-      byte[] buf = new byte[(int) toRead];
-      int read = in.read(buf);
-      if (read <= 0) {
-        return "";
-      }
-      Charset cs = StandardCharsets.UTF_8;
-      String text = new String(buf, 0, read, cs);
-      if (size > maxBytes) {
-        text = text + "\n\n[TRUNCATED] file_size=" + size + " max_bytes=" + maxBytes;
+    return CharsetSniffer.sniff(head.array(), head.position());
+  }
+
+  private static void streamText(FileChannel ch, CharsetSniffer.Result cs, long maxBytes, Consumer<CharSequence> out) throws IOException {
+    long size = ch.size();
+    long limit = maxBytes > 0 ? Math.min(size, maxBytes) : size;
+    CharsetDecoder decoder = cs.charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    ByteBuffer bytes = ByteBuffer.allocate(READ_BUFFER_BYTES);
+    CharBuffer chars = CharBuffer.allocate(READ_BUFFER_BYTES);
+    long read = Math.min(cs.bomLength, limit);
+    ch.position(read);
+    boolean eof = false;
+    while (!eof) {
+      int want = (int) Math.min(bytes.remaining(), limit - read);
+      int n = 0;
+      if (want > 0) {
+        ByteBuffer window = bytes.duplicate();
+        window.limit(window.position() + want);
+        n = ch.read(window);
+        if (n > 0) {
+          bytes.position(bytes.position() + n);
+          read += n;
+        }
       }
-      return text;
-    } catch (Exception e) {
-      return "";
+      eof = n < 0 || read >= limit;
+      bytes.flip();
+      decoder.decode(bytes, chars, eof);
+      bytes.compact();
+      drain(chars, out);
+    }
+    bytes.flip();
+    decoder.decode(bytes, chars, true);
+    decoder.flush(chars);
+    drain(chars, out);
+    if (read < size) {
+      out.accept(truncatedNote(size, maxBytes));
+    }
+  }
+
+  private static String truncatedNote(long size, long maxBytes) {
+    return "\n\n[TRUNCATED] file_size=" + size + " max_bytes=" + maxBytes;
+  }
+
+  private static void drain(CharBuffer chars, Consumer<CharSequence> out) {
+    chars.flip();
+    if (chars.hasRemaining()) {
+      out.accept(chars);
     }
+    chars.clear();
   }
 
-  public static String extractVideoFrames(Path path, AppConfig config) {
+  public static String extractVideoFrames(Path path, AppConfig config, OpenAiCompatibleClient client) {
      if (!config.llm.hasRemoteChat()) {
         return "[VIDEO_SKIPPED] No LLM configured for video analysis.\npath=" + path;
      }
@@ -108,7 +188,6 @@ public final class TextExtractors {
             return "[VIDEO_WARNING] No frames extracted.\npath=" + path;
          }
          
-         OpenAiCompatibleClient client = new OpenAiCompatibleClient(config.llm.baseUrl, config.llm.apiKey);
          
          // Construct multimodal message
          // For DashScope qwen-vl-max/plus compatibility:
@@ -0,0 +1,94 @@
+package local.ai.server.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exact in-memory search by scanning every vector. Nothing is persisted, so the index is empty
+ * after a restart; meant for tests and very small corpora.
+ */
+public final class BruteForceVectorSink implements VectorSink {
+  private final Map<String, ChunkVector> byChunk = new ConcurrentHashMap<>();
+
+  @Override
+  public String name() {
+    return "memory";
+  }
+
+  @Override
+  public boolean isReady() {
+    return true;
+  }
+
+  @Override
+  public boolean durable() {
+    return false;
+  }
+
+  @Override
+  public List<String> backends() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public void upsertChunks(String fileId, List<ChunkVector> added, List<String> removedChunkIds) {
+    for (String id : removedChunkIds) {
+      byChunk.remove(id);
+    }
+    for (ChunkVector v : added) {
+      byChunk.put(v.chunkId, v);
+    }
+  }
+
+  @Override
+  public void deleteByFileId(String fileId) {
+    byChunk.values().removeIf(v -> fileId.equals(v.fileId));
+  }
+
+  @Override
+  public void updatePath(String fileId, String path) {
+    byChunk.replaceAll((id, v) -> fileId.equals(v.fileId) ? new ChunkVector(v.chunkId, v.fileId, path, v.vector) : v);
+  }
+
+  @Override
+  public List<SearchHit> search(float[] vector, int topK) {
+    int k = Math.max(1, topK);
+    if (vector == null || vector.length == 0) {
+      return new ArrayList<>();
+    }
+    // Max-heap on distance keeps the k closest seen so far.
+    PriorityQueue<SearchHit> best = new PriorityQueue<>(k + 1, (a, b) -> Float.compare(b.score, a.score));
+    for (ChunkVector v : byChunk.values()) {
+      if (v.vector.length != vector.length) {
+        continue;
+      }
+      float d = 0f;
+      for (int i = 0; i < vector.length; i++) {
+        float x = vector[i] - v.vector[i];
+        d += x * x;
+      }
+      if (best.size() < k) {
+        best.add(new SearchHit(v.chunkId, v.path, d));
+      } else if (d < best.peek().score) {
+        best.poll();
+        best.add(new SearchHit(v.chunkId, v.path, d));
+      }
+    }
+    List<SearchHit> out = new ArrayList<>(best);
+    out.sort((a, b) -> Float.compare(a.score, b.score));
+    return out;
+  }
+
+  @Override
+  public Map<String, Object> stats() {
+    return Collections.singletonMap("size", byChunk.size());
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,15 @@
+package local.ai.server.index;
+
+public final class ChunkVector {
+  public final String chunkId;
+  public final String fileId;
+  public final String path;
+  public final float[] vector;
+
+  public ChunkVector(String chunkId, String fileId, String path, float[] vector) {
+    this.chunkId = chunkId;
+    this.fileId = fileId;
+    this.path = path;
+    this.vector = vector;
+  }
+}
@@ -2,11 +2,16 @@ package local.ai.server.index;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import com.fasterxml.jackson.databind.JsonNode;
 import local.ai.server.config.EsConfig;
 import local.ai.shared.Json;
+import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -14,7 +19,7 @@ import okhttp3.Response;
 import okhttp3.MediaType;
 import okhttp3.Credentials;
 
-public final class ElasticsearchSink implements AutoCloseable {
+public final class ElasticsearchSink implements KeywordSink {
   private final EsConfig config;
   private final OkHttpClient http;
   private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
@@ -23,20 +28,57 @@ public final class ElasticsearchSink implements AutoCloseable {
   public ElasticsearchSink(EsConfig config) {
     this.config = config;
     this.http = new OkHttpClient();
-    if (config.enabled && !config.url.isEmpty()) {
-      ensureIndex();
-      this.ready = true;
+    if (enabled()) {
+      this.ready = ensureIndex();
     }
   }
 
-  public void upsertFile(String fileId, String path, List<String> chunks, List<String> chunkIds) {
-    if (!config.enabled || !ready) return;
-    
-    deleteByFileId(fileId);
-    
-    if (chunks.isEmpty()) return;
+  private boolean enabled() {
+    return config.enabled && !config.url.isEmpty();
+  }
+
+  @Override
+  public String name() {
+    return "es";
+  }
+
+  @Override
+  public boolean isReady() {
+    return config.enabled && ready;
+  }
+
+  @Override
+  public List<String> backends() {
+    return enabled() ? Collections.singletonList(name()) : Collections.emptyList();
+  }
+
+  @Override
+  public boolean reconnect() {
+    if (!enabled() || ready) {
+      return false;
+    }
+    ready = ensureIndex();
+    return ready;
+  }
+
+  @Override
+  public void upsertChunks(String fileId, String path, List<String> chunkIds, List<String> chunks, List<String> removedChunkIds) {
+    if (!enabled()) return;
+    requireReady();
+
+    if (chunks.isEmpty() && removedChunkIds.isEmpty()) return;
 
     StringBuilder bulk = new StringBuilder();
+    for (String chunkId : removedChunkIds) {
+      Map<String, Object> meta = new HashMap<>();
+      meta.put("_index", "rag_chunks");
+      meta.put("_id", chunkId);
+
+      Map<String, Object> action = new HashMap<>();
+      action.put("delete", meta);
+
+      bulk.append(Json.toJson(action)).append("\n");
+    }
     for (int i = 0; i < chunks.size(); i++) {
       String chunkId = chunkIds.get(i);
       String content = chunks.get(i);
@@ -64,17 +106,31 @@ public final class ElasticsearchSink implements AutoCloseable {
         .post(RequestBody.create(bulk.toString(), JSON));
         
     auth(req);
-    
-    try (Response res = http.newCall(req.build()).execute()) {
-      // ignore response for now, maybe log error
-    } catch (IOException e) {
-      e.printStackTrace();
+
+    // A bulk request answers 200 even when some of its items failed; those are flagged in "errors".
+    JsonNode result = execute(req, "bulk");
+    if (result.path("errors").asBoolean(false)) {
+      throw new RuntimeException("ES bulk failed: " + firstBulkError(result));
     }
   }
 
+  private static String firstBulkError(JsonNode result) {
+    for (JsonNode item : result.path("items")) {
+      for (JsonNode op : item) {
+        JsonNode error = op.path("error");
+        if (!error.isMissingNode()) {
+          return op.path("_id").asText("") + ": " + error.path("type").asText("") + " " + error.path("reason").asText("");
+        }
+      }
+    }
+    return "unknown item error";
+  }
+
+  @Override
   public void deleteByFileId(String fileId) {
-    if (!config.enabled || !ready) return;
-    
+    if (!enabled()) return;
+    requireReady();
+
     String query = "{\"query\": {\"term\": {\"file_id\": \"" + fileId + "\"}}}";
     String url = url("/rag_chunks/_delete_by_query");
     Request.Builder req = new Request.Builder()
@@ -82,20 +138,109 @@ public final class ElasticsearchSink implements AutoCloseable {
         .post(RequestBody.create(query, JSON));
     
     auth(req);
-    
+
+    execute(req, "delete");
+  }
+
+  @Override
+  public void updatePath(String fileId, String path) {
+    if (!enabled()) return;
+    requireReady();
+
+    Map<String, Object> params = new HashMap<>();
+    params.put("path", path);
+    Map<String, Object> script = new HashMap<>();
+    script.put("source", "ctx._source.path = params.path");
+    script.put("params", params);
+    Map<String, Object> term = new HashMap<>();
+    term.put("file_id", fileId);
+    Map<String, Object> q = new HashMap<>();
+    q.put("term", term);
+    Map<String, Object> body = new HashMap<>();
+    body.put("query", q);
+    body.put("script", script);
+
+    String url = url("/rag_chunks/_update_by_query?conflicts=proceed");
+    Request.Builder req = new Request.Builder()
+        .url(url)
+        .post(RequestBody.create(Json.toJson(body), JSON));
+
+    auth(req);
+
+    // Like bulk, update-by-query answers 200 when some documents failed and lists them in "failures".
+    JsonNode result = execute(req, "path update");
+    JsonNode failures = result.path("failures");
+    if (failures.size() > 0) {
+      throw new RuntimeException("ES path update failed for " + failures.size() + " chunks: " + failures.get(0));
+    }
+  }
+
+  @Override
+  public List<SearchHit> search(String query, int topK, long timeoutMs) {
+    List<SearchHit> out = new ArrayList<>();
+    if (!config.enabled || query == null || query.trim().isEmpty()) return out;
+    requireReady();
+
+    Map<String, Object> match = new HashMap<>();
+    match.put("content", query);
+    Map<String, Object> q = new HashMap<>();
+    q.put("match", match);
+    Map<String, Object> body = new HashMap<>();
+    body.put("size", Math.max(1, topK));
+    body.put("query", q);
+    body.put("_source", Arrays.asList("chunk_id", "path"));
+
+    String url = url("/rag_chunks/_search");
+    Request.Builder req = new Request.Builder()
+        .url(url)
+        .post(RequestBody.create(Json.toJson(body), JSON));
+    auth(req);
+
+    Call call = http.newCall(req.build());
+    call.timeout().timeout(timeoutMs, TimeUnit.MILLISECONDS);
+    // Failures throw rather than answer empty, so recall can tell an outage from no matches.
+    try (Response res = call.execute()) {
+      if (!res.isSuccessful() || res.body() == null) {
+        throw new RuntimeException("ES search failed: " + res.code() + " " + res.message());
+      }
+      JsonNode hits = Json.mapper().readTree(res.body().string()).path("hits").path("hits");
+      for (JsonNode h : hits) {
+        String chunkId = h.path("_source").path("chunk_id").asText(h.path("_id").asText(""));
+        String path = h.path("_source").path("path").asText("");
+        out.add(new SearchHit(chunkId, path, (float) h.path("_score").asDouble()));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("ES search failed: " + e.getMessage(), e);
+    }
+    return out;
+  }
+
+  // Runs a write and returns its parsed response. Throws on a non-2xx answer so the ETL job fails
+  // and is retried; an I/O failure also marks the sink unready until the next probe reconnects it.
+  private JsonNode execute(Request.Builder req, String what) {
     try (Response res = http.newCall(req.build()).execute()) {
-      // ignore
+      String body = res.body() == null ? "" : res.body().string();
+      if (!res.isSuccessful()) {
+        throw new RuntimeException("ES " + what + " failed: " + res.code() + " " + res.message() + " " + body);
+      }
+      return body.isEmpty() ? Json.mapper().createObjectNode() : Json.mapper().readTree(body);
     } catch (IOException e) {
-      e.printStackTrace();
+      ready = false;
+      throw new RuntimeException("ES " + what + " failed: " + e.getMessage(), e);
     }
   }
 
-  private void ensureIndex() {
-    if (!exists("rag_chunks")) {
-      createIndex();
+  private void requireReady() {
+    if (!ready) {
+      throw new IllegalStateException("ES is not reachable");
     }
   }
 
+  // True once the index exists; false while ES is unreachable or refuses to create it.
+  private boolean ensureIndex() {
+    return exists("rag_chunks") || createIndex();
+  }
+
   private boolean exists(String index) {
     String url = url("/" + index);
     Request.Builder req = new Request.Builder().url(url).head();
@@ -107,7 +252,7 @@ public final class ElasticsearchSink implements AutoCloseable {
     }
   }
 
-  private void createIndex() {
+  private boolean createIndex() {
     String mapping = "{\n" +
         "  \"mappings\": {\n" +
         "    \"properties\": {\n" +
@@ -129,8 +274,10 @@ public final class ElasticsearchSink implements AutoCloseable {
       if (!res.isSuccessful()) {
         System.err.println("Failed to create ES index: " + res.code() + " " + res.message());
       }
+      return res.isSuccessful();
     } catch (IOException e) {
-      e.printStackTrace();
+      System.err.println("Failed to create ES index: " + e.getMessage());
+      return false;
     }
   }
 
@@ -0,0 +1,139 @@
+package local.ai.server.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Mirrors writes to several keyword backends, each through its own {@link WriteQueue} so the
+ * backends are written concurrently. A write returns once every backend has applied it and
+ * throws if any of them failed, so the ETL job fails and is retried instead of leaving a
+ * backend behind. Searches go to the first ready backend in configuration order.
+ */
+public final class FanOutKeywordSink implements KeywordSink {
+  private static final long DRAIN_TIMEOUT_MS = 10_000L;
+
+  private final List<KeywordSink> sinks;
+  private final List<WriteQueue> queues = new ArrayList<>();
+
+  public FanOutKeywordSink(List<KeywordSink> sinks, int queueCapacity) {
+    this.sinks = new ArrayList<>(sinks);
+    for (KeywordSink s : sinks) {
+      queues.add(new WriteQueue("keyword-" + s.name(), queueCapacity));
+    }
+  }
+
+  @Override
+  public String name() {
+    KeywordSink s = primary();
+    return s == null ? "none" : s.name();
+  }
+
+  @Override
+  public boolean isReady() {
+    return primary() != null;
+  }
+
+  @Override
+  public void upsertChunks(String fileId, String path, List<String> chunkIds, List<String> chunks, List<String> removedChunkIds) {
+    List<String> ids = Collections.unmodifiableList(new ArrayList<>(chunkIds));
+    List<String> texts = Collections.unmodifiableList(new ArrayList<>(chunks));
+    List<String> r = Collections.unmodifiableList(new ArrayList<>(removedChunkIds));
+    List<CompletableFuture<Void>> acks = new ArrayList<>();
+    for (int i = 0; i < sinks.size(); i++) {
+      KeywordSink s = sinks.get(i);
+      acks.add(queues.get(i).submit(() -> s.upsertChunks(fileId, path, ids, texts, r)));
+    }
+    WriteQueue.awaitAll(acks);
+  }
+
+  @Override
+  public void deleteByFileId(String fileId) {
+    List<CompletableFuture<Void>> acks = new ArrayList<>();
+    for (int i = 0; i < sinks.size(); i++) {
+      KeywordSink s = sinks.get(i);
+      acks.add(queues.get(i).submit(() -> s.deleteByFileId(fileId)));
+    }
+    WriteQueue.awaitAll(acks);
+  }
+
+  @Override
+  public void updatePath(String fileId, String path) {
+    List<CompletableFuture<Void>> acks = new ArrayList<>();
+    for (int i = 0; i < sinks.size(); i++) {
+      KeywordSink s = sinks.get(i);
+      acks.add(queues.get(i).submit(() -> s.updatePath(fileId, path)));
+    }
+    WriteQueue.awaitAll(acks);
+  }
+
+  @Override
+  public List<SearchHit> search(String query, int topK, long timeoutMs) {
+    KeywordSink s = primary();
+    if (s == null) {
+      // Callers check isReady first; losing every backend since then is an outage, not a miss.
+      throw new IllegalStateException("No keyword sink is ready");
+    }
+    return s.search(query, topK, timeoutMs);
+  }
+
+  @Override
+  public void addWriteListener(Runnable listener) {
+    for (WriteQueue q : queues) {
+      q.addListener(listener);
+    }
+  }
+
+  @Override
+  public List<String> backends() {
+    List<String> out = new ArrayList<>();
+    for (KeywordSink s : sinks) {
+      out.addAll(s.backends());
+    }
+    return out;
+  }
+
+  // Runs on the caller's thread, not the write queue, so a backlog of failing writes does not
+  // delay the probe.
+  @Override
+  public boolean reconnect() {
+    boolean any = false;
+    for (KeywordSink s : sinks) {
+      any |= s.reconnect();
+    }
+    return any;
+  }
+
+  @Override
+  public Map<String, Object> stats() {
+    Map<String, Object> out = new LinkedHashMap<>();
+    for (int i = 0; i < sinks.size(); i++) {
+      KeywordSink s = sinks.get(i);
+      Map<String, Object> m = new LinkedHashMap<>(queues.get(i).stats());
+      m.put("ready", s.isReady());
+      m.putAll(s.stats());
+      out.put(s.name(), m);
+    }
+    return out;
+  }
+
+  @Override
+  public void close() {
+    for (int i = 0; i < sinks.size(); i++) {
+      queues.get(i).drain(DRAIN_TIMEOUT_MS);
+      sinks.get(i).close();
+    }
+  }
+
+  private KeywordSink primary() {
+    for (KeywordSink s : sinks) {
+      if (s.isReady()) {
+        return s;
+      }
+    }
+    return null;
+  }
+}
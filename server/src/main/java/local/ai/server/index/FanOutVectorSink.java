@@ -0,0 +1,148 @@
+package local.ai.server.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Mirrors writes to several vector backends, each through its own {@link WriteQueue} so the
+ * backends are written concurrently. A write returns once every backend has applied it and
+ * throws if any of them failed, so the ETL job fails and is retried instead of leaving a
+ * backend behind. Searches go to the first ready backend in configuration order.
+ */
+public final class FanOutVectorSink implements VectorSink {
+  private static final long DRAIN_TIMEOUT_MS = 10_000L;
+
+  private final List<VectorSink> sinks;
+  private final List<WriteQueue> queues = new ArrayList<>();
+
+  public FanOutVectorSink(List<VectorSink> sinks, int queueCapacity) {
+    this.sinks = new ArrayList<>(sinks);
+    for (VectorSink s : sinks) {
+      queues.add(new WriteQueue("vector-" + s.name(), queueCapacity));
+    }
+  }
+
+  @Override
+  public String name() {
+    VectorSink s = primary();
+    return s == null ? "none" : s.name();
+  }
+
+  @Override
+  public boolean isReady() {
+    return primary() != null;
+  }
+
+  @Override
+  public void upsertChunks(String fileId, List<ChunkVector> added, List<String> removedChunkIds) {
+    List<ChunkVector> a = Collections.unmodifiableList(new ArrayList<>(added));
+    List<String> r = Collections.unmodifiableList(new ArrayList<>(removedChunkIds));
+    List<CompletableFuture<Void>> acks = new ArrayList<>();
+    for (int i = 0; i < sinks.size(); i++) {
+      VectorSink s = sinks.get(i);
+      acks.add(queues.get(i).submit(() -> s.upsertChunks(fileId, a, r)));
+    }
+    WriteQueue.awaitAll(acks);
+  }
+
+  @Override
+  public void deleteByFileId(String fileId) {
+    List<CompletableFuture<Void>> acks = new ArrayList<>();
+    for (int i = 0; i < sinks.size(); i++) {
+      VectorSink s = sinks.get(i);
+      acks.add(queues.get(i).submit(() -> s.deleteByFileId(fileId)));
+    }
+    WriteQueue.awaitAll(acks);
+  }
+
+  @Override
+  public void updatePath(String fileId, String path) {
+    List<CompletableFuture<Void>> acks = new ArrayList<>();
+    for (int i = 0; i < sinks.size(); i++) {
+      VectorSink s = sinks.get(i);
+      acks.add(queues.get(i).submit(() -> s.updatePath(fileId, path)));
+    }
+    WriteQueue.awaitAll(acks);
+  }
+
+  @Override
+  public List<SearchHit> search(float[] vector, int topK) {
+    VectorSink s = primary();
+    if (s == null) {
+      // Callers check isReady first; losing every backend since then is an outage, not a miss.
+      throw new IllegalStateException("No vector sink is ready");
+    }
+    return s.search(vector, topK);
+  }
+
+  @Override
+  public void addWriteListener(Runnable listener) {
+    for (WriteQueue q : queues) {
+      q.addListener(listener);
+    }
+  }
+
+  @Override
+  public List<String> backends() {
+    List<String> out = new ArrayList<>();
+    for (VectorSink s : sinks) {
+      out.addAll(s.backends());
+    }
+    return out;
+  }
+
+  @Override
+  public boolean durable() {
+    for (VectorSink s : sinks) {
+      if (!s.durable()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Runs on the caller's thread, not the write queue, so a backlog of failing writes does not
+  // delay the probe.
+  @Override
+  public boolean reconnect() {
+    boolean any = false;
+    for (VectorSink s : sinks) {
+      any |= s.reconnect();
+    }
+    return any;
+  }
+
+  @Override
+  public Map<String, Object> stats() {
+    Map<String, Object> out = new LinkedHashMap<>();
+    for (int i = 0; i < sinks.size(); i++) {
+      VectorSink s = sinks.get(i);
+      Map<String, Object> m = new LinkedHashMap<>(queues.get(i).stats());
+      m.put("ready", s.isReady());
+      m.putAll(s.stats());
+      out.put(s.name(), m);
+    }
+    return out;
+  }
+
+  @Override
+  public void close() {
+    for (int i = 0; i < sinks.size(); i++) {
+      queues.get(i).drain(DRAIN_TIMEOUT_MS);
+      sinks.get(i).close();
+    }
+  }
+
+  private VectorSink primary() {
+    for (VectorSink s : sinks) {
+      if (s.isReady()) {
+        return s;
+      }
+    }
+    return null;
+  }
+}
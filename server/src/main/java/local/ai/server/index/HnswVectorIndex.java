@@ -0,0 +1,810 @@
+package local.ai.server.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import local.ai.server.config.HnswConfig;
+
+/**
+ * In-process HNSW approximate nearest neighbour index for installs without a Milvus server.
+ *
+ * <p>Vectors live in a memory-mapped file ({@code vectors.f32}); node metadata and deletes are
+ * appended to {@code nodes.log}; the graph is checkpointed to {@code graph.bin} on close. Nodes
+ * the checkpoint does not cover are re-linked on open, so a crash only costs re-insertion.
+ * Each batch forces its vectors to disk before flushing the log records that refer to them.
+ *
+ * <p>Writers are serialized by this object's monitor. Searches take no lock: node data is
+ * published through the volatile {@code count}, and neighbour lists are immutable arrays that
+ * writers replace wholesale. Deleted nodes stay in the graph as tombstones and are filtered
+ * from results until they pass {@code compactRatio} of all nodes; the index is then rebuilt
+ * from its live nodes. Distances are squared L2, matching the Milvus collection's metric.
+ */
+public final class HnswVectorIndex implements VectorSink {
+  private static final long SEGMENT_BYTES = 64L << 20;
+  private static final int GRAPH_MAGIC = 0x484e5357;
+  private static final int COMPACT_MIN_NODES = 1024;
+  private static final String[] FILES = {"vectors.f32", "nodes.log", "graph.bin"};
+
+  private final HnswConfig config;
+  private final int dim;
+  private final Path dir;
+  private final int perSegment;
+  private final double levelMult;
+  private final Random random = new Random();
+
+  private final Map<String, Integer> nodeByChunk = new ConcurrentHashMap<>();
+  private final Map<String, Set<Integer>> nodesByFile = new ConcurrentHashMap<>();
+  private final Set<Integer> deleted = ConcurrentHashMap.newKeySet();
+
+  private volatile FloatBuffer[] segments = new FloatBuffer[0];
+  private MappedByteBuffer[] mapped = new MappedByteBuffer[0];
+  private final BitSet dirty = new BitSet();
+  private volatile Nodes nodes = new Nodes(0);
+  private volatile Entry entry;
+  private volatile int count;
+  private volatile boolean ready;
+  // Odd while a compaction swaps renumbered nodes in; a search that overlaps a swap runs again.
+  private volatile int swaps;
+
+  private FileChannel vectorChannel;
+  private DataOutputStream log;
+
+  public HnswVectorIndex(HnswConfig config, int dim, Path dir) {
+    this.config = config;
+    this.dim = dim;
+    this.dir = dir;
+    this.perSegment = (int) Math.max(1L, SEGMENT_BYTES / (dim * 4L));
+    this.levelMult = 1.0 / Math.log(config.m);
+    if (config.enabled) {
+      try {
+        open();
+        this.ready = true;
+      } catch (Exception e) {
+        System.err.println("HNSW index open failed: " + e.getMessage());
+        this.ready = false;
+      }
+    }
+  }
+
+  @Override
+  public String name() {
+    return "hnsw";
+  }
+
+  @Override
+  public boolean isReady() {
+    return ready;
+  }
+
+  public int size() {
+    return count - deleted.size();
+  }
+
+  @Override
+  public Map<String, Object> stats() {
+    return Collections.singletonMap("size", size());
+  }
+
+  @Override
+  public List<String> backends() {
+    return config.enabled ? Collections.singletonList(name()) : Collections.emptyList();
+  }
+
+  @Override
+  public synchronized void upsertChunks(String fileId, List<ChunkVector> added, List<String> removedChunkIds) {
+    if (!writable()) {
+      return;
+    }
+    try {
+      for (String chunkId : removedChunkIds) {
+        Integer node = nodeByChunk.remove(chunkId);
+        if (node != null) {
+          markDeleted(node);
+        }
+      }
+      for (ChunkVector v : added) {
+        Integer old = nodeByChunk.remove(v.chunkId);
+        if (old != null) {
+          markDeleted(old);
+        }
+        insert(v);
+      }
+      flushWrites();
+    } catch (IOException e) {
+      ready = false;
+      throw new RuntimeException("HNSW upsert failed: " + e.getMessage(), e);
+    }
+    maybeCompact();
+  }
+
+  @Override
+  public synchronized void deleteByFileId(String fileId) {
+    if (!writable()) {
+      return;
+    }
+    Set<Integer> ids = nodesByFile.remove(fileId);
+    if (ids == null) {
+      return;
+    }
+    try {
+      for (Integer node : ids) {
+        nodeByChunk.remove(nodes.chunkIds[node], node);
+        markDeleted(node);
+      }
+      flushWrites();
+    } catch (IOException e) {
+      ready = false;
+      throw new RuntimeException("HNSW delete failed: " + e.getMessage(), e);
+    }
+    maybeCompact();
+  }
+
+  @Override
+  public synchronized void updatePath(String fileId, String path) {
+    if (!writable()) {
+      return;
+    }
+    Set<Integer> ids = nodesByFile.get(fileId);
+    if (ids == null) {
+      return;
+    }
+    try {
+      for (Integer node : ids) {
+        nodes.paths[node] = path;
+        log.writeByte('P');
+        log.writeInt(node);
+        log.writeUTF(path);
+      }
+      flushWrites();
+    } catch (IOException e) {
+      ready = false;
+      throw new RuntimeException("HNSW path update failed: " + e.getMessage(), e);
+    }
+  }
+
+  // A disabled index ignores writes; an enabled one that failed to open or write refuses them,
+  // so the job fails instead of the index silently falling behind.
+  private boolean writable() {
+    if (!config.enabled) {
+      return false;
+    }
+    if (!ready) {
+      throw new IllegalStateException("HNSW index is not open");
+    }
+    return true;
+  }
+
+  @Override
+  public List<SearchHit> search(float[] vector, int topK) {
+    while (true) {
+      int seq = swaps;
+      if ((seq & 1) == 0) {
+        try {
+          List<SearchHit> out = searchOnce(vector, topK);
+          if (swaps == seq) {
+            return out;
+          }
+        } catch (RuntimeException e) {
+          // Old and new node numbering mixed mid-swap can index out of bounds; only then retry.
+          if (swaps == seq) {
+            throw e;
+          }
+        }
+      }
+      Thread.yield();
+    }
+  }
+
+  private List<SearchHit> searchOnce(float[] vector, int topK) {
+    List<SearchHit> out = new ArrayList<>();
+    Entry ep = entry;
+    int limit = count;
+    if (!ready || ep == null || vector == null || vector.length != dim) {
+      return out;
+    }
+    Nodes ns = nodes;
+    FloatBuffer[] segs = segments;
+    int cur = ep.node;
+    float curDist = distance(segs, vector, cur);
+    for (int l = ep.level; l > 0; l--) {
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (int nb : neighbours(ns, cur, l)) {
+          if (nb >= limit) {
+            continue;
+          }
+          float d = distance(segs, vector, nb);
+          if (d < curDist) {
+            curDist = d;
+            cur = nb;
+            changed = true;
+          }
+        }
+      }
+    }
+    int ef = Math.max(config.efSearch, topK * 2);
+    List<Candidate> found = searchLayer(ns, segs, vector, cur, ef, 0, limit);
+    for (Candidate c : found) {
+      if (deleted.contains(c.node)) {
+        continue;
+      }
+      out.add(new SearchHit(ns.chunkIds[c.node], ns.paths[c.node], c.dist));
+      if (out.size() >= topK) {
+        break;
+      }
+    }
+    return out;
+  }
+
+  private void insert(ChunkVector v) throws IOException {
+    int node = count;
+    int level = (int) Math.floor(-Math.log(1.0 - random.nextDouble()) * levelMult);
+    ensureCapacity(node + 1);
+    writeVector(node, v.vector);
+
+    Nodes ns = nodes;
+    ns.levels[node] = level;
+    ns.chunkIds[node] = v.chunkId;
+    ns.fileIds[node] = v.fileId;
+    ns.paths[node] = v.path;
+    ns.links[node] = new int[level + 1][0];
+
+    log.writeByte('A');
+    log.writeInt(node);
+    log.writeInt(level);
+    log.writeUTF(v.chunkId);
+    log.writeUTF(v.fileId);
+    log.writeUTF(v.path);
+
+    boolean promote = link(node, level);
+    nodeByChunk.put(v.chunkId, node);
+    nodesByFile.computeIfAbsent(v.fileId, x -> ConcurrentHashMap.newKeySet()).add(node);
+    count = node + 1;
+    if (promote) {
+      entry = new Entry(node, level);
+    }
+  }
+
+  // Vectors go to disk before the log records naming them, so a replayed node never points at
+  // a vector that was lost.
+  private void flushWrites() throws IOException {
+    for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+      mapped[i].force();
+    }
+    dirty.clear();
+    log.flush();
+  }
+
+  private void maybeCompact() {
+    int n = count;
+    if (config.compactRatio <= 0 || n < COMPACT_MIN_NODES || deleted.size() <= n * config.compactRatio) {
+      return;
+    }
+    try {
+      compact();
+    } catch (IOException | RuntimeException e) {
+      System.err.println("HNSW compaction failed: " + e.getMessage());
+    }
+  }
+
+  // Re-inserts the live nodes into a fresh index under compact/, then moves its files over
+  // these and adopts its state. The DONE marker commits the rebuild: once it exists, a failed
+  // swap is finished by the next open.
+  private void compact() throws IOException {
+    Path tmp = dir.resolve("compact");
+    deleteFiles(tmp);
+    HnswVectorIndex fresh = new HnswVectorIndex(config, dim, tmp);
+    if (!fresh.ready) {
+      throw new IOException("cannot open " + tmp);
+    }
+    try {
+      Nodes ns = nodes;
+      FloatBuffer[] segs = segments;
+      int n = count;
+      for (int node = 0; node < n; node++) {
+        if (!deleted.contains(node)) {
+          fresh.insert(new ChunkVector(ns.chunkIds[node], ns.fileIds[node], ns.paths[node], vector(segs, node)));
+        }
+      }
+      fresh.flushWrites();
+      fresh.log.close();
+      fresh.writeGraph();
+    } catch (IOException | RuntimeException e) {
+      fresh.vectorChannel.close();
+      deleteFiles(tmp);
+      throw e;
+    }
+    Files.createFile(tmp.resolve("DONE"));
+    try {
+      log.close();
+      finishCompaction(dir);
+      log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dir.resolve("nodes.log"), StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    } catch (IOException | RuntimeException e) {
+      ready = false;
+      throw e;
+    }
+    FileChannel old = vectorChannel;
+    vectorChannel = fresh.vectorChannel;
+    mapped = fresh.mapped;
+    swaps++;
+    segments = fresh.segments;
+    nodes = fresh.nodes;
+    entry = fresh.entry;
+    count = fresh.count;
+    deleted.clear();
+    nodeByChunk.clear();
+    nodeByChunk.putAll(fresh.nodeByChunk);
+    nodesByFile.clear();
+    nodesByFile.putAll(fresh.nodesByFile);
+    swaps++;
+    try {
+      old.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  // Moves a committed rebuild's files into place; each move is skipped once done, so a crash
+  // part-way is finished by running this again. An uncommitted rebuild is discarded.
+  private static void finishCompaction(Path dir) throws IOException {
+    Path tmp = dir.resolve("compact");
+    if (!Files.exists(tmp.resolve("DONE"))) {
+      deleteFiles(tmp);
+      return;
+    }
+    if (Files.exists(tmp.resolve("nodes.log"))) {
+      // The old checkpoint must not outlive the old log, even when the rebuild wrote none.
+      Files.deleteIfExists(dir.resolve("graph.bin"));
+    }
+    for (String name : FILES) {
+      Path from = tmp.resolve(name);
+      if (Files.exists(from)) {
+        Files.move(from, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+    }
+    deleteFiles(tmp);
+  }
+
+  private static void deleteFiles(Path dir) throws IOException {
+    if (!Files.isDirectory(dir)) {
+      return;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      for (Path f : files) {
+        Files.delete(f);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  private void markDeleted(int node) throws IOException {
+    if (deleted.add(node)) {
+      Set<Integer> ids = nodesByFile.get(nodes.fileIds[node]);
+      if (ids != null) {
+        ids.remove(node);
+      }
+      log.writeByte('D');
+      log.writeInt(node);
+    }
+  }
+
+  // Standard HNSW insertion: greedy descent to the node's top level, then beam search and
+  // heuristic neighbour selection on each level down to 0, with back-links pruned to maxM.
+  // Returns true when the node should become the entry point; the caller publishes it only
+  // after the node count, so searches never start from an unpublished node.
+  private boolean link(int node, int level) {
+    Nodes ns = nodes;
+    FloatBuffer[] segs = segments;
+    float[] q = vector(segs, node);
+    Entry ep = entry;
+    if (ep == null) {
+      return true;
+    }
+    int cur = ep.node;
+    float curDist = distance(segs, q, cur);
+    for (int l = ep.level; l > level; l--) {
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (int nb : neighbours(ns, cur, l)) {
+          float d = distance(segs, q, nb);
+          if (d < curDist) {
+            curDist = d;
+            cur = nb;
+            changed = true;
+          }
+        }
+      }
+    }
+    for (int l = Math.min(level, ep.level); l >= 0; l--) {
+      List<Candidate> found = searchLayer(ns, segs, q, cur, config.efConstruction, l, node);
+      int maxM = l == 0 ? config.m * 2 : config.m;
+      int[] selected = selectNeighbours(segs, found, config.m);
+      ns.links[node][l] = selected;
+      for (int nb : selected) {
+        int[] existing = neighbours(ns, nb, l);
+        int[] grown = Arrays.copyOf(existing, existing.length + 1);
+        grown[existing.length] = node;
+        if (grown.length > maxM) {
+          float[] base = vector(segs, nb);
+          List<Candidate> cands = new ArrayList<>(grown.length);
+          for (int x : grown) {
+            cands.add(new Candidate(x, distance(segs, base, x)));
+          }
+          Collections.sort(cands, Candidate.BY_DIST);
+          grown = selectNeighbours(segs, cands, maxM);
+        }
+        ns.links[nb][l] = grown;
+      }
+      if (!found.isEmpty()) {
+        cur = found.get(0).node;
+      }
+    }
+    return level > ep.level;
+  }
+
+  // Keeps a candidate only if it is closer to the base than to every neighbour already kept,
+  // then tops up with the nearest skipped candidates. Input must be sorted by distance.
+  private int[] selectNeighbours(FloatBuffer[] segs, List<Candidate> sorted, int m) {
+    List<Candidate> kept = new ArrayList<>(m);
+    List<Candidate> skipped = new ArrayList<>();
+    for (Candidate c : sorted) {
+      if (kept.size() >= m) {
+        break;
+      }
+      float[] cv = vector(segs, c.node);
+      boolean good = true;
+      for (Candidate k : kept) {
+        if (distance(segs, cv, k.node) < c.dist) {
+          good = false;
+          break;
+        }
+      }
+      if (good) {
+        kept.add(c);
+      } else {
+        skipped.add(c);
+      }
+    }
+    for (int i = 0; i < skipped.size() && kept.size() < m; i++) {
+      kept.add(skipped.get(i));
+    }
+    int[] out = new int[kept.size()];
+    for (int i = 0; i < out.length; i++) {
+      out[i] = kept.get(i).node;
+    }
+    return out;
+  }
+
+  // Beam search on one level; returns up to ef nodes sorted by ascending distance.
+  // Neighbour ids at or above limit are not yet published and are skipped.
+  private List<Candidate> searchLayer(Nodes ns, FloatBuffer[] segs, float[] q, int ep, int ef, int level, int limit) {
+    BitSet visited = new BitSet(limit + 1);
+    PriorityQueue<Candidate> candidates = new PriorityQueue<>(Candidate.BY_DIST);
+    PriorityQueue<Candidate> results = new PriorityQueue<>(Candidate.BY_DIST.reversed());
+    Candidate start = new Candidate(ep, distance(segs, q, ep));
+    visited.set(ep);
+    candidates.add(start);
+    results.add(start);
+    while (!candidates.isEmpty()) {
+      Candidate c = candidates.poll();
+      if (c.dist > results.peek().dist && results.size() >= ef) {
+        break;
+      }
+      for (int nb : neighbours(ns, c.node, level)) {
+        if (nb >= limit || visited.get(nb)) {
+          continue;
+        }
+        visited.set(nb);
+        float d = distance(segs, q, nb);
+        if (results.size() < ef || d < results.peek().dist) {
+          Candidate n = new Candidate(nb, d);
+          candidates.add(n);
+          results.add(n);
+          if (results.size() > ef) {
+            results.poll();
+          }
+        }
+      }
+    }
+    List<Candidate> out = new ArrayList<>(results);
+    Collections.sort(out, Candidate.BY_DIST);
+    return out;
+  }
+
+  private static int[] neighbours(Nodes ns, int node, int level) {
+    int[][] byLevel = ns.links[node];
+    if (byLevel == null || level >= byLevel.length || byLevel[level] == null) {
+      return new int[0];
+    }
+    return byLevel[level];
+  }
+
+  private float distance(FloatBuffer[] segs, float[] q, int node) {
+    FloatBuffer seg = segs[node / perSegment];
+    int base = (node % perSegment) * dim;
+    float sum = 0f;
+    for (int i = 0; i < dim; i++) {
+      float d = q[i] - seg.get(base + i);
+      sum += d * d;
+    }
+    return sum;
+  }
+
+  private float[] vector(FloatBuffer[] segs, int node) {
+    FloatBuffer seg = segs[node / perSegment];
+    int base = (node % perSegment) * dim;
+    float[] out = new float[dim];
+    for (int i = 0; i < dim; i++) {
+      out[i] = seg.get(base + i);
+    }
+    return out;
+  }
+
+  private void writeVector(int node, float[] vec) {
+    dirty.set(node / perSegment);
+    FloatBuffer seg = segments[node / perSegment];
+    int base = (node % perSegment) * dim;
+    for (int i = 0; i < dim; i++) {
+      seg.put(base + i, i < vec.length ? vec[i] : 0f);
+    }
+  }
+
+  private void ensureCapacity(int n) throws IOException {
+    int needSegments = (n + perSegment - 1) / perSegment;
+    if (needSegments > segments.length) {
+      FloatBuffer[] grown = Arrays.copyOf(segments, needSegments);
+      MappedByteBuffer[] grownMapped = Arrays.copyOf(mapped, needSegments);
+      long segBytes = (long) perSegment * dim * 4L;
+      for (int i = segments.length; i < needSegments; i++) {
+        grownMapped[i] = vectorChannel.map(FileChannel.MapMode.READ_WRITE, i * segBytes, segBytes);
+        grown[i] = grownMapped[i].duplicate()
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .asFloatBuffer();
+      }
+      mapped = grownMapped;
+      segments = grown;
+    }
+    if (n > nodes.levels.length) {
+      nodes = nodes.grow(Math.max(n, nodes.levels.length * 2));
+    }
+  }
+
+  private void open() throws IOException {
+    Files.createDirectories(dir);
+    finishCompaction(dir);
+    vectorChannel = FileChannel.open(dir.resolve("vectors.f32"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    Path logFile = dir.resolve("nodes.log");
+    int loaded = 0;
+    if (Files.exists(logFile)) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile)))) {
+        while (true) {
+          int op;
+          try {
+            op = in.readByte();
+          } catch (EOFException e) {
+            break;
+          }
+          if (op == 'A') {
+            int node = in.readInt();
+            int level = in.readInt();
+            String chunkId = in.readUTF();
+            String fileId = in.readUTF();
+            String path = in.readUTF();
+            if (node != loaded) {
+              throw new IOException("nodes.log out of order at node " + node);
+            }
+            ensureCapacity(node + 1);
+            nodes.levels[node] = level;
+            nodes.chunkIds[node] = chunkId;
+            nodes.fileIds[node] = fileId;
+            nodes.paths[node] = path;
+            nodes.links[node] = new int[level + 1][0];
+            Integer old = nodeByChunk.put(chunkId, node);
+            if (old != null) {
+              deleted.add(old);
+            }
+            nodesByFile.computeIfAbsent(fileId, x -> ConcurrentHashMap.newKeySet()).add(node);
+            loaded++;
+          } else if (op == 'D') {
+            int node = in.readInt();
+            if (node < loaded && deleted.add(node)) {
+              nodeByChunk.remove(nodes.chunkIds[node], node);
+              Set<Integer> ids = nodesByFile.get(nodes.fileIds[node]);
+              if (ids != null) {
+                ids.remove(node);
+              }
+            }
+          } else if (op == 'P') {
+            int node = in.readInt();
+            String path = in.readUTF();
+            if (node < loaded) {
+              nodes.paths[node] = path;
+            }
+          } else {
+            break;
+          }
+        }
+      } catch (EOFException truncatedTail) {
+        // a partially written record at the end is dropped
+      }
+    }
+    int linked = readGraph(loaded);
+    for (int i = linked; i < loaded; i++) {
+      boolean promote = link(i, nodes.levels[i]);
+      count = i + 1;
+      if (promote) {
+        entry = new Entry(i, nodes.levels[i]);
+      }
+    }
+    count = loaded;
+    log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+  }
+
+  // Loads the checkpointed links for the first nodes; returns how many nodes it covered.
+  private int readGraph(int loaded) {
+    Path graphFile = dir.resolve("graph.bin");
+    if (!Files.exists(graphFile)) {
+      return 0;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(graphFile)))) {
+      if (in.readInt() != GRAPH_MAGIC) {
+        return 0;
+      }
+      int n = in.readInt();
+      int entryNode = in.readInt();
+      int entryLevel = in.readInt();
+      if (n > loaded || n == 0) {
+        return 0;
+      }
+      for (int node = 0; node < n; node++) {
+        int levels = in.readInt();
+        int[][] byLevel = new int[levels][];
+        for (int l = 0; l < levels; l++) {
+          int len = in.readInt();
+          int[] nbs = new int[len];
+          for (int i = 0; i < len; i++) {
+            nbs[i] = in.readInt();
+          }
+          byLevel[l] = nbs;
+        }
+        nodes.links[node] = byLevel;
+      }
+      entry = new Entry(entryNode, entryLevel);
+      count = n;
+      return n;
+    } catch (Exception e) {
+      System.err.println("HNSW graph checkpoint unreadable, relinking: " + e.getMessage());
+      for (int node = 0; node < loaded; node++) {
+        nodes.links[node] = new int[nodes.levels[node] + 1][0];
+      }
+      entry = null;
+      count = 0;
+      return 0;
+    }
+  }
+
+  private void writeGraph() throws IOException {
+    Entry ep = entry;
+    if (ep == null) {
+      return;
+    }
+    Path tmp = dir.resolve("graph.bin.tmp");
+    Nodes ns = nodes;
+    int n = count;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(GRAPH_MAGIC);
+      out.writeInt(n);
+      out.writeInt(ep.node);
+      out.writeInt(ep.level);
+      for (int node = 0; node < n; node++) {
+        int[][] byLevel = ns.links[node];
+        out.writeInt(byLevel.length);
+        for (int[] nbs : byLevel) {
+          out.writeInt(nbs.length);
+          for (int x : nbs) {
+            out.writeInt(x);
+          }
+        }
+      }
+    }
+    Files.move(tmp, dir.resolve("graph.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public synchronized void close() {
+    if (!ready) {
+      return;
+    }
+    ready = false;
+    try {
+      flushWrites();
+    } catch (Exception e) {
+      System.err.println("HNSW flush on close failed: " + e.getMessage());
+    }
+    try {
+      log.close();
+    } catch (Exception ignored) {
+    }
+    try {
+      writeGraph();
+    } catch (Exception e) {
+      System.err.println("HNSW graph checkpoint failed: " + e.getMessage());
+    }
+    try {
+      vectorChannel.close();
+    } catch (Exception ignored) {
+    }
+  }
+
+  private static final class Nodes {
+    final int[] levels;
+    final String[] chunkIds;
+    final String[] fileIds;
+    final String[] paths;
+    final int[][][] links;
+
+    Nodes(int capacity) {
+      this.levels = new int[capacity];
+      this.chunkIds = new String[capacity];
+      this.fileIds = new String[capacity];
+      this.paths = new String[capacity];
+      this.links = new int[capacity][][];
+    }
+
+    Nodes grow(int capacity) {
+      Nodes n = new Nodes(capacity);
+      System.arraycopy(levels, 0, n.levels, 0, levels.length);
+      System.arraycopy(chunkIds, 0, n.chunkIds, 0, chunkIds.length);
+      System.arraycopy(fileIds, 0, n.fileIds, 0, fileIds.length);
+      System.arraycopy(paths, 0, n.paths, 0, paths.length);
+      System.arraycopy(links, 0, n.links, 0, links.length);
+      return n;
+    }
+  }
+
+  private static final class Entry {
+    final int node;
+    final int level;
+
+    Entry(int node, int level) {
+      this.node = node;
+      this.level = level;
+    }
+  }
+
+  private static final class Candidate {
+    static final Comparator<Candidate> BY_DIST = (a, b) -> Float.compare(a.dist, b.dist);
+
+    final int node;
+    final float dist;
+
+    Candidate(int node, float dist) {
+      this.node = node;
+      this.dist = dist;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package local.ai.server.index;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Backend that stores chunk text for keyword (BM25-style) recall. Implementations are
+ * registered by name in {@link SinkRegistry} and selected through {@code index.keywordSinks}.
+ */
+public interface KeywordSink extends AutoCloseable {
+  String name();
+
+  /** False while the backend is disabled or unreachable; recall skips it. */
+  boolean isReady();
+
+  void upsertChunks(String fileId, String path, List<String> chunkIds, List<String> chunks, List<String> removedChunkIds);
+
+  void deleteByFileId(String fileId);
+
+  /**
+   * Best matches first. Throws when the backend fails, is unreachable or exceeds
+   * {@code timeoutMs}, so a caller can tell an outage from an empty answer; a disabled sink
+   * just returns nothing.
+   */
+  List<SearchHit> search(String query, int topK, long timeoutMs);
+
+  /**
+   * Rewrites the stored path of a file's chunks after a rename or move; ids and vectors are
+   * unchanged. Backends that do not keep the path can ignore it.
+   */
+  default void updatePath(String fileId, String path) {
+  }
+
+  /**
+   * Names of the backends that must acknowledge every write, reachable or not; a file counts as
+   * synced only once all of them have its chunks. Disabled backends are left out.
+   */
+  default List<String> backends() {
+    return Collections.singletonList(name());
+  }
+
+  /**
+   * Tries to reconnect a backend that is enabled but unreachable. Returns true when it has just
+   * become ready, so the caller can resend the files it missed.
+   */
+  default boolean reconnect() {
+    return false;
+  }
+
+  /**
+   * Registers a callback run after each write reaches the backend, e.g. to invalidate cached
+   * results. Sinks without a write queue of their own ignore it.
+   */
+  default void addWriteListener(Runnable listener) {
+  }
+
+  default Map<String, Object> stats() {
+    return Collections.emptyMap();
+  }
+
+  @Override
+  void close();
+}
@@ -1,7 +1,6 @@
 package local.ai.server.index;
 
 import io.milvus.client.MilvusServiceClient;
-import io.milvus.grpc.MutationResult;
 import io.milvus.grpc.DataType;
 import io.milvus.param.ConnectParam;
 import io.milvus.param.R;
@@ -13,18 +12,27 @@ import io.milvus.param.collection.LoadCollectionParam;
 import io.milvus.param.collection.ReleaseCollectionParam;
 import io.milvus.param.dml.DeleteParam;
 import io.milvus.param.dml.InsertParam;
+import io.milvus.param.dml.QueryParam;
 import io.milvus.param.dml.SearchParam;
+import io.milvus.param.dml.UpsertParam;
 import io.milvus.param.index.CreateIndexParam;
 import io.milvus.param.IndexType;
+import io.milvus.grpc.QueryResults;
 import io.milvus.grpc.SearchResults;
+import io.milvus.response.QueryResultsWrapper;
 import io.milvus.response.SearchResultsWrapper;
 import io.milvus.param.MetricType;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import local.ai.server.config.MilvusConfig;
 
-public final class MilvusVectorSink implements AutoCloseable {
+public final class MilvusVectorSink implements VectorSink {
+  // Milvus rejects a query whose offset + limit exceeds this window.
+  private static final long QUERY_WINDOW = 16384;
+  private static final long QUERY_PAGE = 1000;
+
   private final MilvusConfig config;
   private volatile MilvusServiceClient client;
   private volatile boolean ready;
@@ -32,79 +40,175 @@ public final class MilvusVectorSink implements AutoCloseable {
   public MilvusVectorSink(MilvusConfig config) {
     this.config = config;
     if (config.enabled) {
-      try {
-        this.client = new MilvusServiceClient(ConnectParam.newBuilder().withHost(config.host).withPort(config.port).build());
-        ensureCollection();
-        this.ready = true;
-      } catch (Exception e) {
-        this.ready = false;
-      }
+      connect();
     }
   }
 
-  public void upsertFile(String fileId, List<ChunkVector> vectors) {
-    if (!config.enabled || !ready || vectors.isEmpty()) {
+  private boolean connect() {
+    try {
+      close();
+      this.client = new MilvusServiceClient(ConnectParam.newBuilder().withHost(config.host).withPort(config.port).build());
+      ensureCollection();
+      this.ready = true;
+    } catch (Exception e) {
+      this.ready = false;
+    }
+    return ready;
+  }
+
+  @Override
+  public String name() {
+    return "milvus";
+  }
+
+  @Override
+  public boolean isReady() {
+    return config.enabled && ready;
+  }
+
+  @Override
+  public List<String> backends() {
+    return config.enabled ? Collections.singletonList(name()) : Collections.emptyList();
+  }
+
+  @Override
+  public boolean reconnect() {
+    return config.enabled && !ready && connect();
+  }
+
+  @Override
+  public void upsertChunks(String fileId, List<ChunkVector> added, List<String> removedChunkIds) {
+    if (!config.enabled) {
       return;
     }
-    deleteByFileId(fileId);
-    insert(vectors);
+    requireReady();
+    deleteByChunkIds(removedChunkIds);
+    if (!added.isEmpty()) {
+      upsert(added);
+    }
   }
 
+  private void deleteByChunkIds(List<String> chunkIds) {
+    for (int from = 0; from < chunkIds.size(); from += 500) {
+      List<String> part = chunkIds.subList(from, Math.min(chunkIds.size(), from + 500));
+      StringBuilder expr = new StringBuilder("chunk_id in [");
+      for (int i = 0; i < part.size(); i++) {
+        if (i > 0) expr.append(",");
+        expr.append("\"").append(escape(part.get(i))).append("\"");
+      }
+      expr.append("]");
+      check(client.delete(DeleteParam.newBuilder().withCollectionName(config.collection).withExpr(expr.toString()).build()), "delete");
+    }
+  }
+
+  @Override
   public void deleteByFileId(String fileId) {
-    if (!config.enabled || !ready) {
+    if (!config.enabled) {
       return;
     }
+    requireReady();
     String expr = "file_id == \"" + escape(fileId) + "\"";
-    client.delete(DeleteParam.newBuilder().withCollectionName(config.collection).withExpr(expr).build());
+    check(client.delete(DeleteParam.newBuilder().withCollectionName(config.collection).withExpr(expr).build()), "delete");
   }
 
-  public List<SearchHit> search(float[] vector, int topK) {
-    if (!config.enabled || !ready || vector == null || vector.length == 0) {
-      return new ArrayList<>();
+  // Milvus cannot update a scalar field in place, so the file's rows are read back with their
+  // vectors and upserted under the new path; nothing is re-embedded. Every page is read before
+  // anything is upserted, so the rewrite cannot shift rows between pages.
+  @Override
+  public void updatePath(String fileId, String path) {
+    if (!config.enabled) {
+      return;
     }
-    try {
-      List<List<Float>> targets = new ArrayList<>();
-      List<Float> row = new ArrayList<>(vector.length);
-      for (float x : vector) {
-        row.add(x);
+    requireReady();
+    String expr = "file_id == \"" + escape(fileId) + "\"";
+    List<List<?>> idPages = new ArrayList<>();
+    List<List<?>> vecPages = new ArrayList<>();
+    for (long offset = 0; ; offset += QUERY_PAGE) {
+      if (offset + QUERY_PAGE > QUERY_WINDOW) {
+        throw new RuntimeException("Milvus path update failed: " + fileId + " has more than " + offset + " rows");
       }
-      targets.add(row);
-
-      SearchParam param = SearchParam.newBuilder()
+      R<QueryResults> resp = client.query(QueryParam.newBuilder()
           .withCollectionName(config.collection)
-          .withMetricType(MetricType.L2)
-          .withTopK(Math.max(1, topK))
-          .withVectors(targets)
-          .withVectorFieldName("embedding")
-          .withOutFields(Arrays.asList("path"))
-          .withParams("{\"nprobe\":10}")
-          .build();
-
-      R<SearchResults> resp = client.search(param);
-      if (resp.getStatus() != R.Status.Success.getCode()) {
-        return new ArrayList<>();
+          .withExpr(expr)
+          .withOutFields(Arrays.asList("chunk_id", "embedding"))
+          .withOffset(offset)
+          .withLimit(QUERY_PAGE)
+          .build());
+      check(resp, "query");
+      QueryResultsWrapper wrapper = new QueryResultsWrapper(resp.getData());
+      List<?> ids = wrapper.getFieldWrapper("chunk_id").getFieldData();
+      if (ids.isEmpty()) {
+        break;
       }
-      SearchResultsWrapper wrapper = new SearchResultsWrapper(resp.getData().getResults());
-      List<SearchResultsWrapper.IDScore> scores = wrapper.getIDScore(0);
-      List<?> paths = (List<?>) wrapper.getFieldData("path", 0);
-
-      List<SearchHit> out = new ArrayList<>();
-      for (int i = 0; i < scores.size(); i++) {
-        SearchResultsWrapper.IDScore s = scores.get(i);
-        String id = s.getStrID();
-        if (id == null || id.isEmpty()) {
-          id = String.valueOf(s.getLongID());
-        }
-        String path = i < paths.size() ? String.valueOf(paths.get(i)) : "";
-        out.add(new SearchHit(id, path, s.getScore()));
+      idPages.add(ids);
+      vecPages.add(wrapper.getFieldWrapper("embedding").getFieldData());
+      if (ids.size() < QUERY_PAGE) {
+        break;
       }
-      return out;
-    } catch (Exception e) {
+    }
+    for (int p = 0; p < idPages.size(); p++) {
+      List<?> ids = idPages.get(p);
+      List<String> fileIds = new ArrayList<>();
+      List<String> paths = new ArrayList<>();
+      for (int i = 0; i < ids.size(); i++) {
+        fileIds.add(fileId);
+        paths.add(path);
+      }
+      List<InsertParam.Field> fields = new ArrayList<>();
+      fields.add(new InsertParam.Field("chunk_id", ids));
+      fields.add(new InsertParam.Field("file_id", fileIds));
+      fields.add(new InsertParam.Field("path", paths));
+      fields.add(new InsertParam.Field("embedding", vecPages.get(p)));
+      check(client.upsert(UpsertParam.newBuilder().withCollectionName(config.collection).withFields(fields).build()), "path update");
+    }
+  }
+
+  @Override
+  public List<SearchHit> search(float[] vector, int topK) {
+    if (!config.enabled || vector == null || vector.length == 0) {
       return new ArrayList<>();
     }
+    requireReady();
+    List<List<Float>> targets = new ArrayList<>();
+    List<Float> row = new ArrayList<>(vector.length);
+    for (float x : vector) {
+      row.add(x);
+    }
+    targets.add(row);
+
+    SearchParam param = SearchParam.newBuilder()
+        .withCollectionName(config.collection)
+        .withMetricType(MetricType.L2)
+        .withTopK(Math.max(1, topK))
+        .withVectors(targets)
+        .withVectorFieldName("embedding")
+        .withOutFields(Arrays.asList("path"))
+        .withParams("{\"nprobe\":10}")
+        .build();
+
+    // A failed search throws rather than answering empty, so recall can tell an outage from no matches.
+    R<SearchResults> resp = client.search(param);
+    check(resp, "search");
+    SearchResultsWrapper wrapper = new SearchResultsWrapper(resp.getData().getResults());
+    List<SearchResultsWrapper.IDScore> scores = wrapper.getIDScore(0);
+    List<?> paths = (List<?>) wrapper.getFieldData("path", 0);
+
+    List<SearchHit> out = new ArrayList<>();
+    for (int i = 0; i < scores.size(); i++) {
+      SearchResultsWrapper.IDScore s = scores.get(i);
+      String id = s.getStrID();
+      if (id == null || id.isEmpty()) {
+        id = String.valueOf(s.getLongID());
+      }
+      String path = i < paths.size() ? String.valueOf(paths.get(i)) : "";
+      out.add(new SearchHit(id, path, s.getScore()));
+    }
+    return out;
   }
 
-  private void insert(List<ChunkVector> vectors) {
+  // Upsert rather than insert: a job retried after a partial failure resends chunks the
+  // collection may already hold.
+  private void upsert(List<ChunkVector> vectors) {
     List<String> chunkIds = new ArrayList<>();
     List<String> fileIds = new ArrayList<>();
     List<String> paths = new ArrayList<>();
@@ -126,10 +230,26 @@ public final class MilvusVectorSink implements AutoCloseable {
     fields.add(new InsertParam.Field("path", paths));
     fields.add(new InsertParam.Field("embedding", embed));
 
-    R<MutationResult> res = client.insert(InsertParam.newBuilder().withCollectionName(config.collection).withFields(fields).build());
-    if (res.getStatus() != R.Status.Success.getCode()) {
+    check(client.upsert(UpsertParam.newBuilder().withCollectionName(config.collection).withFields(fields).build()), "upsert");
+  }
+
+  private void requireReady() {
+    if (!ready) {
+      throw new IllegalStateException("Milvus is not connected");
+    }
+  }
+
+  // Throws so the ETL job fails and is retried. A transport failure also marks the sink
+  // unready, so the next probe reconnects it and the files it missed are resent.
+  private void check(R<?> res, String what) {
+    int status = res.getStatus();
+    if (status == R.Status.Success.getCode()) {
+      return;
+    }
+    if (status == R.Status.RpcError.getCode() || status == R.Status.ConnectFailed.getCode()) {
       ready = false;
     }
+    throw new RuntimeException("Milvus " + what + " failed: " + res.getMessage());
   }
 
   private void ensureCollection() {
@@ -189,34 +309,9 @@ public final class MilvusVectorSink implements AutoCloseable {
     try {
       if (client != null) {
         client.close();
+        client = null;
       }
     } catch (Exception ignored) {
     }
   }
-
-  public static final class ChunkVector {
-    public final String chunkId;
-    public final String fileId;
-    public final String path;
-    public final float[] vector;
-
-    public ChunkVector(String chunkId, String fileId, String path, float[] vector) {
-      this.chunkId = chunkId;
-      this.fileId = fileId;
-      this.path = path;
-      this.vector = vector;
-    }
-  }
-
-  public static final class SearchHit {
-    public final String chunkId;
-    public final String path;
-    public final float score;
-
-    public SearchHit(String chunkId, String path, float score) {
-      this.chunkId = chunkId;
-      this.path = path;
-      this.score = score;
-    }
-  }
 }
@@ -0,0 +1,68 @@
+package local.ai.server.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/** Accepts and discards every write; used when no backend is configured. */
+public final class NoopSink implements VectorSink, KeywordSink {
+  @Override
+  public String name() {
+    return "none";
+  }
+
+  @Override
+  public boolean isReady() {
+    return false;
+  }
+
+  @Override
+  public void upsertChunks(String fileId, List<ChunkVector> added, List<String> removedChunkIds) {
+  }
+
+  @Override
+  public void upsertChunks(String fileId, String path, List<String> chunkIds, List<String> chunks, List<String> removedChunkIds) {
+  }
+
+  @Override
+  public void deleteByFileId(String fileId) {
+  }
+
+  @Override
+  public void updatePath(String fileId, String path) {
+  }
+
+  @Override
+  public List<String> backends() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public void addWriteListener(Runnable listener) {
+  }
+
+  @Override
+  public boolean reconnect() {
+    return false;
+  }
+
+  @Override
+  public List<SearchHit> search(float[] vector, int topK) {
+    return new ArrayList<>();
+  }
+
+  @Override
+  public List<SearchHit> search(String query, int topK, long timeoutMs) {
+    return new ArrayList<>();
+  }
+
+  @Override
+  public Map<String, Object> stats() {
+    return Collections.emptyMap();
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,13 @@
+package local.ai.server.index;
+
+public final class SearchHit {
+  public final String chunkId;
+  public final String path;
+  public final float score;
+
+  public SearchHit(String chunkId, String path, float score) {
+    this.chunkId = chunkId;
+    this.path = path;
+    this.score = score;
+  }
+}
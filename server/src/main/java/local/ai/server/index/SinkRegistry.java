@@ -0,0 +1,85 @@
+package local.ai.server.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import local.ai.server.config.AppConfig;
+import local.ai.server.db.SqliteStore;
+
+/**
+ * Name-to-factory registry for index backends. {@code index.vectorSinks} and
+ * {@code index.keywordSinks} in app.yml pick backends by name; all of them receive every write
+ * through {@link FanOutVectorSink}/{@link FanOutKeywordSink}. Without an explicit list the
+ * backends whose own section is enabled are used, as before.
+ */
+public final class SinkRegistry {
+  public interface VectorFactory {
+    VectorSink create(AppConfig config, SqliteStore store);
+  }
+
+  public interface KeywordFactory {
+    KeywordSink create(AppConfig config, SqliteStore store);
+  }
+
+  private static final Map<String, VectorFactory> VECTOR = new ConcurrentHashMap<>();
+  private static final Map<String, KeywordFactory> KEYWORD = new ConcurrentHashMap<>();
+
+  static {
+    registerVector("milvus", (config, store) -> new MilvusVectorSink(config.milvus));
+    registerVector("hnsw", (config, store) -> new HnswVectorIndex(config.hnsw, config.milvus.dim, config.dataDir.resolve("hnsw")));
+    registerVector("memory", (config, store) -> new BruteForceVectorSink());
+    registerVector("none", (config, store) -> new NoopSink());
+    registerKeyword("es", (config, store) -> new ElasticsearchSink(config.es));
+    registerKeyword("fts", (config, store) -> new SqliteKeywordSink(store));
+    registerKeyword("none", (config, store) -> new NoopSink());
+  }
+
+  private SinkRegistry() {
+  }
+
+  public static void registerVector(String name, VectorFactory factory) {
+    VECTOR.put(name.toLowerCase(), factory);
+  }
+
+  public static void registerKeyword(String name, KeywordFactory factory) {
+    KEYWORD.put(name.toLowerCase(), factory);
+  }
+
+  public static VectorSink vectorSink(AppConfig config, SqliteStore store) {
+    List<String> names = config.index.vectorSinks;
+    if (names.isEmpty()) {
+      names = new ArrayList<>();
+      if (config.milvus.enabled) names.add("milvus");
+      if (config.hnsw.enabled) names.add("hnsw");
+    }
+    List<VectorSink> sinks = new ArrayList<>();
+    for (String name : names) {
+      VectorFactory f = VECTOR.get(name);
+      if (f == null) {
+        System.err.println("Unknown vector sink: " + name + " (known: " + VECTOR.keySet() + ")");
+        continue;
+      }
+      sinks.add(f.create(config, store));
+    }
+    return new FanOutVectorSink(sinks, config.index.writeQueueCapacity);
+  }
+
+  public static KeywordSink keywordSink(AppConfig config, SqliteStore store) {
+    List<String> names = config.index.keywordSinks;
+    if (names.isEmpty()) {
+      names = new ArrayList<>();
+      names.add(config.es.enabled ? "es" : "fts");
+    }
+    List<KeywordSink> sinks = new ArrayList<>();
+    for (String name : names) {
+      KeywordFactory f = KEYWORD.get(name);
+      if (f == null) {
+        System.err.println("Unknown keyword sink: " + name + " (known: " + KEYWORD.keySet() + ")");
+        continue;
+      }
+      sinks.add(f.create(config, store));
+    }
+    return new FanOutKeywordSink(sinks, config.index.writeQueueCapacity);
+  }
+}
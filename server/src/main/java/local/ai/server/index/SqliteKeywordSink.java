@@ -0,0 +1,50 @@
+package local.ai.server.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import local.ai.server.db.SqliteStore;
+
+/**
+ * Keyword recall over the SQLite FTS5 index. The chunks table is the source of truth and its
+ * triggers keep {@code chunks_fts} in sync, so writes here are no-ops.
+ */
+public final class SqliteKeywordSink implements KeywordSink {
+  private final SqliteStore store;
+
+  public SqliteKeywordSink(SqliteStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public String name() {
+    return "fts";
+  }
+
+  @Override
+  public boolean isReady() {
+    return true;
+  }
+
+  @Override
+  public void upsertChunks(String fileId, String path, List<String> chunkIds, List<String> chunks, List<String> removedChunkIds) {
+  }
+
+  @Override
+  public void deleteByFileId(String fileId) {
+  }
+
+  @Override
+  public List<SearchHit> search(String query, int topK, long timeoutMs) {
+    List<SearchHit> out = new ArrayList<>();
+    List<SqliteStore.ChunkRow> rows = store.searchChunks(query, topK);
+    for (int i = 0; i < rows.size(); i++) {
+      SqliteStore.ChunkRow row = rows.get(i);
+      out.add(new SearchHit(row.chunkId, row.path, (float) (rows.size() - i)));
+    }
+    return out;
+  }
+
+  @Override
+  public void close() {
+  }
+}
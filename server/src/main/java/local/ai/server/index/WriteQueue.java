@@ -0,0 +1,170 @@
+package local.ai.server.index;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-threaded, bounded write queue in front of one sink. Writes run in submission order;
+ * when the queue is full the submitter blocks until there is room, so a slow backend applies
+ * backpressure to ETL instead of growing memory without bound. Every write is acknowledged
+ * through the future {@link #submit} returns, so the caller learns whether it was applied.
+ */
+final class WriteQueue {
+  private final String name;
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+  WriteQueue(String name, int capacity) {
+    this.name = name;
+    this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(Math.max(1, capacity)), r -> {
+      Thread t = new Thread(r, "sink-" + name);
+      t.setDaemon(true);
+      return t;
+    }, (r, ex) -> {
+      if (ex.isShutdown()) {
+        throw new RejectedExecutionException("Sink " + name + " is shut down");
+      }
+      try {
+        ex.getQueue().put(r);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("Interrupted waiting for sink " + name);
+      }
+      // A shutdown that raced with the put would strand the write in a dead queue.
+      if (ex.isShutdown() && ex.getQueue().remove(r)) {
+        throw new RejectedExecutionException("Sink " + name + " is shut down");
+      }
+    });
+  }
+
+  /**
+   * Queues {@code write}. The returned future completes once the write has run, or
+   * exceptionally if it threw, was rejected or was dropped on shutdown.
+   */
+  CompletableFuture<Void> submit(Runnable write) {
+    Write w = new Write(write);
+    try {
+      executor.execute(w);
+    } catch (RejectedExecutionException e) {
+      failed.incrementAndGet();
+      w.done.completeExceptionally(e);
+    }
+    return w.done;
+  }
+
+  /**
+   * Runs {@code listener} on the queue thread after every write, applied or failed, before its
+   * future completes; a failed write may have been partly applied.
+   */
+  void addListener(Runnable listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Waits for every write in {@code acks} and throws if any of them failed, naming each failed
+   * sink, so the job that issued them fails and is retried.
+   */
+  static void awaitAll(List<CompletableFuture<Void>> acks) {
+    List<String> errors = new ArrayList<>();
+    boolean interrupted = false;
+    for (CompletableFuture<Void> ack : acks) {
+      while (true) {
+        try {
+          ack.get();
+          break;
+        } catch (InterruptedException e) {
+          // Writes are already queued; stop waiting only after they resolve.
+          interrupted = true;
+        } catch (ExecutionException e) {
+          errors.add(String.valueOf(e.getCause().getMessage()));
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (!errors.isEmpty()) {
+      throw new RuntimeException(String.join("; ", errors));
+    }
+  }
+
+  /** Stops accepting writes and waits for queued ones to drain; the rest fail their futures. */
+  void drain(long timeoutMs) {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+        dropPending();
+      }
+    } catch (InterruptedException e) {
+      dropPending();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void dropPending() {
+    List<Runnable> pending = executor.shutdownNow();
+    if (!pending.isEmpty()) {
+      System.err.println("Sink " + name + " dropped " + pending.size() + " pending writes on shutdown");
+    }
+    for (Runnable r : pending) {
+      failed.incrementAndGet();
+      ((Write) r).done.completeExceptionally(new IllegalStateException("Sink " + name + " write dropped on shutdown"));
+    }
+  }
+
+  Map<String, Object> stats() {
+    Map<String, Object> out = new LinkedHashMap<>();
+    out.put("pending", executor.getQueue().size());
+    out.put("completed", completed.get());
+    out.put("failed", failed.get());
+    return out;
+  }
+
+  private final class Write implements Runnable {
+    final Runnable write;
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    Write(Runnable write) {
+      this.write = write;
+    }
+
+    @Override
+    public void run() {
+      try {
+        write.run();
+        completed.incrementAndGet();
+        notifyListeners();
+        done.complete(null);
+      } catch (Throwable e) {
+        // Errors too: a future that never completes would hang the job waiting on it.
+        failed.incrementAndGet();
+        System.err.println("Sink " + name + " write failed: " + e.getMessage());
+        notifyListeners();
+        done.completeExceptionally(new RuntimeException("Sink " + name + " write failed: " + e.getMessage(), e));
+      }
+    }
+
+    private void notifyListeners() {
+      for (Runnable l : listeners) {
+        try {
+          l.run();
+        } catch (RuntimeException e) {
+          System.err.println("Sink " + name + " write listener failed: " + e.getMessage());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package local.ai.server.util;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Guesses the encoding of a text file from its first few KB: a BOM wins; otherwise the sample is
+ * checked as UTF-16 (by where the zero bytes fall), then as UTF-8, then as GB18030 (a superset of
+ * GBK and GB2312). When neither multi-byte check passes cleanly, the one with fewer invalid
+ * sequences is chosen.
+ */
+public final class CharsetSniffer {
+  public static final int SAMPLE_BYTES = 16 * 1024;
+  public static final Charset GB18030 = Charset.forName("GB18030");
+
+  private CharsetSniffer() {}
+
+  public static final class Result {
+    public final Charset charset;
+    public final int bomLength;
+
+    Result(Charset charset, int bomLength) {
+      this.charset = charset;
+      this.bomLength = bomLength;
+    }
+
+    /** True when ASCII bytes (whitespace in particular) always mean the ASCII character. */
+    public boolean asciiCompatible() {
+      return !charset.name().startsWith("UTF-16");
+    }
+  }
+
+  public static Result sniff(byte[] b, int len) {
+    if (len >= 3 && (b[0] & 0xff) == 0xEF && (b[1] & 0xff) == 0xBB && (b[2] & 0xff) == 0xBF) {
+      return new Result(StandardCharsets.UTF_8, 3);
+    }
+    if (len >= 2 && (b[0] & 0xff) == 0xFF && (b[1] & 0xff) == 0xFE) {
+      return new Result(StandardCharsets.UTF_16LE, 2);
+    }
+    if (len >= 2 && (b[0] & 0xff) == 0xFE && (b[1] & 0xff) == 0xFF) {
+      return new Result(StandardCharsets.UTF_16BE, 2);
+    }
+
+    int evenZeros = 0;
+    int oddZeros = 0;
+    for (int i = 0; i < len; i++) {
+      if (b[i] == 0) {
+        if ((i & 1) == 0) evenZeros++; else oddZeros++;
+      }
+    }
+    int pairs = len / 2;
+    // ASCII in UTF-16 puts its zero byte on one side; CJK like U+4E00 occasionally on the other.
+    if (pairs > 0 && oddZeros > pairs / 10 && evenZeros * 10 < oddZeros) {
+      return new Result(StandardCharsets.UTF_16LE, 0);
+    }
+    if (pairs > 0 && evenZeros > pairs / 10 && oddZeros * 10 < evenZeros) {
+      return new Result(StandardCharsets.UTF_16BE, 0);
+    }
+
+    int utf8Invalid = invalidUtf8(b, len);
+    if (utf8Invalid == 0) {
+      return new Result(StandardCharsets.UTF_8, 0);
+    }
+    int gbInvalid = invalidGb18030(b, len);
+    return new Result(gbInvalid < utf8Invalid ? GB18030 : StandardCharsets.UTF_8, 0);
+  }
+
+  /**
+   * True when more than half of the non-whitespace characters are U+FFFD, i.e. the text was
+   * decoded with the wrong charset or is binary.
+   */
+  public static boolean isMostlyReplacement(CharSequence text) {
+    int replaced = 0;
+    int visible = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c <= ' ') {
+        continue;
+      }
+      visible++;
+      if (c == '\uFFFD') {
+        replaced++;
+      }
+    }
+    return visible > 0 && replaced * 2 > visible;
+  }
+
+  // A sequence cut off by the end of the sample is not counted as invalid.
+  private static int invalidUtf8(byte[] b, int len) {
+    int invalid = 0;
+    int i = 0;
+    while (i < len) {
+      int c = b[i] & 0xff;
+      int n;
+      if (c < 0x80) {
+        i++;
+        continue;
+      } else if (c >= 0xC2 && c <= 0xDF) {
+        n = 1;
+      } else if (c >= 0xE0 && c <= 0xEF) {
+        n = 2;
+      } else if (c >= 0xF0 && c <= 0xF4) {
+        n = 3;
+      } else {
+        invalid++;
+        i++;
+        continue;
+      }
+      int j = 1;
+      while (j <= n && i + j < len && (b[i + j] & 0xC0) == 0x80) {
+        j++;
+      }
+      if (j <= n && i + j < len) {
+        invalid++;
+      }
+      i += j;
+    }
+    return invalid;
+  }
+
+  private static int invalidGb18030(byte[] b, int len) {
+    int invalid = 0;
+    int i = 0;
+    while (i < len) {
+      int c = b[i] & 0xff;
+      if (c < 0x80) {
+        i++;
+        continue;
+      }
+      if (c == 0x80 || c == 0xFF) {
+        invalid++;
+        i++;
+        continue;
+      }
+      if (i + 1 >= len) {
+        break;
+      }
+      int c2 = b[i + 1] & 0xff;
+      if (c2 >= 0x40 && c2 <= 0xFE && c2 != 0x7F) {
+        i += 2;
+      } else if (c2 >= 0x30 && c2 <= 0x39) {
+        if (i + 3 >= len) {
+          break;
+        }
+        int c3 = b[i + 2] & 0xff;
+        int c4 = b[i + 3] & 0xff;
+        if (c3 >= 0x81 && c3 <= 0xFE && c4 >= 0x30 && c4 <= 0x39) {
+          i += 4;
+        } else {
+          invalid++;
+          i++;
+        }
+      } else {
+        invalid++;
+        i++;
+      }
+    }
+    return invalid;
+  }
+}
@@ -0,0 +1,35 @@
+package local.ai.server.util;
+
+/**
+ * A chunking strategy fed incrementally: text arrives through {@link #accept} in pieces of any
+ * size and chunks are handed to the strategy's consumer as soon as they are complete.
+ * Implementations keep only a bounded amount of text buffered.
+ */
+public interface Chunker {
+  /** Feeds the next piece of text. The sequence is only valid for the duration of the call. */
+  void accept(CharSequence text);
+
+  /** Ends the current paragraph, as if a blank line followed. */
+  void breakParagraph();
+
+  /**
+   * Adds one complete paragraph, already trimmed and free of paragraph breaks, for callers that
+   * find paragraph boundaries themselves.
+   */
+  default void paragraph(CharSequence text) {
+    breakParagraph();
+    accept(text);
+    breakParagraph();
+  }
+
+  /**
+   * True when the chunker depends on every character of the input (line structure, offsets), so
+   * readers must feed it through {@link #accept} rather than the {@link #paragraph} shortcut.
+   */
+  default boolean needsExactText() {
+    return false;
+  }
+
+  /** Emits whatever is still buffered. */
+  void finish();
+}
@@ -0,0 +1,211 @@
+package local.ai.server.util;
+
+import java.util.function.Consumer;
+
+/**
+ * Splits source code at top-level declarations. Nesting depth is tracked per line, from braces and
+ * brackets ({@link Style#BRACES}: Java, JS/TS, JSON, CSS...) or from indentation
+ * ({@link Style#INDENT}: Python, YAML). A new chunk starts at a depth-0 declaration that opens a
+ * block, or follows one, once the current chunk holds at least a quarter of {@code maxChars};
+ * one-liners such as imports and small declarations are packed together. A chunk that would
+ * outgrow {@code maxChars} is cut at the last depth-0 declaration, else at the last depth-1 one
+ * (class members, object keys), else at a line end. Comments and annotations right above a
+ * declaration stay with it. Each chunk carries the signature line of its enclosing top-level
+ * declaration as its heading.
+ *
+ * <p>Depth tracking is lexical and approximate: strings and comments are skipped within a line,
+ * block comments across lines, but multi-line string literals are not understood.
+ */
+public final class CodeChunker extends LineChunker {
+  public enum Style { BRACES, INDENT }
+
+  private static final int MAX_HEADING_CHARS = 160;
+
+  private final Style style;
+  private final int minChars;
+
+  private int depth;
+  private boolean inBlockComment;
+  private int indentUnit;
+  private String topDecl = "";
+  private String prevTopLine = "";
+  private String chunkHeading = "";
+  private boolean sawNested;
+
+  // Body offsets: start of the comment/annotation run above the next declaration, and the latest
+  // depth-0 and depth-1 declaration starts (-1: none).
+  private int leadStart = -1;
+  private int cut0 = -1;
+  private String cut0Heading = "";
+  private int cut1 = -1;
+  private String cut1Heading = "";
+
+  public CodeChunker(Style style, int maxChars, Consumer<TextChunk> out) {
+    super(maxChars, out);
+    this.style = style;
+    this.minChars = Math.max(1, this.maxChars / 4);
+  }
+
+  /** Indentation style for Python and YAML, braces for everything else. */
+  public static Style styleOf(String ext) {
+    return "py".equals(ext) || "yaml".equals(ext) || "yml".equals(ext) ? Style.INDENT : Style.BRACES;
+  }
+
+  @Override
+  protected void onLine(CharSequence line, boolean complete) {
+    String trimmed = line.toString().trim();
+    int lineDepth = style == Style.BRACES ? depth : indentDepth(line);
+    if (trimmed.isEmpty()) {
+      append(line);
+      return;
+    }
+
+    boolean lead = isLeadLine(trimmed);
+    boolean decl = !lead && lineDepth <= 1 && !isContinuation(trimmed);
+    boolean opens;
+    if (style == Style.BRACES) {
+      scanBraces(line);
+      opens = depth > lineDepth;
+    } else {
+      opens = trimmed.endsWith(":");
+    }
+    if (decl && lineDepth == 0) {
+      topDecl = "";
+    }
+    if (lineDepth == 0 && opens && (decl || style == Style.BRACES)) {
+      topDecl = trimmed.startsWith("{") ? prevTopLine : headingOf(trimmed);
+    }
+    int declStart = decl && leadStart >= 0 ? leadStart : body.length();
+
+    // Runs of one-liners (imports, constants) stay packed; blocks start their own chunk.
+    if (decl && lineDepth == 0 && declStart >= minChars && (opens || sawNested)) {
+      cutAt(declStart, "");
+      declStart = 0;
+    }
+    if (decl && lineDepth == 0) {
+      sawNested = false;
+    } else if (lineDepth > 0) {
+      sawNested = true;
+    }
+    while (body.length() > 0 && body.length() + line.length() > maxChars) {
+      int cut = cut0 > 0 ? cut0 : cut1 > 0 ? cut1 : body.length();
+      String heading = cut == cut0 ? cut0Heading : cut == cut1 ? cut1Heading : enclosingHeading(lineDepth);
+      cutAt(cut, heading);
+      declStart = Math.max(0, declStart - cut);
+    }
+
+    if (body.length() == 0) {
+      chunkHeading = decl ? (lineDepth == 0 ? "" : enclosingHeading(lineDepth)) : enclosingHeading(lineDepth);
+    }
+    if (decl && declStart > 0) {
+      if (lineDepth == 0) {
+        cut0 = declStart;
+        cut0Heading = "";
+      } else {
+        cut1 = declStart;
+        cut1Heading = enclosingHeading(lineDepth);
+      }
+    }
+    int here = body.length();
+    append(line);
+
+    if (!lead) {
+      leadStart = -1;
+    } else if (leadStart < 0) {
+      leadStart = here;
+    }
+    if (lineDepth == 0 && !lead) {
+      prevTopLine = headingOf(trimmed);
+    }
+  }
+
+  @Override
+  protected void onEnd() {
+    emit(body.length(), chunkHeading);
+  }
+
+  private void cutAt(int n, String heading) {
+    emit(n, chunkHeading);
+    chunkHeading = heading;
+    cut0 = cut0 > n ? cut0 - n : -1;
+    cut1 = cut1 > n ? cut1 - n : -1;
+    leadStart = leadStart >= n ? leadStart - n : -1;
+  }
+
+  // The top-level declaration a line at lineDepth sits in; none for top-level lines themselves.
+  private String enclosingHeading(int lineDepth) {
+    return lineDepth > 0 ? topDecl : "";
+  }
+
+  private int indentDepth(CharSequence line) {
+    int cols = 0;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == ' ') {
+        cols++;
+      } else if (c == '\t') {
+        cols += 4;
+      } else {
+        break;
+      }
+    }
+    if (cols == 0) {
+      return 0;
+    }
+    if (indentUnit == 0) {
+      indentUnit = cols;
+    }
+    return cols <= indentUnit ? 1 : 2;
+  }
+
+  // Comments, annotations and decorators belong to the declaration below them.
+  private boolean isLeadLine(String t) {
+    if (t.startsWith("@") || t.startsWith("#")) {
+      return style == Style.INDENT || t.startsWith("@");
+    }
+    return inBlockComment || t.startsWith("//") || t.startsWith("/*") || t.startsWith("*");
+  }
+
+  private static boolean isContinuation(String t) {
+    char c = t.charAt(0);
+    if (c == '{' || c == '}' || c == ')' || c == ']' || c == '.' || c == '+' || c == '-' && !t.startsWith("- ") || c == '?' || c == ':' || c == ',') {
+      return true;
+    }
+    return t.startsWith("&&") || t.startsWith("||") || t.startsWith("else") || t.startsWith("elif ")
+        || t.startsWith("except") || t.startsWith("finally") || t.startsWith("catch");
+  }
+
+  private static String headingOf(String trimmed) {
+    return trimmed.length() > MAX_HEADING_CHARS ? trimmed.substring(0, MAX_HEADING_CHARS) : trimmed;
+  }
+
+  private void scanBraces(CharSequence line) {
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      char next = i + 1 < line.length() ? line.charAt(i + 1) : 0;
+      if (inBlockComment) {
+        if (c == '*' && next == '/') {
+          inBlockComment = false;
+          i++;
+        }
+      } else if (c == '/' && next == '/') {
+        return;
+      } else if (c == '/' && next == '*') {
+        inBlockComment = true;
+        i++;
+      } else if (c == '"' || c == '\'' || c == '`') {
+        i++;
+        while (i < line.length() && line.charAt(i) != c) {
+          if (line.charAt(i) == '\\') {
+            i++;
+          }
+          i++;
+        }
+      } else if (c == '{' || c == '[') {
+        depth++;
+      } else if ((c == '}' || c == ']') && depth > 0) {
+        depth--;
+      }
+    }
+  }
+}
@@ -1,24 +1,66 @@
 package local.ai.server.util;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 
 public final class Hashing {
   private Hashing() {}
 
+  private static final int FINGERPRINT_SAMPLE_BYTES = 64 * 1024;
+
   public static String sha256Hex(String input) {
     try {
       MessageDigest md = MessageDigest.getInstance("SHA-256");
-      byte[] out = md.digest(input.getBytes(StandardCharsets.UTF_8));
-      StringBuilder sb = new StringBuilder(out.length * 2);
-      for (byte b : out) {
-        sb.append(Character.forDigit((b >> 4) & 0xF, 16));
-        sb.append(Character.forDigit(b & 0xF, 16));
-      }
-      return sb.toString();
+      return hex(md.digest(input.getBytes(StandardCharsets.UTF_8)));
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
+
+  /**
+   * Cheap content fingerprint: SHA-256 over the size and the first and last 64KB. Two reads at
+   * most whatever the file size; enough to tell a renamed file from a different one with the
+   * same size and mtime.
+   */
+  public static String fileFingerprint(Path path) throws IOException {
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = ch.size();
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(Long.toString(size).getBytes(StandardCharsets.UTF_8));
+      ByteBuffer buf = ByteBuffer.allocate(FINGERPRINT_SAMPLE_BYTES);
+      digestRange(ch, 0, buf, md);
+      if (size > FINGERPRINT_SAMPLE_BYTES) {
+        digestRange(ch, Math.max(FINGERPRINT_SAMPLE_BYTES, size - FINGERPRINT_SAMPLE_BYTES), buf, md);
+      }
+      return hex(md.digest());
+    } catch (java.security.NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void digestRange(FileChannel ch, long from, ByteBuffer buf, MessageDigest md) throws IOException {
+    buf.clear();
+    long pos = from;
+    int n;
+    while (buf.hasRemaining() && (n = ch.read(buf, pos)) > 0) {
+      pos += n;
+    }
+    buf.flip();
+    md.update(buf);
+  }
+
+  private static String hex(byte[] out) {
+    StringBuilder sb = new StringBuilder(out.length * 2);
+    for (byte b : out) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+      sb.append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
 }
 
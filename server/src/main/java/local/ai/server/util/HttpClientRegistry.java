@@ -0,0 +1,135 @@
+package local.ai.server.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.ConnectionPool;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * The one OkHttp client behind all LLM and skill HTTP traffic. Every caller shares its
+ * connection pool, so keep-alive connections (and their TLS sessions) are reused across chats,
+ * embedding batches and video descriptions, and HTTP/2 is negotiated via ALPN where the
+ * endpoint offers it, multiplexing concurrent requests over one connection.
+ *
+ * <p>Requests to one host are capped at {@code maxRequestsPerHost} in flight. OkHttp's own
+ * dispatcher limit only covers async calls, so the cap is an interceptor that holds a permit
+ * until the response body is closed; a streamed chat counts for as long as it streams.
+ */
+public final class HttpClientRegistry {
+  private final OkHttpClient client;
+  private final int maxRequestsPerHost;
+  private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+  public HttpClientRegistry(int maxRequestsPerHost, int maxIdleConnections, long keepAliveSeconds) {
+    this.maxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+    this.client = new OkHttpClient.Builder()
+        .connectionPool(new ConnectionPool(Math.max(1, maxIdleConnections), keepAliveSeconds, TimeUnit.SECONDS))
+        .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+        .connectTimeout(60, TimeUnit.SECONDS)
+        .readTimeout(120, TimeUnit.SECONDS)
+        .addInterceptor(this::limit)
+        .build();
+  }
+
+  public OkHttpClient client() {
+    return client;
+  }
+
+  public Map<String, Object> stats() {
+    Map<String, Object> out = new LinkedHashMap<>();
+    ConnectionPool pool = client.connectionPool();
+    out.put("connections", pool.connectionCount());
+    out.put("idleConnections", pool.idleConnectionCount());
+    out.put("maxRequestsPerHost", maxRequestsPerHost);
+    Map<String, Object> perHost = new LinkedHashMap<>();
+    for (Map.Entry<String, Host> e : hosts.entrySet()) {
+      Host h = e.getValue();
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put("inFlight", maxRequestsPerHost - h.permits.availablePermits());
+      m.put("waiting", h.permits.getQueueLength());
+      m.put("requests", h.requests.get());
+      m.put("http2", h.http2.get());
+      m.put("failures", h.failures.get());
+      perHost.put(e.getKey(), m);
+    }
+    out.put("hosts", perHost);
+    return out;
+  }
+
+  public void close() {
+    client.dispatcher().executorService().shutdown();
+    client.connectionPool().evictAll();
+  }
+
+  private Response limit(Interceptor.Chain chain) throws IOException {
+    HttpUrl url = chain.request().url();
+    Host host = hosts.computeIfAbsent(url.host() + ":" + url.port(), k -> new Host(maxRequestsPerHost));
+    try {
+      host.permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for a connection slot to " + url.host());
+    }
+    AtomicBoolean released = new AtomicBoolean();
+    Runnable release = () -> {
+      if (released.compareAndSet(false, true)) {
+        host.permits.release();
+      }
+    };
+    Response res;
+    try {
+      host.requests.incrementAndGet();
+      res = chain.proceed(chain.request());
+    } catch (IOException | RuntimeException e) {
+      host.failures.incrementAndGet();
+      release.run();
+      throw e;
+    }
+    if (res.protocol() == Protocol.HTTP_2) {
+      host.http2.incrementAndGet();
+    }
+    ResponseBody body = res.body();
+    if (body == null) {
+      release.run();
+      return res;
+    }
+    ForwardingSource source = new ForwardingSource(body.source()) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          release.run();
+        }
+      }
+    };
+    return res.newBuilder()
+        .body(ResponseBody.create(Okio.buffer(source), body.contentType(), body.contentLength()))
+        .build();
+  }
+
+  private static final class Host {
+    final Semaphore permits;
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong http2 = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+
+    Host(int permits) {
+      this.permits = new Semaphore(permits, true);
+    }
+  }
+}
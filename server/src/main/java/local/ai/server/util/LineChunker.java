@@ -0,0 +1,110 @@
+package local.ai.server.util;
+
+import java.util.function.Consumer;
+
+/**
+ * Base for chunkers that work line by line and report offsets. Input is split into lines (each
+ * keeping its {@code '\n'}); a line longer than {@code maxChars} is handed over in
+ * {@code maxChars} pieces so that buffers stay bounded. Subclasses collect lines into
+ * {@link #body} and emit prefixes of it.
+ */
+abstract class LineChunker implements Chunker {
+  protected final int maxChars;
+  private final Consumer<TextChunk> out;
+
+  private final StringBuilder line = new StringBuilder();
+  private long lineStart;
+  private long pos;
+
+  protected final StringBuilder body = new StringBuilder();
+  protected long bodyStart;
+
+  LineChunker(int maxChars, Consumer<TextChunk> out) {
+    this.maxChars = Math.max(1, maxChars);
+    this.out = out;
+  }
+
+  /** Called for every line, or piece of an over-long line, in order. */
+  protected abstract void onLine(CharSequence line, boolean complete);
+
+  /** Called once after the last line; should emit what is left in {@link #body}. */
+  protected abstract void onEnd();
+
+  @Override
+  public void accept(CharSequence text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (line.length() == 0) {
+        lineStart = pos;
+      }
+      line.append(c);
+      pos++;
+      if (c == '\n') {
+        flushLine(true);
+      } else if (line.length() >= maxChars && !Character.isHighSurrogate(c)) {
+        flushLine(false);
+      }
+    }
+  }
+
+  @Override
+  public void breakParagraph() {
+    if (line.length() > 0) {
+      flushLine(true);
+    }
+  }
+
+  @Override
+  public boolean needsExactText() {
+    return true;
+  }
+
+  @Override
+  public void finish() {
+    breakParagraph();
+    onEnd();
+    body.setLength(0);
+  }
+
+  /** Appends a line to the body, which is assumed to end where the line starts. */
+  protected void append(CharSequence l) {
+    if (body.length() == 0) {
+      bodyStart = lineStart;
+    }
+    body.append(l);
+  }
+
+  /**
+   * Emits the first {@code n} chars of {@link #body}, trimmed, under {@code heading} and drops
+   * them from the body.
+   */
+  protected void emit(int n, String heading) {
+    int from = 0;
+    int to = n;
+    while (from < to && body.charAt(from) <= ' ') {
+      from++;
+    }
+    while (to > from && body.charAt(to - 1) <= ' ') {
+      to--;
+    }
+    if (to > from) {
+      out.accept(new TextChunk(body.substring(from, to), heading, bodyStart + from, bodyStart + to));
+    }
+    body.delete(0, n);
+    bodyStart += n;
+  }
+
+  protected static boolean isBlank(CharSequence s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void flushLine(boolean complete) {
+    onLine(line, complete);
+    line.setLength(0);
+  }
+}
@@ -0,0 +1,96 @@
+package local.ai.server.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small in-memory LRU map with a per-entry time to live, for caching results of remote or
+ * expensive calls. At most {@code maxEntries} entries are kept, least recently used first out;
+ * an entry older than the TTL counts as a miss and is dropped when looked up. A
+ * {@code maxEntries} of 0 disables the cache: every lookup misses and nothing is stored.
+ * Thread-safe; all operations take one lock, so values should be cheap to hand out.
+ */
+public final class LruCache<K, V> {
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final LinkedHashMap<K, Slot<V>> map;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+
+  public LruCache(int maxEntries, long ttl, TimeUnit unit) {
+    this.maxEntries = Math.max(0, maxEntries);
+    this.ttlNanos = ttl > 0 ? unit.toNanos(ttl) : Long.MAX_VALUE;
+    this.map = new LinkedHashMap<K, Slot<V>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Slot<V>> eldest) {
+        if (size() > LruCache.this.maxEntries) {
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /** The live value for {@code key}, or null; counts a hit or a miss. */
+  public V get(K key) {
+    if (maxEntries == 0) {
+      misses.incrementAndGet();
+      return null;
+    }
+    synchronized (map) {
+      Slot<V> e = map.get(key);
+      if (e != null && System.nanoTime() - e.storedAt > ttlNanos) {
+        map.remove(key);
+        expirations.incrementAndGet();
+        e = null;
+      }
+      if (e == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+      hits.incrementAndGet();
+      return e.value;
+    }
+  }
+
+  public void put(K key, V value) {
+    if (maxEntries == 0 || value == null) {
+      return;
+    }
+    synchronized (map) {
+      map.put(key, new Slot<>(value, System.nanoTime()));
+    }
+  }
+
+  public Map<String, Object> stats() {
+    Map<String, Object> out = new LinkedHashMap<>();
+    long h = hits.get();
+    long m = misses.get();
+    synchronized (map) {
+      out.put("size", map.size());
+    }
+    out.put("maxEntries", maxEntries);
+    out.put("hits", h);
+    out.put("misses", m);
+    out.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+    out.put("evictions", evictions.get());
+    out.put("expirations", expirations.get());
+    return out;
+  }
+
+  private static final class Slot<V> {
+    final V value;
+    final long storedAt;
+
+    Slot(V value, long storedAt) {
+      this.value = value;
+      this.storedAt = storedAt;
+    }
+  }
+}
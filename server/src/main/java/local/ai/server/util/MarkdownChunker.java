@@ -0,0 +1,140 @@
+package local.ai.server.util;
+
+import java.util.function.Consumer;
+
+/**
+ * Splits Markdown by heading hierarchy: every ATX heading ({@code #} to {@code ######}, outside
+ * fenced code blocks) starts a new section, and each chunk carries the path of headings above it
+ * ({@code "Guide > Install > Linux"}). A heading with no text of its own before the next heading
+ * stays with that next section. A section longer than {@code maxChars} is split at its last blank
+ * line that fits, or at a line end, and every piece keeps the section's heading path.
+ */
+public final class MarkdownChunker extends LineChunker {
+  private final String[] headings = new String[7];
+  private String path = "";
+  private boolean hasContent;
+  private int lastBlank = -1;
+  private char fence;
+  private int fenceLength;
+
+  public MarkdownChunker(int maxChars, Consumer<TextChunk> out) {
+    super(maxChars, out);
+  }
+
+  @Override
+  protected void onLine(CharSequence line, boolean complete) {
+    int level = fence == 0 && complete ? headingLevel(line) : 0;
+    if (complete) {
+      trackFence(line);
+    }
+    if (level > 0) {
+      if (hasContent) {
+        flush();
+      }
+      headings[level] = headingText(line, level);
+      for (int i = level + 1; i < headings.length; i++) {
+        headings[i] = null;
+      }
+      path = joinPath();
+      append(line);
+      return;
+    }
+
+    if (body.length() + line.length() > maxChars && hasContent && lastBlank > 0) {
+      emit(lastBlank, path);
+      lastBlank = -1;
+      hasContent = !isBlank(body);
+    }
+    if (body.length() + line.length() > maxChars && hasContent) {
+      flush();
+    }
+    boolean blank = isBlank(line);
+    append(line);
+    if (blank) {
+      lastBlank = body.length();
+    } else {
+      hasContent = true;
+    }
+  }
+
+  @Override
+  protected void onEnd() {
+    flush();
+  }
+
+  private void flush() {
+    emit(body.length(), path);
+    hasContent = false;
+    lastBlank = -1;
+  }
+
+  private void trackFence(CharSequence line) {
+    int i = 0;
+    while (i < line.length() && i < 3 && line.charAt(i) == ' ') {
+      i++;
+    }
+    if (i >= line.length() || (line.charAt(i) != '`' && line.charAt(i) != '~')) {
+      return;
+    }
+    char c = line.charAt(i);
+    int n = 0;
+    while (i + n < line.length() && line.charAt(i + n) == c) {
+      n++;
+    }
+    if (n < 3) {
+      return;
+    }
+    if (fence == 0) {
+      fence = c;
+      fenceLength = n;
+    } else if (c == fence && n >= fenceLength && isBlank(line.subSequence(i + n, line.length()))) {
+      fence = 0;
+    }
+  }
+
+  private static int headingLevel(CharSequence line) {
+    int i = 0;
+    while (i < line.length() && i < 3 && line.charAt(i) == ' ') {
+      i++;
+    }
+    int n = 0;
+    while (i + n < line.length() && line.charAt(i + n) == '#') {
+      n++;
+    }
+    if (n < 1 || n > 6) {
+      return 0;
+    }
+    int after = i + n;
+    if (after < line.length() && line.charAt(after) != ' ' && line.charAt(after) != '\t'
+        && line.charAt(after) != '\n' && line.charAt(after) != '\r') {
+      return 0;
+    }
+    return n;
+  }
+
+  // Heading text without the leading and optional closing #s.
+  private static String headingText(CharSequence line, int level) {
+    String s = line.toString().trim().substring(level).trim();
+    int end = s.length();
+    while (end > 0 && s.charAt(end - 1) == '#') {
+      end--;
+    }
+    if (end < s.length() && (end == 0 || s.charAt(end - 1) == ' ')) {
+      s = s.substring(0, end).trim();
+    }
+    return s;
+  }
+
+  private String joinPath() {
+    StringBuilder sb = new StringBuilder();
+    for (String h : headings) {
+      if (h != null && !h.isEmpty()) {
+        if (sb.length() > 0) {
+          sb.append(" > ");
+        }
+        sb.append(h);
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -1,7 +1,8 @@
 package local.ai.server.util;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
-import java.util.concurrent.TimeUnit;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -16,13 +17,11 @@ public final class OpenAiCompatibleClient {
   private final String apiKey;
   private final OkHttpClient http;
 
-  public OpenAiCompatibleClient(String baseUrl, String apiKey) {
+  /** {@code http} is the shared client from {@link HttpClientRegistry}; this class is stateless. */
+  public OpenAiCompatibleClient(String baseUrl, String apiKey, OkHttpClient http) {
     this.baseUrl = baseUrl == null ? "" : baseUrl.replaceAll("/+$", "");
     this.apiKey = apiKey == null ? "" : apiKey;
-    this.http = new OkHttpClient.Builder()
-        .connectTimeout(60, TimeUnit.SECONDS)
-        .readTimeout(120, TimeUnit.SECONDS)
-        .build();
+    this.http = http;
   }
 
   public float[] embed(String model, String input, int dim) {
@@ -56,6 +55,57 @@ public final class OpenAiCompatibleClient {
     }
   }
 
+  /**
+   * Embeds several inputs in one request. The result has one slot per input, matched by the
+   * response's {@code index} field; slots the server did not return are left null so the caller
+   * can retry only those items.
+   */
+  public java.util.List<float[]> embedBatch(String model, java.util.List<String> inputs, int dim) {
+    java.util.List<float[]> out = new java.util.ArrayList<>(inputs.size());
+    for (int i = 0; i < inputs.size(); i++) {
+      out.add(null);
+    }
+    if (inputs.isEmpty()) {
+      return out;
+    }
+    try {
+      String url = baseUrl + (baseUrl.endsWith("/v1") ? "" : "/v1") + "/embeddings";
+      String bodyJson = Json.toJson(new EmbeddingRequest(model, inputs));
+      Request req = new Request.Builder()
+          .url(url)
+          .addHeader("Authorization", "Bearer " + apiKey)
+          .post(RequestBody.create(bodyJson, JSON))
+          .build();
+
+      try (Response res = http.newCall(req).execute()) {
+        if (!res.isSuccessful() || res.body() == null) {
+          return out;
+        }
+        JsonNode data = Json.mapper().readTree(res.body().string()).path("data");
+        if (!data.isArray()) {
+          return out;
+        }
+        for (int j = 0; j < data.size(); j++) {
+          JsonNode item = data.get(j);
+          int idx = item.path("index").asInt(j);
+          JsonNode emb = item.path("embedding");
+          if (idx < 0 || idx >= inputs.size() || !emb.isArray()) {
+            continue;
+          }
+          float[] vec = new float[dim];
+          int n = Math.min(dim, emb.size());
+          for (int k = 0; k < n; k++) {
+            vec[k] = (float) emb.get(k).asDouble();
+          }
+          out.set(idx, vec);
+        }
+        return out;
+      }
+    } catch (Exception e) {
+      return out;
+    }
+  }
+
   public String chat(String model, String message) {
     return chat(model, java.util.Collections.singletonList(new Message("user", message)));
   }
@@ -89,9 +139,65 @@ public final class OpenAiCompatibleClient {
   }
 
   public void chatStream(String model, java.util.List<Message> messages, java.util.List<String> stop, java.util.function.Consumer<String> onToken) {
+    stream(new ChatRequest(model, messages, stop, true), onToken, delta -> {
+      String content = delta.path("content").asText("");
+      if (!content.isEmpty()) {
+        onToken.accept(content);
+      }
+    });
+  }
+
+  /**
+   * Streams one function-calling turn: content deltas go to {@code onToken} as they arrive, and
+   * the {@code tool_calls} fragments (id and name in the first delta of a call, arguments spread
+   * over the following ones, all keyed by {@code index}) are assembled into whole calls. The
+   * returned turn has no tool calls when the model answered directly or the request failed;
+   * in the latter case {@link ChatTurn#error} says why.
+   */
+  public ChatTurn chatStreamTools(String model, java.util.List<Message> messages, java.util.List<java.util.Map<String, Object>> tools, java.util.function.Consumer<String> onToken) {
+    StringBuilder content = new StringBuilder();
+    java.util.Map<Integer, String[]> calls = new java.util.TreeMap<>();
+    java.util.Map<Integer, StringBuilder> args = new java.util.HashMap<>();
+    ChatRequest body = new ChatRequest(model, messages, null, true, tools);
+    String error = stream(body, onToken, delta -> {
+      String text = delta.path("content").asText("");
+      if (!text.isEmpty()) {
+        content.append(text);
+        onToken.accept(text);
+      }
+      for (JsonNode tc : delta.path("tool_calls")) {
+        int idx = tc.path("index").asInt(calls.size());
+        String[] call = calls.computeIfAbsent(idx, k -> new String[2]);
+        if (tc.hasNonNull("id")) {
+          call[0] = tc.get("id").asText();
+        }
+        JsonNode fn = tc.path("function");
+        if (fn.hasNonNull("name")) {
+          call[1] = (call[1] == null ? "" : call[1]) + fn.get("name").asText();
+        }
+        if (fn.hasNonNull("arguments")) {
+          args.computeIfAbsent(idx, k -> new StringBuilder()).append(fn.get("arguments").asText());
+        }
+      }
+    });
+    java.util.List<ToolCall> out = new java.util.ArrayList<>();
+    for (java.util.Map.Entry<Integer, String[]> e : calls.entrySet()) {
+      String[] call = e.getValue();
+      if (call[1] == null || call[1].isEmpty()) {
+        continue;
+      }
+      StringBuilder a = args.get(e.getKey());
+      String id = call[0] != null ? call[0] : "call_" + e.getKey();
+      out.add(new ToolCall(id, call[1], a == null || a.length() == 0 ? "{}" : a.toString()));
+    }
+    return new ChatTurn(content.toString(), out, error);
+  }
+
+  // Posts a streaming chat request and hands each chunk's choices[0].delta to onDelta; errors
+  // are reported through onToken, as the non-tool stream always did, and returned (null if none).
+  private String stream(ChatRequest body, java.util.function.Consumer<String> onToken, java.util.function.Consumer<JsonNode> onDelta) {
     try {
       String url = baseUrl + (baseUrl.endsWith("/v1") ? "" : "/v1") + "/chat/completions";
-      ChatRequest body = new ChatRequest(model, messages, stop, true);
       String bodyJson = Json.toJson(body);
       
       Request req = new Request.Builder()
@@ -103,11 +209,12 @@ public final class OpenAiCompatibleClient {
 
       try (Response res = http.newCall(req).execute()) {
         if (!res.isSuccessful()) {
-          onToken.accept("Chat Error: " + res.code());
-          return;
+          String error = "Chat Error: " + res.code();
+          onToken.accept(error);
+          return error;
         }
         if (res.body() == null) {
-          return;
+          return "Chat Error: empty response";
         }
         
         java.io.BufferedReader reader = new java.io.BufferedReader(res.body().charStream());
@@ -116,18 +223,21 @@ public final class OpenAiCompatibleClient {
           if (line.startsWith("data: ")) {
             String data = line.substring(6).trim();
             if ("[DONE]".equals(data)) break;
+            JsonNode root;
             try {
-              JsonNode root = Json.mapper().readTree(data);
-              String content = root.path("choices").path(0).path("delta").path("content").asText("");
-              if (!content.isEmpty()) {
-                onToken.accept(content);
-              }
-            } catch (Exception ignored) {}
+              root = Json.mapper().readTree(data);
+            } catch (Exception ignored) {
+              continue;
+            }
+            onDelta.accept(root.path("choices").path(0).path("delta"));
           }
         }
       }
+      return null;
     } catch (Exception e) {
-      onToken.accept("Chat Exception: " + e.getMessage());
+      String error = "Chat Exception: " + e.getMessage();
+      onToken.accept(error);
+      return error;
     }
   }
 
@@ -136,8 +246,8 @@ public final class OpenAiCompatibleClient {
     public final java.util.List<Message> messages;
     public final java.util.List<String> stop;
     public final boolean stream;
-
-
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public final java.util.List<java.util.Map<String, Object>> tools;
 
     public ChatRequest(String model, String message) {
       this(model, java.util.Collections.singletonList(new Message("user", message)), null, false);
@@ -148,33 +258,93 @@ public final class OpenAiCompatibleClient {
     }
 
     public ChatRequest(String model, java.util.List<Message> messages, java.util.List<String> stop, boolean stream) {
+      this(model, messages, stop, stream, null);
+    }
+
+    public ChatRequest(String model, java.util.List<Message> messages, java.util.List<String> stop, boolean stream, java.util.List<java.util.Map<String, Object>> tools) {
       this.model = model;
       this.messages = messages;
       this.stop = stop;
       this.stream = stream;
+      this.tools = tools;
     }
   }
 
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   public static final class Message {
     public final String role;
     public final Object content;
+    @JsonProperty("tool_calls")
+    public final java.util.List<ToolCall> toolCalls;
+    @JsonProperty("tool_call_id")
+    public final String toolCallId;
 
     public Message(String role, String content) {
-      this.role = role;
-      this.content = content;
+      this(role, content, null, null);
     }
 
     public Message(String role, java.util.List<java.util.Map<String, Object>> content) {
+      this(role, content, null, null);
+    }
+
+    private Message(String role, Object content, java.util.List<ToolCall> toolCalls, String toolCallId) {
       this.role = role;
       this.content = content;
+      this.toolCalls = toolCalls;
+      this.toolCallId = toolCallId;
+    }
+
+    /** The assistant turn that requested {@code calls}; it must precede their results in the history. */
+    public static Message assistantToolCalls(String content, java.util.List<ToolCall> calls) {
+      return new Message("assistant", content == null ? "" : content, calls, null);
+    }
+
+    public static Message toolResult(String toolCallId, String content) {
+      return new Message("tool", content, null, toolCallId);
+    }
+  }
+
+  /** One function call requested by the model, in the request/response wire shape. */
+  public static final class ToolCall {
+    public final String id;
+    public final String type = "function";
+    public final Function function;
+
+    public ToolCall(String id, String name, String arguments) {
+      this.id = id;
+      this.function = new Function(name, arguments);
+    }
+
+    public static final class Function {
+      public final String name;
+      public final String arguments;
+
+      Function(String name, String arguments) {
+        this.name = name;
+        this.arguments = arguments;
+      }
+    }
+  }
+
+  /** The result of {@link #chatStreamTools}: the streamed text and any tool calls. */
+  public static final class ChatTurn {
+    public final String content;
+    public final java.util.List<ToolCall> toolCalls;
+    /** Why the request failed, or null if it completed. */
+    public final String error;
+
+    ChatTurn(String content, java.util.List<ToolCall> toolCalls, String error) {
+      this.content = content;
+      this.toolCalls = toolCalls;
+      this.error = error;
     }
   }
 
   private static final class EmbeddingRequest {
     public final String model;
-    public final String input;
+    public final Object input;
 
-    private EmbeddingRequest(String model, String input) {
+    private EmbeddingRequest(String model, Object input) {
       this.model = model;
       this.input = input;
     }
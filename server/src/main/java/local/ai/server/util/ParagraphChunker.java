@@ -0,0 +1,121 @@
+package local.ai.server.util;
+
+import java.util.function.Consumer;
+
+/**
+ * Incremental form of {@link TextChunker#chunkByParagraph}: text is fed in pieces and chunks are
+ * handed to {@code out} as soon as they are complete. Paragraphs are separated by a whitespace
+ * run containing at least two newlines; paragraphs are packed into chunks of at most
+ * {@code maxChars} and longer paragraphs are cut into {@code maxChars} slices.
+ *
+ * <p>Only the chunk being packed and the current paragraph are buffered, and a paragraph is sliced
+ * as soon as it outgrows {@code maxChars}, so memory stays bounded whatever the input size.
+ */
+public final class ParagraphChunker implements Chunker {
+  private final int maxChars;
+  private final Consumer<String> out;
+  private final StringBuilder cur = new StringBuilder();
+  private final StringBuilder para = new StringBuilder();
+  private final StringBuilder ws = new StringBuilder();
+  private int wsNewlines;
+  private boolean sliced;
+
+  public ParagraphChunker(int maxChars, Consumer<String> out) {
+    this.maxChars = Math.max(1, maxChars);
+    this.out = out;
+  }
+
+  @Override
+  public void accept(CharSequence text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (isSpace(c)) {
+        ws.append(c);
+        if (c == '\n') {
+          wsNewlines++;
+        }
+        continue;
+      }
+      if (wsNewlines >= 2) {
+        endParagraph();
+      } else if (para.length() > 0) {
+        para.append(ws);
+      }
+      ws.setLength(0);
+      wsNewlines = 0;
+      if (para.length() == 0 && c <= ' ') {
+        continue;
+      }
+      para.append(c);
+      if (c > ' ' && para.length() > maxChars) {
+        if (!sliced) {
+          flushCur();
+          sliced = true;
+        }
+        out.accept(para.substring(0, maxChars));
+        para.delete(0, maxChars);
+      }
+    }
+  }
+
+  /** Skips the per-character scan: the paragraph is packed or sliced as a whole. */
+  @Override
+  public void paragraph(CharSequence text) {
+    breakParagraph();
+    para.append(text);
+    if (para.length() > maxChars) {
+      flushCur();
+      sliced = true;
+    }
+    endParagraph();
+  }
+
+  @Override
+  public void breakParagraph() {
+    endParagraph();
+    ws.setLength(0);
+    wsNewlines = 0;
+  }
+
+  @Override
+  public void finish() {
+    endParagraph();
+    flushCur();
+  }
+
+  private void endParagraph() {
+    int end = para.length();
+    while (end > 0 && para.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    para.setLength(end);
+    if (sliced) {
+      for (int i = 0; i < para.length(); i += maxChars) {
+        out.accept(para.substring(i, Math.min(para.length(), i + maxChars)));
+      }
+    } else if (para.length() > 0) {
+      if (cur.length() == 0) {
+        cur.append(para);
+      } else if (cur.length() + 2 + para.length() <= maxChars) {
+        cur.append("\n\n").append(para);
+      } else {
+        flushCur();
+        cur.append(para);
+      }
+    }
+    para.setLength(0);
+    sliced = false;
+  }
+
+  private void flushCur() {
+    if (cur.length() > 0) {
+      out.accept(cur.toString());
+      cur.setLength(0);
+    }
+  }
+
+  // Same set as the regex class \s used by the original split.
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+  }
+}
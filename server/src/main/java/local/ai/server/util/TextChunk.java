@@ -0,0 +1,30 @@
+package local.ai.server.util;
+
+/**
+ * A chunk with its position in the source: {@code start}/{@code end} are character offsets into
+ * the decoded text ({@code -1} when the chunker does not track them) and {@code heading} is the
+ * structural context the chunk belongs to, e.g. a Markdown heading path or the enclosing
+ * top-level declaration ({@code ""} when there is none).
+ */
+public final class TextChunk {
+  public final String text;
+  public final String heading;
+  public final long start;
+  public final long end;
+
+  public TextChunk(String text, String heading, long start, long end) {
+    this.text = text;
+    this.heading = heading == null ? "" : heading;
+    this.start = start;
+    this.end = end;
+  }
+
+  public static TextChunk of(String text) {
+    return new TextChunk(text, "", -1, -1);
+  }
+
+  /** Text sent to the embedder: the heading gives an otherwise context-free chunk its place. */
+  public String embeddingText() {
+    return heading.isEmpty() ? text : heading + "\n" + text;
+  }
+}
@@ -0,0 +1,252 @@
+package local.ai.server.util;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Sliding-window chunker with a token budget. Text is packed sentence by sentence into a window
+ * of at most {@code maxTokens} (as counted by {@link #estimateTokens}, the same estimate used to
+ * size embedding batches); when the next sentence would overflow it, the window is emitted and
+ * its trailing sentences, up to {@code overlapTokens}, start the next window.
+ *
+ * <p>A sentence ends after {@code 。！？}, after {@code .!?} followed by whitespace, at a line
+ * break and at a paragraph break. A single sentence longer than the budget is cut at its last
+ * whitespace, or failing that between two characters (never inside a surrogate pair), and such
+ * cuts carry no overlap. Paragraph breaks are kept as a blank line inside a chunk.
+ *
+ * <p>One pass over the input; the only buffers are the window itself and its sentence offsets.
+ */
+public final class TokenWindowChunker implements Chunker {
+  private final int maxTokens;
+  private final int overlapTokens;
+  private final Consumer<String> out;
+
+  private final StringBuilder win = new StringBuilder();
+  private final StringBuilder ws = new StringBuilder();
+  private int wsNewlines;
+  private boolean pendingBreak;
+  private boolean afterTerminal;
+
+  // Offsets in win where a sentence ends; only ends after `fresh` are cut points, the ones before
+  // it lie in the overlap carried from the previous chunk.
+  private int[] ends = new int[16];
+  private int endCount;
+  private int fresh;
+
+  private int ascii;
+  private int other;
+
+  public TokenWindowChunker(int maxTokens, int overlapTokens, Consumer<String> out) {
+    this.maxTokens = Math.max(1, maxTokens);
+    this.overlapTokens = Math.max(0, Math.min(overlapTokens, this.maxTokens / 2));
+    this.out = out;
+  }
+
+  @Override
+  public void accept(CharSequence text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (isSpace(c)) {
+        ws.append(c);
+        if (c == '\n') {
+          wsNewlines++;
+        }
+        continue;
+      }
+      if (win.length() > 0) {
+        if (pendingBreak || wsNewlines > 0 || (afterTerminal && ws.length() > 0)) {
+          markEnd(win.length());
+        }
+        if (pendingBreak || wsNewlines >= 2) {
+          append("\n\n");
+        } else {
+          append(ws);
+        }
+      }
+      ws.setLength(0);
+      wsNewlines = 0;
+      pendingBreak = false;
+      append(c);
+      afterTerminal = c == '.' || c == '!' || c == '?';
+      if (tokens() > maxTokens) {
+        overflow();
+      }
+      if (c == '。' || c == '！' || c == '？') {
+        markEnd(win.length());
+      }
+    }
+  }
+
+  @Override
+  public void breakParagraph() {
+    pendingBreak = true;
+  }
+
+  @Override
+  public void finish() {
+    emit(win.length());
+    win.setLength(0);
+    ws.setLength(0);
+    endCount = 0;
+    fresh = 0;
+    ascii = 0;
+    other = 0;
+    wsNewlines = 0;
+    pendingBreak = false;
+    afterTerminal = false;
+  }
+
+  /**
+   * Rough token count: one token per non-ASCII char (CJK), four ASCII chars per token. Shared
+   * with the embedding batcher so chunk sizes and batch budgets agree.
+   */
+  public static int estimateTokens(CharSequence text) {
+    if (text == null) {
+      return 0;
+    }
+    int a = 0;
+    int o = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) < 0x80) {
+        a++;
+      } else {
+        o++;
+      }
+    }
+    return o + (a + 3) / 4;
+  }
+
+  private void overflow() {
+    while (tokens() > maxTokens) {
+      int cut = endCount > 0 ? ends[endCount - 1] : 0;
+      if (cut > fresh) {
+        emit(cut);
+        int keep = overlapStart(cut);
+        shift(keep);
+        fresh = cut - keep;
+        if (tokens() > maxTokens && fresh > 0) {
+          // The open sentence does not fit next to the overlap; drop the overlap.
+          shift(fresh);
+          fresh = 0;
+        }
+      } else if (fresh > 0) {
+        shift(fresh);
+        fresh = 0;
+      } else {
+        cut = hardCut();
+        emit(cut);
+        shift(cut);
+      }
+    }
+  }
+
+  // Cuts an over-long sentence at its last whitespace, else before the last character.
+  private int hardCut() {
+    for (int i = win.length() - 1; i > win.length() / 2; i--) {
+      if (isSpace(win.charAt(i))) {
+        return i;
+      }
+    }
+    int cut = win.length() - 1;
+    if (cut > 1 && Character.isHighSurrogate(win.charAt(cut - 1))) {
+      cut--;
+    }
+    return Math.max(1, cut);
+  }
+
+  // Earliest sentence start whose text up to `cut` fits in overlapTokens.
+  private int overlapStart(int cut) {
+    if (overlapTokens == 0) {
+      return cut;
+    }
+    int keep = cut;
+    int a = 0;
+    int o = 0;
+    int pos = cut;
+    for (int j = endCount - 2; j >= 0; j--) {
+      int start = ends[j];
+      for (int i = pos - 1; i >= start; i--) {
+        if (win.charAt(i) < 0x80) {
+          a++;
+        } else {
+          o++;
+        }
+      }
+      pos = start;
+      if (o + (a + 3) / 4 > overlapTokens) {
+        break;
+      }
+      keep = start;
+    }
+    return keep;
+  }
+
+  private void emit(int end) {
+    int start = 0;
+    while (start < end && isSpace(win.charAt(start))) {
+      start++;
+    }
+    while (end > start && isSpace(win.charAt(end - 1))) {
+      end--;
+    }
+    if (end > start) {
+      out.accept(win.substring(start, end));
+    }
+  }
+
+  private void shift(int n) {
+    if (n <= 0) {
+      return;
+    }
+    win.delete(0, n);
+    int k = 0;
+    for (int i = 0; i < endCount; i++) {
+      if (ends[i] > n) {
+        ends[k++] = ends[i] - n;
+      }
+    }
+    endCount = k;
+    ascii = 0;
+    other = 0;
+    for (int i = 0; i < win.length(); i++) {
+      if (win.charAt(i) < 0x80) {
+        ascii++;
+      } else {
+        other++;
+      }
+    }
+  }
+
+  private void markEnd(int offset) {
+    if (endCount > 0 && ends[endCount - 1] == offset) {
+      return;
+    }
+    if (endCount == ends.length) {
+      ends = Arrays.copyOf(ends, endCount * 2);
+    }
+    ends[endCount++] = offset;
+  }
+
+  private void append(CharSequence s) {
+    for (int i = 0; i < s.length(); i++) {
+      append(s.charAt(i));
+    }
+  }
+
+  private void append(char c) {
+    win.append(c);
+    if (c < 0x80) {
+      ascii++;
+    } else {
+      other++;
+    }
+  }
+
+  private int tokens() {
+    return other + (ascii + 3) / 4;
+  }
+
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+  }
+}
@@ -0,0 +1,200 @@
+package local.ai.server.watch;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-path debouncing on a single hashed timer wheel. A path has at most one pending entry: a
+ * new event for a pending path replaces its task and pushes its deadline back instead of adding
+ * a timer, so a save storm costs one entry per path. The wheel thread runs each task once its
+ * deadline has passed; tasks run one at a time, on that thread, in deadline order per tick.
+ *
+ * <p>At most {@code capacity} paths are pending. When a new path would exceed that, the oldest
+ * pending entry is handed to the wheel thread to run ahead of the timers: its job reaches the
+ * (persistent, deduplicating) job queue early instead of the watcher holding an unbounded set in
+ * memory, and the thread that scheduled it never runs a task itself.
+ */
+final class Debouncer {
+  private static final long TICK_MS = 50;
+  private static final int SLOTS = 64;
+
+  private final int capacity;
+  private final Object lock = new Object();
+  private final Map<Path, Entry> pending = new LinkedHashMap<>();
+  private final ArrayDeque<Entry> forcedOut = new ArrayDeque<>();
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private final List<Entry>[] wheel = new List[SLOTS];
+  private final Thread thread;
+  private volatile boolean stopped;
+
+  private final AtomicLong events = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong emitted = new AtomicLong();
+  private final AtomicLong forced = new AtomicLong();
+
+  Debouncer(int capacity) {
+    this.capacity = Math.max(1, capacity);
+    for (int i = 0; i < SLOTS; i++) {
+      wheel[i] = new ArrayList<>();
+    }
+    this.thread = new Thread(this::run, "watch-debounce");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /** Runs {@code task} once no newer event for {@code path} arrives within {@code delayMs}. */
+  void schedule(Path path, Runnable task, long delayMs) {
+    events.incrementAndGet();
+    long deadline = System.currentTimeMillis() + delayMs;
+    synchronized (lock) {
+      Entry e = pending.get(path);
+      if (e != null) {
+        // Still sits in its old slot; the wheel re-slots it when that slot comes round.
+        e.task = task;
+        e.deadline = deadline;
+        coalesced.incrementAndGet();
+        return;
+      }
+      if (pending.size() >= capacity) {
+        Iterator<Entry> it = pending.values().iterator();
+        Entry overflow = it.next();
+        it.remove();
+        overflow.done = true;
+        forcedOut.add(overflow);
+        lock.notifyAll();
+      }
+      e = new Entry(path, task, deadline);
+      pending.put(path, e);
+      slot(e);
+    }
+  }
+
+  /** Drops the pending entry for {@code path}, if any, without running it. */
+  void cancel(Path path) {
+    synchronized (lock) {
+      Entry e = pending.remove(path);
+      if (e != null) {
+        e.done = true;
+      }
+    }
+  }
+
+  void stop() {
+    stopped = true;
+    thread.interrupt();
+  }
+
+  Map<String, Object> stats() {
+    Map<String, Object> out = new LinkedHashMap<>();
+    synchronized (lock) {
+      out.put("pending", pending.size());
+    }
+    out.put("capacity", capacity);
+    out.put("events", events.get());
+    out.put("coalesced", coalesced.get());
+    out.put("emitted", emitted.get());
+    out.put("forcedByCapacity", forced.get());
+    return out;
+  }
+
+  private void run() {
+    long tick = System.currentTimeMillis() / TICK_MS;
+    while (!stopped) {
+      for (Entry e : takeForced()) {
+        forced.incrementAndGet();
+        runTask(e.task);
+      }
+      long now = System.currentTimeMillis();
+      long wait = (tick + 1) * TICK_MS - now;
+      if (wait > 0) {
+        try {
+          synchronized (lock) {
+            if (forcedOut.isEmpty()) {
+              lock.wait(wait);
+            }
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        continue;
+      }
+      // Catch up on every tick that passed, so entries in skipped slots are not stranded.
+      long last = now / TICK_MS;
+      for (long t = tick + 1; t <= last && !stopped; t++) {
+        for (Entry e : expire(t, now)) {
+          emitted.incrementAndGet();
+          runTask(e.task);
+        }
+      }
+      tick = last;
+    }
+  }
+
+  private List<Entry> takeForced() {
+    synchronized (lock) {
+      List<Entry> out = new ArrayList<>(forcedOut);
+      forcedOut.clear();
+      return out;
+    }
+  }
+
+  // Takes the due entries of one slot and re-slots the ones whose deadline was pushed back.
+  private List<Entry> expire(long tick, long now) {
+    List<Entry> due = new ArrayList<>();
+    synchronized (lock) {
+      List<Entry> slot = wheel[(int) (tick % SLOTS)];
+      if (slot.isEmpty()) {
+        return due;
+      }
+      List<Entry> entries = new ArrayList<>(slot);
+      slot.clear();
+      for (Entry e : entries) {
+        if (e.done) {
+          continue;
+        }
+        if (e.deadline > now) {
+          slot(e);
+        } else {
+          e.done = true;
+          pending.remove(e.path);
+          due.add(e);
+        }
+      }
+    }
+    due.sort((a, b) -> Long.compare(a.deadline, b.deadline));
+    return due;
+  }
+
+  private void slot(Entry e) {
+    // Deadlines further out than one turn land in an earlier slot and are simply re-slotted.
+    long t = (e.deadline + TICK_MS - 1) / TICK_MS;
+    wheel[(int) (t % SLOTS)].add(e);
+  }
+
+  private static void runTask(Runnable task) {
+    try {
+      task.run();
+    } catch (Exception e) {
+      System.err.println("Watch task failed: " + e.getMessage());
+    }
+  }
+
+  private static final class Entry {
+    final Path path;
+    Runnable task;
+    long deadline;
+    boolean done;
+
+    Entry(Path path, Runnable task, long deadline) {
+      this.path = path;
+      this.task = task;
+      this.deadline = deadline;
+    }
+  }
+}
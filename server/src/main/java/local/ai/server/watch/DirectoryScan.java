@@ -0,0 +1,178 @@
+package local.ai.server.watch;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import local.ai.server.db.SqliteStore;
+import local.ai.server.etl.EtlService;
+
+/**
+ * Initial scan of one watch root. Directories are listed in parallel as fork-join tasks, one per
+ * directory; each file's size and mtime are compared against the {@code files} rows of the whole
+ * root, loaded up front with one query, and only new or changed files are enqueued, in batches
+ * of {@link #BATCH} per transaction. Indexed files that were not seen and no longer exist are
+ * enqueued as deletes at the end, as are those the root's {@link PathFilter} now excludes.
+ * Excluded directories are not listed at all. Counters are live and readable while the scan
+ * runs.
+ */
+final class DirectoryScan {
+  static final int BATCH = 1000;
+
+  private final Path root;
+  private final PathFilter filter;
+  private final EtlService etl;
+  private final Consumer<Path> onDirectory;
+
+  private volatile String state = "queued";
+  private volatile long startedAt;
+  private volatile long finishedAt;
+  private volatile int indexedFiles;
+  private final AtomicLong directories = new AtomicLong();
+  private final AtomicLong files = new AtomicLong();
+  private final AtomicLong unchanged = new AtomicLong();
+  private final AtomicLong enqueuedUpserts = new AtomicLong();
+  private final AtomicLong enqueuedDeletes = new AtomicLong();
+
+  private Map<Path, SqliteStore.FileMeta> indexed;
+  private final List<Path> batch = new ArrayList<>();
+
+  /** {@code onDirectory} sees every directory listed; it must be safe to call concurrently. */
+  DirectoryScan(Path root, PathFilter filter, EtlService etl, Consumer<Path> onDirectory) {
+    this.root = root;
+    this.filter = filter;
+    this.etl = etl;
+    this.onDirectory = onDirectory;
+  }
+
+  void run(ForkJoinPool pool) {
+    startedAt = System.currentTimeMillis();
+    state = "loading";
+    try {
+      indexed = new ConcurrentHashMap<>(etl.indexedMetaUnder(root));
+      indexedFiles = indexed.size();
+      state = "scanning";
+      pool.invoke(new DirTask(root));
+      flush();
+      List<Path> gone = new ArrayList<>();
+      for (Path p : indexed.keySet()) {
+        if (Files.notExists(p) || !filter.acceptsEventFile(p)) {
+          gone.add(p);
+        }
+      }
+      etl.submitDeletes(gone);
+      enqueuedDeletes.addAndGet(gone.size());
+      state = "done";
+    } catch (Exception e) {
+      System.err.println("Scan of " + root + " failed: " + e.getMessage());
+      state = "failed";
+    } finally {
+      indexed = null;
+      finishedAt = System.currentTimeMillis();
+    }
+  }
+
+  Map<String, Object> progress() {
+    Map<String, Object> out = new LinkedHashMap<>();
+    out.put("root", root.toString());
+    out.put("state", state);
+    out.put("startedAt", startedAt);
+    out.put("finishedAt", finishedAt);
+    out.put("indexedFiles", indexedFiles);
+    out.put("directories", directories.get());
+    out.put("files", files.get());
+    out.put("unchanged", unchanged.get());
+    out.put("enqueuedUpserts", enqueuedUpserts.get());
+    out.put("enqueuedDeletes", enqueuedDeletes.get());
+    return out;
+  }
+
+  private void changed(Path file) {
+    List<Path> full = null;
+    synchronized (batch) {
+      batch.add(file);
+      if (batch.size() >= BATCH) {
+        full = new ArrayList<>(batch);
+        batch.clear();
+      }
+    }
+    if (full != null) {
+      etl.submitUpserts(full);
+      enqueuedUpserts.addAndGet(full.size());
+    }
+  }
+
+  private void flush() {
+    List<Path> rest;
+    synchronized (batch) {
+      rest = new ArrayList<>(batch);
+      batch.clear();
+    }
+    etl.submitUpserts(rest);
+    enqueuedUpserts.addAndGet(rest.size());
+  }
+
+  private final class DirTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Path dir;
+
+    DirTask(Path dir) {
+      this.dir = dir;
+    }
+
+    @Override
+    protected void compute() {
+      onDirectory.accept(dir);
+      directories.incrementAndGet();
+      List<DirTask> subdirs = new ArrayList<>();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+        for (Path entry : entries) {
+          BasicFileAttributes attrs;
+          try {
+            attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          } catch (IOException e) {
+            // Unreadable entries keep their index rows rather than being treated as deleted.
+            indexed.remove(entry);
+            continue;
+          }
+          if (attrs.isDirectory()) {
+            if (!filter.excludedHere(entry, true)) {
+              subdirs.add(new DirTask(entry));
+            }
+          } else if (attrs.isRegularFile() && filter.acceptsFile(entry)) {
+            visit(entry, attrs);
+          }
+        }
+      } catch (IOException ignored) {
+        // Listing failed: leave whatever is indexed under it alone as well.
+        return;
+      }
+      invokeAll(subdirs);
+    }
+
+    private void visit(Path file, BasicFileAttributes attrs) {
+      files.incrementAndGet();
+      SqliteStore.FileMeta meta = indexed.remove(file);
+      if (!etl.isIndexable(file)) {
+        return;
+      }
+      if (etl.isCurrent(meta, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+        unchanged.incrementAndGet();
+      } else {
+        changed(file);
+      }
+    }
+  }
+}
@@ -11,44 +11,105 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import local.ai.server.config.WatchConfig;
 import local.ai.server.etl.EtlService;
 
+/**
+ * Watches the configured roots and turns file events into ETL jobs after a per-path debounce
+ * (see {@link Debouncer}). Deletes wait roughly two debounce windows so that a rename, which
+ * arrives as a DELETE of the old path and a CREATE of the new one, can be paired up: a created
+ * file (or every file in a created directory) whose size, mtime and fingerprint match an indexed
+ * file at a just-deleted path becomes a rename job, and that old path is left out of the deletes.
+ *
+ * <p>Each root has a {@link PathFilter}; excluded directories are never registered or walked,
+ * and events for excluded or not included files are dropped before they are debounced.
+ *
+ * <p>Events can still be lost: the OS signals OVERFLOW when its event queue fills up (git
+ * checkout, unpacking an archive). The affected directories are then rescanned against the
+ * {@code files} table, and a rate-limited reconciliation pass over all roots runs periodically
+ * on a low-priority thread as a backstop.
+ */
 public final class MultiDirectoryWatcher {
+  private final WatchConfig config;
   private final EtlService etl;
   private final WatchService watchService;
   private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+  private final Map<Path, WatchKey> watched = new ConcurrentHashMap<>();
   private final Set<Path> roots = ConcurrentHashMap.newKeySet();
+  private final Map<Path, PathFilter> filters = new ConcurrentHashMap<>();
   private final ExecutorService loop;
-  private final ScheduledExecutorService debounce;
-  private final Map<Path, Runnable> pending = new ConcurrentHashMap<>();
+  private final Debouncer debouncer;
+  private final long debounceMs;
+  private final long deleteDelayMs;
+  // Deleted paths whose delete has not fired yet, and old file paths already claimed by a rename.
+  private final Set<Path> deleted = ConcurrentHashMap.newKeySet();
+  private final Set<Path> renamed = ConcurrentHashMap.newKeySet();
+  private final Reconciler reconciler;
+  private final ScheduledExecutorService rescans;
+  private final ScheduledExecutorService reconcile;
+  private final Set<Path> pendingRescans = ConcurrentHashMap.newKeySet();
+  private final AtomicLong overflows = new AtomicLong();
+  private volatile long lastReconcileAt;
+  private final ExecutorService scanner;
+  private final ForkJoinPool scanPool;
+  private final Map<Path, DirectoryScan> scans = Collections.synchronizedMap(new LinkedHashMap<Path, DirectoryScan>());
 
-  public MultiDirectoryWatcher(EtlService etl) {
+  public MultiDirectoryWatcher(WatchConfig config, EtlService etl) {
+    this.config = config;
     this.etl = etl;
+    this.reconciler = new Reconciler(etl, this::register);
     try {
       this.watchService = FileSystems.getDefault().newWatchService();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
     this.loop = Executors.newSingleThreadExecutor();
-    this.debounce = Executors.newSingleThreadScheduledExecutor();
+    this.debounceMs = config.debounceMs;
+    this.deleteDelayMs = 2 * debounceMs + 50;
+    this.debouncer = new Debouncer(config.maxPendingEvents);
+    this.rescans = Executors.newSingleThreadScheduledExecutor();
+    this.scanner = Executors.newSingleThreadExecutor();
+    this.scanPool = new ForkJoinPool(config.scanParallelism);
+    this.reconcile = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "watch-reconcile");
+      t.setDaemon(true);
+      t.setPriority(Thread.MIN_PRIORITY);
+      return t;
+    });
   }
 
   public void addRoot(Path root) {
+    addRoot(root, Collections.<String>emptyList(), Collections.<String>emptyList());
+  }
+
+  /**
+   * Adds a root with its own include/exclude globs, on top of the ones in {@code watch}. Adding
+   * a known root again replaces its globs and rescans it.
+   */
+  public void addRoot(Path root, List<String> include, List<String> exclude) {
     Path r = root.toAbsolutePath().normalize();
     if (!Files.isDirectory(r)) {
       return;
     }
+    filters.put(r, new PathFilter(r, concat(config.include, include), concat(config.exclude, exclude), config.ignoreFiles));
     if (roots.add(r)) {
-      registerAll(r);
       scanExisting(r);
+    } else {
+      scheduleRescan(r);
     }
   }
 
@@ -56,8 +117,35 @@ public final class MultiDirectoryWatcher {
     return new HashSet<Path>(roots);
   }
 
+  /** Progress of the initial scan of each root, in the order roots were added. */
+  public List<Map<String, Object>> scanProgress() {
+    List<Map<String, Object>> out = new ArrayList<>();
+    synchronized (scans) {
+      for (DirectoryScan scan : scans.values()) {
+        out.add(scan.progress());
+      }
+    }
+    return out;
+  }
+
   public void start() {
     loop.submit(this::runLoop);
+    if (config.reconcileIntervalMinutes > 0) {
+      reconcile.scheduleWithFixedDelay(this::reconcileAll, config.reconcileIntervalMinutes, config.reconcileIntervalMinutes, TimeUnit.MINUTES);
+    }
+  }
+
+  public Map<String, Object> metrics() {
+    Map<String, Object> out = new LinkedHashMap<>();
+    out.put("watchedDirectories", watched.size());
+    out.put("overflows", overflows.get());
+    out.put("pendingRescans", pendingRescans.size());
+    out.put("lastReconcileAt", lastReconcileAt);
+    out.put("reconcileScannedFiles", reconciler.scannedFiles());
+    out.put("reconcileEnqueuedUpserts", reconciler.enqueuedUpserts());
+    out.put("reconcileEnqueuedDeletes", reconciler.enqueuedDeletes());
+    out.put("debounce", debouncer.stats());
+    return out;
   }
 
   public void stop() {
@@ -66,7 +154,11 @@ public final class MultiDirectoryWatcher {
     } catch (Exception ignored) {
     }
     loop.shutdownNow();
-    debounce.shutdownNow();
+    debouncer.stop();
+    rescans.shutdownNow();
+    scanner.shutdownNow();
+    scanPool.shutdownNow();
+    reconcile.shutdownNow();
   }
 
   private void runLoop() {
@@ -83,54 +175,214 @@ public final class MultiDirectoryWatcher {
         for (WatchEvent<?> event : key.pollEvents()) {
           WatchEvent.Kind<?> kind = event.kind();
           if (kind == StandardWatchEventKinds.OVERFLOW) {
+            requestRescan(dir);
             continue;
           }
           Path name = (Path) event.context();
           Path child = dir.resolve(name);
+          PathFilter filter = filterFor(child);
+          if (filter != null && filter.isIgnoreFile(child)) {
+            // Rules changed: re-read them and let a rescan index or drop what they now cover.
+            filter.invalidate(dir);
+            scheduleRescan(dir);
+          }
+          if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+            // A deleted path can no longer be told apart as file or directory, and a directory
+            // never matches the include globs, so only the exclude rules apply; onDeleted
+            // expands a directory to the indexed files below it.
+            if (filter == null || !filter.isExcluded(child, false)) {
+              scheduleDelete(child);
+            }
+            continue;
+          }
+          boolean isDir = Files.isDirectory(child);
+          if (filter != null && (isDir ? filter.isExcluded(child, true) : !filter.acceptsEventFile(child))) {
+            continue;
+          }
           if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
-            if (Files.isDirectory(child)) {
-              registerAll(child);
+            if (isDir) {
+              registerAll(child, filter);
             }
-            scheduleUpsert(child);
+            scheduleCreate(child);
           } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
             scheduleUpsert(child);
-          } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
-            scheduleDelete(child);
           }
         }
       }
 
       boolean valid = key.reset();
       if (!valid) {
-        keys.remove(key);
+        Path gone = keys.remove(key);
+        if (gone != null) {
+          watched.remove(gone, key);
+        }
       }
     }
   }
 
+  // An overflow is usually signalled on every key at once; rescans wait one debounce window and
+  // skip directories whose ancestor is rescanned anyway, so a burst collapses to the roots.
+  private void requestRescan(Path dir) {
+    overflows.incrementAndGet();
+    scheduleRescan(dir);
+  }
+
+  private void scheduleRescan(Path dir) {
+    if (pendingRescans.add(dir)) {
+      rescans.schedule(this::runRescans, debounceMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void runRescans() {
+    Set<Path> dirs = new HashSet<>(pendingRescans);
+    pendingRescans.removeAll(dirs);
+    for (Path dir : dirs) {
+      PathFilter filter = filterFor(dir);
+      if (filter != null && !hasAncestorIn(dir, dirs) && Files.isDirectory(dir)) {
+        reconciler.reconcile(dir, filter, 0);
+      }
+    }
+  }
+
+  private static boolean hasAncestorIn(Path dir, Set<Path> dirs) {
+    for (Path p = dir.getParent(); p != null; p = p.getParent()) {
+      if (dirs.contains(p)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void reconcileAll() {
+    for (Map.Entry<Path, PathFilter> e : filters.entrySet()) {
+      if (Files.isDirectory(e.getKey())) {
+        reconciler.reconcile(e.getKey(), e.getValue(), config.reconcileFilesPerSecond);
+      }
+    }
+    lastReconcileAt = System.currentTimeMillis();
+  }
+
   private void scheduleUpsert(Path path) {
-    schedule(path, () -> etl.submitUpsert(path));
+    schedule(path, () -> etl.submitUpsert(path), debounceMs);
   }
 
-  private void scheduleDelete(Path path) {
-    schedule(path, () -> etl.submitDelete(path));
+  private void scheduleCreate(Path path) {
+    schedule(path, () -> onCreated(path.toAbsolutePath().normalize()), debounceMs);
   }
 
-  private void schedule(Path path, Runnable r) {
+  private void scheduleDelete(Path path) {
     Path p = path.toAbsolutePath().normalize();
-    pending.put(p, r);
-    debounce.schedule(() -> {
-      Runnable rr = pending.remove(p);
-      if (rr != null) {
-        rr.run();
+    deleted.add(p);
+    schedule(p, () -> onDeleted(p), deleteDelayMs);
+  }
+
+  private void schedule(Path path, Runnable r, long delayMs) {
+    debouncer.schedule(path.toAbsolutePath().normalize(), r, delayMs);
+  }
+
+  private void onCreated(Path path) {
+    boolean recreated = deleted.remove(path);
+    if (recreated && !Files.isDirectory(path)) {
+      // Deleted and recreated in place (atomic saves): a plain upsert.
+      etl.submitUpsert(path);
+      return;
+    }
+    if (recreated) {
+      for (Path p : etl.indexedFilesUnder(path)) {
+        if (!Files.exists(p)) {
+          etl.submitDelete(p);
+        }
       }
-    }, 500, TimeUnit.MILLISECONDS);
+    }
+    if (Files.isDirectory(path)) {
+      onDirectoryCreated(path);
+      return;
+    }
+    Path from = findMovedFrom(path);
+    if (from != null) {
+      deleted.remove(from);
+      debouncer.cancel(from);
+      etl.submitRename(from, path);
+    } else {
+      etl.submitUpsert(path);
+    }
+  }
+
+  // A directory that appears with content was moved in or renamed; its files produce no events
+  // of their own, so walk it and pair each file with a pending deleted directory when possible.
+  private void onDirectoryCreated(Path dir) {
+    List<Path> sources = new ArrayList<>(deleted);
+    Path[] source = new Path[1];
+    PathFilter filter = filterFor(dir);
+    try {
+      Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+          return filter != null && !d.equals(dir) && filter.excludedHere(d, true) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (!attrs.isRegularFile() || (filter != null && !filter.acceptsFile(file))) {
+            return FileVisitResult.CONTINUE;
+          }
+          Path rel = dir.relativize(file);
+          Path from = null;
+          if (source[0] != null && etl.isMovedFile(source[0].resolve(rel), file)) {
+            from = source[0].resolve(rel);
+          } else {
+            for (Path d : sources) {
+              if (etl.isMovedFile(d.resolve(rel), file)) {
+                source[0] = d;
+                from = d.resolve(rel);
+                break;
+              }
+            }
+          }
+          if (from != null) {
+            renamed.add(from);
+            etl.submitRename(from, file);
+          } else {
+            etl.submitUpsert(file);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException ignored) {
+    }
+  }
+
+  private Path findMovedFrom(Path file) {
+    for (Path d : deleted) {
+      if (etl.isMovedFile(d, file)) {
+        return d;
+      }
+    }
+    return null;
+  }
+
+  // A deleted directory has no files row of its own; expand it to the files indexed under it.
+  private void onDeleted(Path path) {
+    deleted.remove(path);
+    List<Path> targets = new ArrayList<>();
+    targets.add(path);
+    targets.addAll(etl.indexedFilesUnder(path));
+    for (Path p : targets) {
+      if (!renamed.remove(p)) {
+        etl.submitDelete(p);
+      }
+    }
+    renamed.removeIf(p -> p.startsWith(path));
   }
 
-  private void registerAll(Path start) {
+  private void registerAll(Path start, PathFilter filter) {
     try {
       Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
         @Override
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          if (filter != null && !dir.equals(start) && filter.excludedHere(dir, true)) {
+            return FileVisitResult.SKIP_SUBTREE;
+          }
           register(dir);
           return FileVisitResult.CONTINUE;
         }
@@ -139,24 +391,40 @@ public final class MultiDirectoryWatcher {
     }
   }
 
+  // Scans run one root at a time, each spread over the fork-join pool; they register the watch
+  // of every directory right before listing it, so nothing created meanwhile is missed.
   private void scanExisting(Path root) {
-    loop.submit(() -> {
-      try {
-        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
-          @Override
-          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-            if (attrs.isRegularFile()) {
-              scheduleUpsert(file);
-            }
-            return FileVisitResult.CONTINUE;
-          }
-        });
-      } catch (IOException ignored) {
+    DirectoryScan scan = new DirectoryScan(root, filters.get(root), etl, this::register);
+    scans.put(root, scan);
+    scanner.submit(() -> scan.run(scanPool));
+  }
+
+  // The filter of the innermost root containing `path`; null when it is under none.
+  private PathFilter filterFor(Path path) {
+    PathFilter best = null;
+    for (PathFilter f : filters.values()) {
+      if (path.startsWith(f.root()) && (best == null || f.root().getNameCount() > best.root().getNameCount())) {
+        best = f;
       }
-    });
+    }
+    return best;
   }
 
+  private static List<String> concat(List<String> a, List<String> b) {
+    List<String> out = new ArrayList<>(a);
+    if (b != null) {
+      out.addAll(b);
+    }
+    return out;
+  }
+
+  // A directory deleted and recreated at the same path needs a new key, so only a key that is
+  // still valid counts as already watching it.
   private void register(Path dir) {
+    WatchKey existing = watched.get(dir);
+    if (existing != null && existing.isValid()) {
+      return;
+    }
     try {
       WatchKey key = dir.register(
           watchService,
@@ -164,8 +432,16 @@ public final class MultiDirectoryWatcher {
           StandardWatchEventKinds.ENTRY_MODIFY,
           StandardWatchEventKinds.ENTRY_DELETE
       );
-      keys.put(key, dir);
+      Path previous = keys.put(key, dir);
+      if (previous != null && !previous.equals(dir)) {
+        // Same directory under a new name (a rename); the key now reports the new path.
+        watched.remove(previous, key);
+      }
+      watched.put(dir, key);
     } catch (IOException ignored) {
+      if (existing != null) {
+        watched.remove(dir, existing);
+      }
     }
   }
 }
@@ -0,0 +1,233 @@
+package local.ai.server.watch;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which paths under one watch root are watched and indexed. Exclude globs and the
+ * {@code .gitignore}-style files found in each directory are evaluated with gitignore rules:
+ * a pattern without a slash matches a name at any depth, one with a slash is anchored to the
+ * directory that declares it, a trailing slash limits it to directories, {@code *} stays within
+ * a path segment, {@code **} spans segments, {@code !} re-includes, and the last matching rule
+ * wins, deeper ignore files overriding shallower ones and the configured globs. A directory that
+ * is excluded is pruned with everything in it. Include globs, when given, further restrict which
+ * files are indexed (a pattern without a slash matches the file name) but never prune
+ * directories.
+ *
+ * <p>Ignore files are read once per directory and cached until {@link #invalidate}.
+ */
+final class PathFilter {
+  private final Path root;
+  private final List<Rule> excludes;
+  private final List<Rule> includes;
+  private final List<String> ignoreFiles;
+  private final Map<Path, List<Rule>> ignoreRules = new ConcurrentHashMap<>();
+
+  PathFilter(Path root, List<String> include, List<String> exclude, List<String> ignoreFiles) {
+    this.root = root;
+    this.excludes = parse(exclude);
+    this.includes = parse(include);
+    this.ignoreFiles = ignoreFiles;
+  }
+
+  Path root() {
+    return root;
+  }
+
+  /**
+   * Whether {@code path} or any directory between it and the root is excluded. Used for paths
+   * that come from watch events, where nothing is known about the ancestors.
+   */
+  boolean isExcluded(Path path, boolean isDir) {
+    if (!path.startsWith(root) || path.equals(root)) {
+      return false;
+    }
+    Path rel = root.relativize(path);
+    Path p = root;
+    for (int i = 0; i < rel.getNameCount() - 1; i++) {
+      p = p.resolve(rel.getName(i));
+      if (excludedHere(p, true)) {
+        return true;
+      }
+    }
+    return excludedHere(path, isDir);
+  }
+
+  /**
+   * Whether {@code path} itself is excluded, assuming its parent directory is not. Used while
+   * walking, where the parent was checked on the way down.
+   */
+  boolean excludedHere(Path path, boolean isDir) {
+    if (path.equals(root)) {
+      return false;
+    }
+    Boolean verdict = match(excludes, root, path, isDir, null);
+    Path rel = root.relativize(path);
+    Path dir = root;
+    for (int i = 0; i < rel.getNameCount(); i++) {
+      verdict = match(rulesIn(dir), dir, path, isDir, verdict);
+      dir = dir.resolve(rel.getName(i));
+    }
+    return verdict != null && verdict;
+  }
+
+  /** Whether a file the walk reached (its directory already checked) should be indexed. */
+  boolean acceptsFile(Path file) {
+    return !excludedHere(file, false) && included(file);
+  }
+
+  /** Full check for a file path from a watch event. */
+  boolean acceptsEventFile(Path file) {
+    return !isExcluded(file, false) && included(file);
+  }
+
+  boolean isIgnoreFile(Path path) {
+    Path name = path.getFileName();
+    return name != null && ignoreFiles.contains(name.toString());
+  }
+
+  /** Forgets the cached ignore rules of {@code dir}, after one of its ignore files changed. */
+  void invalidate(Path dir) {
+    ignoreRules.remove(dir);
+  }
+
+  private boolean included(Path file) {
+    if (includes.isEmpty()) {
+      return true;
+    }
+    Boolean verdict = match(includes, root, file, false, null);
+    return verdict != null && verdict;
+  }
+
+  private List<Rule> rulesIn(Path dir) {
+    if (ignoreFiles.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Rule> rules = ignoreRules.get(dir);
+    if (rules == null) {
+      List<String> lines = new ArrayList<>();
+      for (String name : ignoreFiles) {
+        Path f = dir.resolve(name);
+        if (Files.isRegularFile(f)) {
+          try {
+            lines.addAll(Files.readAllLines(f, StandardCharsets.UTF_8));
+          } catch (Exception ignored) {
+          }
+        }
+      }
+      rules = parse(lines);
+      ignoreRules.put(dir, rules);
+    }
+    return rules;
+  }
+
+  // Last matching rule wins; returns `verdict` unchanged when none matches.
+  private static Boolean match(List<Rule> rules, Path base, Path path, boolean isDir, Boolean verdict) {
+    if (rules.isEmpty()) {
+      return verdict;
+    }
+    String rel = base.relativize(path).toString().replace('\\', '/');
+    Path nameP = path.getFileName();
+    String name = nameP == null ? rel : nameP.toString();
+    for (Rule r : rules) {
+      if (r.dirOnly && !isDir) {
+        continue;
+      }
+      if (r.pattern.matcher(r.anchored ? rel : name).matches()) {
+        verdict = !r.negate;
+      }
+    }
+    return verdict;
+  }
+
+  private static List<Rule> parse(List<String> lines) {
+    List<Rule> out = new ArrayList<>();
+    if (lines == null) {
+      return out;
+    }
+    for (String raw : lines) {
+      String s = raw.trim();
+      if (s.isEmpty() || s.startsWith("#")) {
+        continue;
+      }
+      boolean negate = s.startsWith("!");
+      if (negate) {
+        s = s.substring(1);
+      }
+      boolean dirOnly = s.endsWith("/");
+      while (s.endsWith("/")) {
+        s = s.substring(0, s.length() - 1);
+      }
+      boolean anchored = s.contains("/");
+      while (s.startsWith("/")) {
+        s = s.substring(1);
+      }
+      if (!s.isEmpty()) {
+        out.add(new Rule(Pattern.compile(globToRegex(s)), negate, dirOnly, anchored));
+      }
+    }
+    return out;
+  }
+
+  private static String globToRegex(String glob) {
+    StringBuilder sb = new StringBuilder();
+    int i = 0;
+    while (i < glob.length()) {
+      char c = glob.charAt(i);
+      if (c == '*' && glob.startsWith("**/", i)) {
+        sb.append("(?:.*/)?");
+        i += 3;
+        continue;
+      }
+      if (c == '*' && glob.startsWith("**", i)) {
+        sb.append(".*");
+        i += 2;
+        continue;
+      }
+      if (c == '*') {
+        sb.append("[^/]*");
+      } else if (c == '?') {
+        sb.append("[^/]");
+      } else if (c == '[') {
+        int end = glob.indexOf(']', i + 1);
+        if (end < 0) {
+          sb.append("\\[");
+        } else {
+          String cls = glob.substring(i + 1, end);
+          if (cls.startsWith("!")) {
+            cls = "^" + cls.substring(1);
+          }
+          sb.append('[').append(cls.replace("\\", "\\\\")).append(']');
+          i = end;
+        }
+      } else if (c == '\\' && i + 1 < glob.length()) {
+        sb.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+      } else {
+        sb.append(Pattern.quote(String.valueOf(c)));
+      }
+      i++;
+    }
+    return sb.toString();
+  }
+
+  private static final class Rule {
+    final Pattern pattern;
+    final boolean negate;
+    final boolean dirOnly;
+    final boolean anchored;
+
+    Rule(Pattern pattern, boolean negate, boolean dirOnly, boolean anchored) {
+      this.pattern = pattern;
+      this.negate = negate;
+      this.dirOnly = dirOnly;
+      this.anchored = anchored;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package local.ai.server.watch;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import local.ai.server.db.SqliteStore;
+import local.ai.server.etl.EtlService;
+
+/**
+ * Brings the index back in line with a directory tree when watch events may have been lost:
+ * files whose size or mtime differ from the {@code files} table, or that are missing from it,
+ * are enqueued as upserts, and indexed files that no longer exist as deletes. Nothing is
+ * enqueued for files that are unchanged. The indexed side is loaded with one query per tree.
+ */
+final class Reconciler {
+  private final EtlService etl;
+  private final Consumer<Path> onDirectory;
+
+  private final AtomicLong scannedFiles = new AtomicLong();
+  private final AtomicLong enqueuedUpserts = new AtomicLong();
+  private final AtomicLong enqueuedDeletes = new AtomicLong();
+
+  /** {@code onDirectory} sees every directory walked, so the watcher can register missed ones. */
+  Reconciler(EtlService etl, Consumer<Path> onDirectory) {
+    this.etl = etl;
+    this.onDirectory = onDirectory;
+  }
+
+  /**
+   * Reconciles everything below {@code dir} that {@code filter} lets through; indexed files it
+   * now excludes are deleted. With a positive {@code filesPerSecond} the walk is paced to that
+   * rate, so a background pass does not compete with queries for disk and CPU.
+   */
+  void reconcile(Path dir, PathFilter filter, int filesPerSecond) {
+    Map<Path, SqliteStore.FileMeta> indexed = etl.indexedMetaUnder(dir);
+    long pauseNanos = filesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / filesPerSecond : 0;
+    long[] next = {System.nanoTime()};
+    try {
+      Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+          if (!d.equals(dir) && filter.excludedHere(d, true)) {
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+          onDirectory.accept(d);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (Thread.currentThread().isInterrupted()) {
+            return FileVisitResult.TERMINATE;
+          }
+          if (!attrs.isRegularFile() || !filter.acceptsFile(file)) {
+            return FileVisitResult.CONTINUE;
+          }
+          SqliteStore.FileMeta meta = indexed.remove(file);
+          scannedFiles.incrementAndGet();
+          if (etl.isIndexable(file) && !etl.isCurrent(meta, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+            etl.submitUpsert(file);
+            enqueuedUpserts.incrementAndGet();
+          }
+          if (pauseNanos > 0) {
+            next[0] += pauseNanos;
+            long wait = next[0] - System.nanoTime();
+            if (wait > 0) {
+              try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return FileVisitResult.TERMINATE;
+              }
+            } else if (wait < -TimeUnit.SECONDS.toNanos(1)) {
+              // Do not burst to catch up after a slow stretch.
+              next[0] = System.nanoTime();
+            }
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+          // Unreadable entries keep their index rows rather than being treated as deleted.
+          indexed.remove(file);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException ignored) {
+      return;
+    }
+    if (Thread.currentThread().isInterrupted()) {
+      return;
+    }
+    for (Path gone : indexed.keySet()) {
+      if (Files.notExists(gone) || !filter.acceptsEventFile(gone)) {
+        etl.submitDelete(gone);
+        enqueuedDeletes.incrementAndGet();
+      }
+    }
+  }
+
+  long scannedFiles() {
+    return scannedFiles.get();
+  }
+
+  long enqueuedUpserts() {
+    return enqueuedUpserts.get();
+  }
+
+  long enqueuedDeletes() {
+    return enqueuedDeletes.get();
+  }
+}
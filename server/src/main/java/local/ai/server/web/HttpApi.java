@@ -26,6 +26,7 @@ import local.ai.server.config.YamlConfigLoader;
 import local.ai.server.db.SqliteStore;
 import local.ai.server.etl.ChatAnswer;
 import local.ai.server.etl.EtlService;
+import local.ai.server.etl.RecallHit;
 import local.ai.server.mcp.McpRuntime;
 import local.ai.server.watch.MultiDirectoryWatcher;
 import local.ai.shared.Json;
@@ -226,11 +227,16 @@ public final class HttpApi {
       return Json.toJson(dirs);
     });
 
+    get("/api/directories/scan", (req, res) -> {
+      res.type("application/json");
+      return Json.toJson(watcher.scanProgress());
+    });
+
     post("/api/directories", (req, res) -> {
       DirectoryAddRequest r = Json.mapper().readValue(req.body(), DirectoryAddRequest.class);
       Path p = Paths.get(r.path).toAbsolutePath().normalize();
-      store.addDirectory(p);
-      watcher.addRoot(p);
+      store.addDirectory(p, r.include, r.exclude);
+      watcher.addRoot(p, r.include, r.exclude);
       res.type("application/json");
       Map<String, Object> out = new LinkedHashMap<String, Object>();
       out.put("ok", true);
@@ -352,12 +358,22 @@ public final class HttpApi {
       JsonNode root = Json.mapper().readTree(req.body());
       String query = root.path("query").asText("");
       int topK = root.path("topK").asInt(8);
-      List<SqliteStore.ChunkRow> rows = etl.ragRecall(query, topK);
+      List<RecallHit> hits = etl.ragSearch(query, topK);
       List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
-      for (SqliteStore.ChunkRow r : rows) {
+      for (RecallHit h : hits) {
+        SqliteStore.ChunkRow r = h.chunk;
         Map<String, Object> it = new LinkedHashMap<String, Object>();
         it.put("chunkId", r.chunkId);
         it.put("path", r.path);
+        if (!r.heading.isEmpty()) {
+          it.put("heading", r.heading);
+        }
+        if (r.startOffset >= 0) {
+          it.put("startOffset", r.startOffset);
+          it.put("endOffset", r.endOffset);
+        }
+        it.put("score", h.score);
+        it.put("sources", h.sources);
         String c = r.content == null ? "" : r.content;
         it.put("preview", c.length() > 400 ? c.substring(0, 400) + "..." : c);
         items.add(it);
@@ -370,6 +386,13 @@ public final class HttpApi {
       return Json.toJson(out);
     });
 
+    get("/api/metrics", (req, res) -> {
+      res.type("application/json");
+      Map<String, Object> out = etl.metrics();
+      out.put("watch", watcher.metrics());
+      return Json.toJson(out);
+    });
+
     get("/api/jobs", (req, res) -> {
       res.type("application/json");
       return Json.toJson(store.listJobs(50));
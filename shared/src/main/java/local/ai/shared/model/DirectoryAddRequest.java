@@ -2,13 +2,23 @@ package local.ai.shared.model;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Collections;
+import java.util.List;
 
 public final class DirectoryAddRequest {
   public final String path;
+  public final List<String> include;
+  public final List<String> exclude;
 
   @JsonCreator
-  public DirectoryAddRequest(@JsonProperty("path") String path) {
+  public DirectoryAddRequest(
+      @JsonProperty("path") String path,
+      @JsonProperty("include") List<String> include,
+      @JsonProperty("exclude") List<String> exclude
+  ) {
     this.path = path;
+    this.include = include == null ? Collections.<String>emptyList() : include;
+    this.exclude = exclude == null ? Collections.<String>emptyList() : exclude;
   }
 }
 
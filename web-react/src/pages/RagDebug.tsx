@@ -82,7 +82,9 @@ export default function RagDebug() {
               {res.items.map((it) => (
                 <div key={it.chunkId} className="rounded-xl border border-slate-800 bg-slate-950 px-4 py-3">
                   <div className="text-sm font-semibold text-slate-100">{it.path}</div>
-                  <div className="mt-1 text-xs text-slate-500">chunkId: {it.chunkId}</div>
+                  <div className="mt-1 text-xs text-slate-500">
+                    chunkId: {it.chunkId} · sources: {(it.sources ?? []).join(', ')} · score: {it.score?.toFixed(4)}
+                  </div>
                   <div className="mt-3 whitespace-pre-wrap text-xs text-slate-200">{it.preview}</div>
                 </div>
               ))}
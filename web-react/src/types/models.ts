@@ -77,6 +77,8 @@ export type ChatResponse = {
 export type RagItem = {
   chunkId: string
   path: string
+  score: number
+  sources: string[]
   preview: string
 }
 